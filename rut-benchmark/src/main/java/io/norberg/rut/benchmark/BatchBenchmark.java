@@ -0,0 +1,96 @@
+package io.norberg.rut.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.norberg.rut.Router;
+
+/**
+ * Batch routing throughput compared to routing the same requests one at a time.
+ */
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+  private static final int BATCH = 32;
+
+  private static final String[] ROUTES = {
+      "/users/",
+      "/users/<user>",
+      "/users/<user>/profile",
+      "/users/<user>/blogs/",
+      "/users/<user>/blogs/<blog>/posts/",
+      "/users/<user>/blogs/<blog>/posts/<post>",
+      "/users/<user>/blogs/<blog>",
+      "/blogs/",
+      "/blogs/<blog>",
+      "/internal/metrics/v2/series/<id>",
+      "/internal/metrics/v2/series/<id>/points",
+      "/internal/health",
+  };
+
+  private static final String[] PATHS = {
+      "/users/foo-user/blogs/bar-blog/posts/baz-post",
+      "/users/foo-user/profile",
+      "/blogs/bar-blog",
+      "/internal/metrics/v2/series/123e4567-e89b-12d3-a456-426614174000/points",
+      "/internal/health",
+      "/users/foo-user/blogs/bar-blog/followers/foo",
+  };
+
+  private Router<String> router;
+  private CharSequence[] methods;
+  private CharSequence[] paths;
+  private Router.Result<String>[] results;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    final Router.Builder<String> builder = Router.builder();
+    for (final String route : ROUTES) {
+      builder.route("GET", route, route);
+    }
+    router = builder.build();
+    methods = new CharSequence[BATCH];
+    paths = new CharSequence[BATCH];
+    results = new Router.Result[BATCH];
+    for (int i = 0; i < BATCH; i++) {
+      methods[i] = "GET";
+      paths[i] = PATHS[i % PATHS.length];
+      results[i] = router.result();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public Router.Result<String>[] batchRouting() {
+    router.routeBatch(methods, paths, results, BATCH);
+    return results;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public Router.Result<String>[] singleRouting() {
+    for (int i = 0; i < BATCH; i++) {
+      router.route(methods[i], paths[i], results[i]);
+    }
+    return results;
+  }
+
+  public static void main(final String... args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + BatchBenchmark.class.getSimpleName() + ".*")
+        .warmupIterations(5)
+        .measurementIterations(20)
+        .forks(5)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,94 @@
+package io.norberg.rut.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.norberg.rut.Router;
+
+/**
+ * Time to build routers for multi-tenant route tables of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BuildBenchmark {
+
+  private static final String[] RESOURCES = {
+      "",
+      "/<id>",
+      "/<id>/history",
+      "/<id>/owners/",
+      "/<id>/owners/<owner>",
+      "/<id>/files/<file:path>",
+  };
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int routes;
+
+  private List<String> sorted;
+  private List<String> shuffled;
+
+  @Setup
+  public void setup() {
+    sorted = new ArrayList<String>(routes);
+    for (int i = 0; sorted.size() < routes; i++) {
+      final String service = "/tenants/t" + (i / 64) + "/services/s" + (i % 64);
+      for (int j = 0; j < RESOURCES.length && sorted.size() < routes; j++) {
+        sorted.add(service + RESOURCES[j]);
+      }
+    }
+    Collections.sort(sorted);
+    shuffled = new ArrayList<String>(sorted);
+    Collections.shuffle(shuffled, new Random(4711));
+  }
+
+  @Benchmark
+  public Router<String> sortedBuild() {
+    return build(sorted, false);
+  }
+
+  @Benchmark
+  public Router<String> shuffledBuild() {
+    return build(shuffled, false);
+  }
+
+  @Benchmark
+  public Router<String> parallelBuild() {
+    return build(sorted, true);
+  }
+
+  private static Router<String> build(final List<String> routes, final boolean parallel) {
+    final Router.Builder<String> builder = Router.builder(String.class).parallel(parallel);
+    for (final String route : routes) {
+      builder.route("GET", route, route);
+    }
+    return builder.build();
+  }
+
+  public static void main(final String... args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + BuildBenchmark.class.getSimpleName() + ".*")
+        .warmupIterations(5)
+        .measurementIterations(10)
+        .forks(2)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,77 @@
+package io.norberg.rut.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import io.norberg.rut.Router;
+
+/**
+ * Percent decoding cost of a captured segment, for mostly ASCII, Latin-1 and CJK values.
+ */
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+  @Param({"ascii", "latin1", "cjk"})
+  public String input;
+
+  private Router<String> router;
+  private Router.Result<String> result;
+  private String path;
+  private final char[] decoded = new char[256];
+
+  @Setup
+  public void setup() throws UnsupportedEncodingException {
+    final String value;
+    switch (input) {
+      case "ascii":
+        value = "the-quick-brown-fox/jumps over the lazy dog";
+        break;
+      case "latin1":
+        value = "räksmörgås à la crème brûlée, señor";
+        break;
+      case "cjk":
+        value = "東京都渋谷区の美味しいラーメン屋";
+        break;
+      default:
+        throw new IllegalArgumentException(input);
+    }
+    router = Router.builder(String.class)
+        .route("GET", "/search/<query>", "search")
+        .build();
+    result = router.result();
+    path = "/search/" + URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+  }
+
+  @Benchmark
+  public int decodeIntoArray() {
+    router.route("GET", path, result);
+    return result.paramValueDecoded(0, decoded, 0);
+  }
+
+  @Benchmark
+  public CharSequence decode() {
+    router.route("GET", path, result);
+    return result.paramValueDecoded(0);
+  }
+
+  public static void main(final String... args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + DecodeBenchmark.class.getSimpleName() + ".*")
+        .warmupIterations(5)
+        .measurementIterations(20)
+        .forks(5)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,80 @@
+package io.norberg.rut.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+
+import io.norberg.rut.Router;
+
+/**
+ * Routing cost as a function of the length of a static prefix and of a captured segment.
+ */
+@State(Scope.Thread)
+public class MatchBenchmark {
+
+  private static final byte[] GET = "GET".getBytes(StandardCharsets.US_ASCII);
+
+  @Param({"4", "16", "64"})
+  public int prefixLength;
+
+  @Param({"8", "36", "128"})
+  public int captureLength;
+
+  private Router<String> router;
+  private Router.Result<String> result;
+  private String path;
+  private byte[] pathBytes;
+
+  @Setup
+  public void setup() {
+    final String prefix = "/" + repeat('p', prefixLength - 1);
+    final String capture = repeat('c', captureLength);
+    router = Router.builder(String.class)
+        .route("GET", prefix + "/<id>/history", "history")
+        .route("GET", prefix + "/<id>", "entity")
+        .route("GET", prefix + "-other/<id>", "other")
+        .build();
+    result = router.result();
+    path = prefix + "/" + capture + "/history";
+    pathBytes = path.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Benchmark
+  public String stringRouting() {
+    router.route("GET", path, result);
+    return result.target();
+  }
+
+  @Benchmark
+  public String byteArrayRouting() {
+    router.route(GET, 0, GET.length, pathBytes, 0, pathBytes.length, result);
+    return result.target();
+  }
+
+  private static String repeat(final char c, final int n) {
+    final StringBuilder b = new StringBuilder(n);
+    for (int i = 0; i < n; i++) {
+      b.append(c);
+    }
+    return b.toString();
+  }
+
+  public static void main(final String... args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + MatchBenchmark.class.getSimpleName() + ".*")
+        .warmupIterations(5)
+        .measurementIterations(20)
+        .forks(5)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -33,6 +33,8 @@ public class RoutingBenchmark {
 
   private static final Router<String> ROUTER;
   private static final Router<String> ROUTER_OPTIONAL_TRAILING_SLASH;
+  private static final Router<String> SPECIALIZED_ROUTER;
+  private static final Router<String> CACHED_ROUTER;
   private static final Router.Result<String> RESULT;
 
   static {
@@ -43,6 +45,12 @@ public class RoutingBenchmark {
     ROUTER = builder.build();
     builder.optionalTrailingSlash(true);
     ROUTER_OPTIONAL_TRAILING_SLASH = builder.build();
+    builder.optionalTrailingSlash(false);
+    builder.specialize(true);
+    SPECIALIZED_ROUTER = builder.build();
+    builder.specialize(false);
+    builder.cache(64);
+    CACHED_ROUTER = builder.build();
     RESULT = ROUTER.result();
   }
 
@@ -117,6 +125,35 @@ public class RoutingBenchmark {
     return target;
   }
 
+  @Benchmark
+  public String specializedRadixTreeRouting() {
+    SPECIALIZED_ROUTER.route("GET", path, RESULT);
+    final String target = RESULT.target();
+    if (target == null) {
+      throw new AssertionError();
+    }
+    return target;
+  }
+
+  @Benchmark
+  public String specializedRadixTreeRoutingNotFound() {
+    SPECIALIZED_ROUTER.route("GET", notFoundPath, RESULT);
+    if (RESULT.isSuccess()) {
+      return RESULT.target();
+    }
+    return null;
+  }
+
+  @Benchmark
+  public String cachedRadixTreeRouting() {
+    CACHED_ROUTER.route("GET", path, RESULT);
+    final String target = RESULT.target();
+    if (target == null) {
+      throw new AssertionError();
+    }
+    return target;
+  }
+
   public static void main(final String... args) throws RunnerException {
     Options opt = new OptionsBuilder()
         .include(".*" + RoutingBenchmark.class.getSimpleName() + ".*")
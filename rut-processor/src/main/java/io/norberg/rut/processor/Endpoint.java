@@ -0,0 +1,25 @@
+package io.norberg.rut.processor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the routes of a handler method. The routes of all annotated methods of a class are
+ * compiled into a router at compile time by the {@link RouterProcessor}.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Endpoint {
+
+  /**
+   * The request methods of the routes. E.g. {@code GET, PUT, POST, DELETE}, etc.
+   */
+  String[] method();
+
+  /**
+   * The path of the routes. E.g. {@code /users/<user>}.
+   */
+  String path();
+}
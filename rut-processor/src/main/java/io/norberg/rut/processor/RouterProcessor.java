@@ -0,0 +1,210 @@
+package io.norberg.rut.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+
+import io.norberg.rut.Router;
+
+/**
+ * Compiles the routes declared by {@link Endpoint} annotations into routers at compile time.
+ *
+ * <p>For each class with annotated methods, a class named after it with a {@code Routes} suffix
+ * is generated next to it. The generated class has a {@code Handler} enum with a constant per
+ * annotated method, and a {@code router()} method that returns a {@link Router} routing to those
+ * constants. The router is embedded in the generated class as a snapshot, see {@link
+ * Router#writeSnapshot}, so routes are not parsed again at runtime.
+ */
+public final class RouterProcessor extends AbstractProcessor {
+
+  // Snapshot bytes per string constant. Constants are limited to 65535 bytes of modified UTF-8.
+  // Bytes are written as octal escapes, as unicode escapes are translated before lexing.
+  private static final int CHUNK = 8192;
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(Endpoint.class.getName());
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(final Set<? extends TypeElement> annotations,
+                         final RoundEnvironment roundEnv) {
+    final Map<TypeElement, List<ExecutableElement>> types =
+        new LinkedHashMap<TypeElement, List<ExecutableElement>>();
+    for (final Element element : roundEnv.getElementsAnnotatedWith(Endpoint.class)) {
+      if (element.getKind() != ElementKind.METHOD) {
+        error(element, "@Endpoint is only allowed on methods");
+        continue;
+      }
+      final TypeElement type = (TypeElement) element.getEnclosingElement();
+      List<ExecutableElement> methods = types.get(type);
+      if (methods == null) {
+        methods = new ArrayList<ExecutableElement>();
+        types.put(type, methods);
+      }
+      methods.add((ExecutableElement) element);
+    }
+    for (final Map.Entry<TypeElement, List<ExecutableElement>> entry : types.entrySet()) {
+      generate(entry.getKey(), entry.getValue());
+    }
+    return true;
+  }
+
+  private void generate(final TypeElement type, final List<ExecutableElement> methods) {
+    // Build the router with the handler names as targets
+    final List<String> handlers = new ArrayList<String>();
+    final Router.Builder<String> builder = Router.builder(String.class);
+    boolean valid = true;
+    for (final ExecutableElement method : methods) {
+      final String handler = method.getSimpleName().toString();
+      if (handlers.contains(handler)) {
+        error(method, "Duplicate @Endpoint method name: " + handler);
+        valid = false;
+        continue;
+      }
+      handlers.add(handler);
+      final Endpoint endpoint = method.getAnnotation(Endpoint.class);
+      for (final String requestMethod : endpoint.method()) {
+        try {
+          builder.route(requestMethod, endpoint.path(), handler);
+        } catch (IllegalArgumentException e) {
+          error(method, "Invalid @Endpoint path: " + endpoint.path());
+          valid = false;
+        }
+      }
+    }
+    if (!valid) {
+      return;
+    }
+    final byte[] snapshot;
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      builder.build().writeSnapshot(out, handlers.toArray(new String[handlers.size()]));
+      snapshot = out.toByteArray();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+
+    final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+    final String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    final String name = name(type) + "Routes";
+    final String qualifiedName = packageName.isEmpty() ? name : packageName + "." + name;
+    try {
+      final PrintWriter w = new PrintWriter(
+          processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter());
+      try {
+        write(w, packageName, name, type.getQualifiedName().toString(), handlers, snapshot);
+      } finally {
+        w.close();
+      }
+    } catch (IOException e) {
+      error(type, "Failed to write " + qualifiedName + ": " + e.getMessage());
+    }
+  }
+
+  private static void write(final PrintWriter w, final String packageName, final String name,
+                            final String type, final List<String> handlers,
+                            final byte[] snapshot) {
+    if (!packageName.isEmpty()) {
+      w.println("package " + packageName + ";");
+      w.println();
+    }
+    w.println("import io.norberg.rut.Router;");
+    w.println();
+    w.println("import java.nio.ByteBuffer;");
+    w.println();
+    w.println("/**");
+    w.println(" * Routes of {@link " + type + "}. Generated by " +
+              RouterProcessor.class.getName() + ".");
+    w.println(" */");
+    w.println("public final class " + name + " {");
+    w.println();
+    w.println("  /**");
+    w.println("   * The handler methods of {@link " + type + "}.");
+    w.println("   */");
+    w.println("  public enum Handler {");
+    for (final String handler : handlers) {
+      w.println("    " + handler + ",");
+    }
+    w.println("  }");
+    w.println();
+    w.println("  private static final String[] SNAPSHOT = {");
+    for (int i = 0; i < snapshot.length; i += CHUNK) {
+      w.print("      \"");
+      for (int j = i; j < Math.min(i + CHUNK, snapshot.length); j++) {
+        final int b = snapshot[j] & 0xFF;
+        if (b >= 0x20 && b < 0x7F && b != '"' && b != '\\') {
+          w.print((char) b);
+        } else {
+          w.printf("\\%03o", b);
+        }
+      }
+      w.println("\",");
+    }
+    w.println("  };");
+    w.println();
+    w.println("  private static final Router<Handler> ROUTER = load();");
+    w.println();
+    w.println("  private " + name + "() {");
+    w.println("  }");
+    w.println();
+    w.println("  /**");
+    w.println("   * Get the router of the routes of {@link " + type + "}.");
+    w.println("   */");
+    w.println("  public static Router<Handler> router() {");
+    w.println("    return ROUTER;");
+    w.println("  }");
+    w.println();
+    w.println("  private static Router<Handler> load() {");
+    w.println("    int length = 0;");
+    w.println("    for (final String chunk : SNAPSHOT) {");
+    w.println("      length += chunk.length();");
+    w.println("    }");
+    w.println("    final byte[] snapshot = new byte[length];");
+    w.println("    int i = 0;");
+    w.println("    for (final String chunk : SNAPSHOT) {");
+    w.println("      for (int j = 0; j < chunk.length(); j++) {");
+    w.println("        snapshot[i++] = (byte) chunk.charAt(j);");
+    w.println("      }");
+    w.println("    }");
+    w.println("    return Router.readSnapshot(ByteBuffer.wrap(snapshot), Handler.values());");
+    w.println("  }");
+    w.println("}");
+  }
+
+  /**
+   * Get the name of a type, prefixed by the names of any enclosing types.
+   */
+  private static String name(final TypeElement type) {
+    final Element enclosing = type.getEnclosingElement();
+    if (enclosing instanceof TypeElement) {
+      return name((TypeElement) enclosing) + "_" + type.getSimpleName();
+    }
+    return type.getSimpleName().toString();
+  }
+
+  private void error(final Element element, final String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
@@ -0,0 +1,148 @@
+package io.norberg.rut.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Locale;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import io.norberg.rut.Router;
+
+import static io.norberg.rut.Router.Status.METHOD_NOT_ALLOWED;
+import static io.norberg.rut.Router.Status.NOT_FOUND;
+import static io.norberg.rut.Router.Status.SUCCESS;
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RouterProcessorTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String USERS =
+      "package foo.bar;\n" +
+      "import io.norberg.rut.processor.Endpoint;\n" +
+      "public class Users {\n" +
+      "  @Endpoint(method = \"GET\", path = \"/users/\")\n" +
+      "  void list() {}\n" +
+      "  @Endpoint(method = {\"GET\", \"HEAD\"}, path = \"/users/<user>\")\n" +
+      "  void get() {}\n" +
+      "  @Endpoint(method = \"PUT\", path = \"/users/<user>\")\n" +
+      "  void update() {}\n" +
+      "  @Endpoint(method = \"GET\", path = \"/users/<user>/files/<file:path>\")\n" +
+      "  void file() {}\n" +
+      "  static class Admin {\n" +
+      "    @Endpoint(method = \"POST\", path = \"/admin/\\\"quoted\\\"\")\n" +
+      "    void quoted() {}\n" +
+      "  }\n" +
+      "}\n";
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGeneratedRouter() throws Exception {
+    final ClassLoader loader = compile("foo.bar.Users", USERS);
+
+    final Class<?> routes = loader.loadClass("foo.bar.UsersRoutes");
+    final Router<Enum<?>> router = (Router<Enum<?>>) routes.getMethod("router").invoke(null);
+    final Router.Result<Enum<?>> result = router.result();
+
+    assertThat(router.route("GET", "/users/", result), is(SUCCESS));
+    assertThat(result.target().name(), is("list"));
+    assertThat(router.route("HEAD", "/users/foo", result), is(SUCCESS));
+    assertThat(result.target().name(), is("get"));
+    assertThat(result.paramName(0), is("user"));
+    assertThat(result.paramValue(0).toString(), is("foo"));
+    assertThat(router.route("PUT", "/users/foo?q", result), is(SUCCESS));
+    assertThat(result.target().name(), is("update"));
+    assertThat(result.query().toString(), is("q"));
+    assertThat(router.route("DELETE", "/users/foo", result), is(METHOD_NOT_ALLOWED));
+    assertThat(router.route("GET", "/users/foo/files/a/b", result), is(SUCCESS));
+    assertThat(result.paramValue("file").toString(), is("a/b"));
+    assertThat(router.route("GET", "/groups/", result), is(NOT_FOUND));
+
+    final Class<?> admin = loader.loadClass("foo.bar.Users_AdminRoutes");
+    final Router<Enum<?>> adminRouter = (Router<Enum<?>>) admin.getMethod("router").invoke(null);
+    assertThat(adminRouter.route("POST", "/admin/\"quoted\"", result), is(SUCCESS));
+    assertThat(result.target().name(), is("quoted"));
+  }
+
+  @Test
+  public void testInvalidPath() throws Exception {
+    final String source =
+        "import io.norberg.rut.processor.Endpoint;\n" +
+        "public class Invalid {\n" +
+        "  @Endpoint(method = \"GET\", path = \"/users/<user\")\n" +
+        "  void get() {}\n" +
+        "}\n";
+    assertThat(compileError("Invalid", source), containsString("Invalid @Endpoint path"));
+  }
+
+  @Test
+  public void testDuplicateMethodName() throws Exception {
+    final String source =
+        "import io.norberg.rut.processor.Endpoint;\n" +
+        "public class Duplicate {\n" +
+        "  @Endpoint(method = \"GET\", path = \"/a\")\n" +
+        "  void get() {}\n" +
+        "  @Endpoint(method = \"GET\", path = \"/b\")\n" +
+        "  void get(int i) {}\n" +
+        "}\n";
+    assertThat(compileError("Duplicate", source), containsString("Duplicate @Endpoint method"));
+  }
+
+  private ClassLoader compile(final String name, final String source) throws IOException {
+    final File classes = folder.newFolder();
+    final DiagnosticCollector<JavaFileObject> diagnostics =
+        new DiagnosticCollector<JavaFileObject>();
+    if (!compile(name, source, classes, diagnostics)) {
+      throw new AssertionError(diagnostics.getDiagnostics().toString());
+    }
+    return new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader());
+  }
+
+  private String compileError(final String name, final String source) throws IOException {
+    final DiagnosticCollector<JavaFileObject> diagnostics =
+        new DiagnosticCollector<JavaFileObject>();
+    assertThat(compile(name, source, folder.newFolder(), diagnostics), is(false));
+    return diagnostics.getDiagnostics().get(0).getMessage(Locale.ROOT);
+  }
+
+  private static boolean compile(final String name, final String source, final File classes,
+                                 final DiagnosticCollector<JavaFileObject> diagnostics)
+      throws IOException {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    final StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null);
+    files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classes));
+    files.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(classes));
+    final JavaFileObject file = new SimpleJavaFileObject(
+        new File(name.replace('.', '/') + ".java").toURI(), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+    final JavaCompiler.CompilationTask task = compiler.getTask(
+        new StringWriter(), files, diagnostics,
+        asList("-classpath", System.getProperty("java.class.path")), null,
+        Collections.singleton(file));
+    task.setProcessors(Collections.singleton(new RouterProcessor()));
+    final boolean success = task.call();
+    files.close();
+    return success;
+  }
+}
@@ -0,0 +1,117 @@
+package io.norberg.rut;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable {@link CharSequence} view of ASCII bytes in a {@code byte[]} or a {@link ByteBuffer}.
+ * Each byte is read as a single char without any decoding or copying. Index {@code i} of the view
+ * is byte {@code base + i} of the underlying array or buffer.
+ */
+final class AsciiSequence implements CharSequence {
+
+  private byte[] array;
+  private ByteBuffer buffer;
+  private int base;
+  private int length;
+
+  /**
+   * View {@code length} bytes of {@code array}, starting at {@code base}.
+   */
+  AsciiSequence wrap(final byte[] array, final int base, final int length) {
+    if (base < 0 || length < 0 || base + length > array.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    this.array = array;
+    this.buffer = null;
+    this.base = base;
+    this.length = length;
+    return this;
+  }
+
+  /**
+   * View {@code length} bytes of {@code buffer}, starting at absolute index {@code base}. Heap
+   * buffers are read through their backing array. The position and limit of the buffer are not
+   * modified.
+   */
+  AsciiSequence wrap(final ByteBuffer buffer, final int base, final int length) {
+    if (base < 0 || length < 0 || base + length > buffer.limit()) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (buffer.hasArray()) {
+      return wrap(buffer.array(), buffer.arrayOffset() + base, length);
+    }
+    this.array = null;
+    this.buffer = buffer;
+    this.base = base;
+    this.length = length;
+    return this;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(final int index) {
+    if (array != null) {
+      return (char) (array[base + index] & 0xFF);
+    }
+    return (char) (buffer.get(base + index) & 0xFF);
+  }
+
+  /**
+   * Find the first occurrence of either of the ASCII chars {@code x} or {@code y} between
+   * {@code start} and {@code end}.
+   *
+   * @return The index of the first occurrence, or -1 if there is none.
+   */
+  int indexOf(final char x, final char y, final int start, final int end) {
+    if (array != null) {
+      final int i = Swar.indexOf(array, (byte) x, (byte) y, base + start, base + end);
+      return (i == -1) ? -1 : i - base;
+    }
+    for (int i = start; i < end; i++) {
+      final char c = charAt(i);
+      if (c == x || c == y) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compare {@code length} chars starting at {@code start} to the ASCII {@code bytes} starting at
+   * {@code offset}.
+   *
+   * @return The offset of the first mismatching char, or -1 if all chars match.
+   */
+  int mismatch(final int start, final byte[] bytes, final int offset, final int length) {
+    if (array != null) {
+      return Swar.mismatch(array, base + start, bytes, offset, length);
+    }
+    for (int i = 0; i < length; i++) {
+      if (bytes[offset + i] != charAt(start + i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException();
+    }
+    final char[] chars = new char[end - start];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = charAt(start + i);
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, length).toString();
+  }
+}
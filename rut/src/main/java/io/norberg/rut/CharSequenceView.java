@@ -0,0 +1,52 @@
+package io.norberg.rut;
+
+/**
+ * A reusable {@link CharSequence} view of a region of another {@link CharSequence}. Index
+ * {@code i} of the view is char {@code start + i} of the underlying sequence. Nothing is copied
+ * until {@link #subSequence} or {@link #toString} is called.
+ */
+final class CharSequenceView implements CharSequence {
+
+  private CharSequence s;
+  private int start;
+  private int length;
+
+  /**
+   * View the chars of {@code s} from {@code start} to {@code end}.
+   */
+  CharSequenceView wrap(final CharSequence s, final int start, final int end) {
+    if (start < 0 || end > s.length() || start > end) {
+      throw new IndexOutOfBoundsException();
+    }
+    this.s = s;
+    this.start = start;
+    this.length = end - start;
+    return this;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(final int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException();
+    }
+    return s.charAt(start + index);
+  }
+
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException();
+    }
+    return s.subSequence(this.start + start, this.start + end).toString();
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, length).toString();
+  }
+}
@@ -14,4 +14,57 @@ final class CharSequences {
     }
     return -1;
   }
+
+  /**
+   * Find the first occurrence of either of the ASCII chars {@code x} or {@code y} in {@code s}
+   * between {@code start} and {@code end}. Byte backed sequences are scanned a word at a time.
+   *
+   * @return The index of the first occurrence, or -1 if there is none.
+   */
+  static int indexOf(final CharSequence s, final char x, final char y, final int start,
+                     final int end) {
+    if (s instanceof AsciiSequence) {
+      return ((AsciiSequence) s).indexOf(x, y, start, end);
+    }
+    for (int i = start; i < end; i++) {
+      final char c = s.charAt(i);
+      if (c == x || c == y) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compare {@code length} chars of {@code s} starting at {@code start} to the ASCII {@code bytes}
+   * starting at {@code offset}. Byte backed sequences are compared a word at a time.
+   *
+   * @return The offset of the first mismatching char, or -1 if all chars match.
+   */
+  static int mismatch(final CharSequence s, final int start, final byte[] bytes, final int offset,
+                      final int length) {
+    if (s instanceof AsciiSequence) {
+      return ((AsciiSequence) s).mismatch(start, bytes, offset, length);
+    }
+    for (int i = 0; i < length; i++) {
+      if (bytes[offset + i] != s.charAt(start + i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compare {@code length} chars of {@code a} starting at {@code aStart} to the chars of {@code
+   * b} starting at {@code bStart}.
+   */
+  static boolean regionMatches(final CharSequence a, final int aStart, final CharSequence b,
+                               final int bStart, final int length) {
+    for (int i = 0; i < length; i++) {
+      if (a.charAt(aStart + i) != b.charAt(bStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -0,0 +1,543 @@
+package io.norberg.rut;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal class file writer, just enough to emit the specialized lookup classes generated by
+ * {@link Specializer}.
+ *
+ * <p>Methods are assumed to declare all their locals up front, so that every branch target has the
+ * same locals and an empty operand stack. This lets a single frame shape describe every entry in
+ * the stack map table.
+ */
+final class ClassFile {
+
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_STATIC = 0x0008;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  private static final int VERSION = 52;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private static final int MAX_CONSTANTS = 0xFFFF;
+
+  private final Buffer constants = new Buffer();
+  private final Map<String, Integer> constantIndices = new HashMap<String, Integer>();
+  private int constantCount = 1;
+
+  private final String name;
+  private final String superName;
+  private final String[] interfaces;
+  private final List<Code> methods = new ArrayList<Code>();
+
+  ClassFile(final String name, final String superName, final String... interfaces) {
+    this.name = name;
+    this.superName = superName;
+    this.interfaces = interfaces;
+  }
+
+  String name() {
+    return name;
+  }
+
+  /**
+   * Start a new method. The {@code locals} are the verification types of all locals of the
+   * method, including the parameters, as class names or {@code null} for {@code int}.
+   */
+  Code method(final int access, final String name, final String descriptor,
+              final String... locals) {
+    final Code code = new Code(access, name, descriptor, locals);
+    methods.add(code);
+    return code;
+  }
+
+  byte[] toByteArray() {
+    final int thisClass = classRef(name);
+    final int superClass = classRef(superName);
+    final int[] interfaceIndices = new int[interfaces.length];
+    for (int i = 0; i < interfaces.length; i++) {
+      interfaceIndices[i] = classRef(interfaces[i]);
+    }
+    final List<byte[]> methodBytes = new ArrayList<byte[]>();
+    for (final Code method : methods) {
+      methodBytes.add(method.toByteArray());
+    }
+
+    final Buffer out = new Buffer();
+    out.u4(0xCAFEBABE);
+    out.u2(0);
+    out.u2(VERSION);
+    out.u2(constantCount);
+    out.bytes(constants.toByteArray());
+    out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+    out.u2(thisClass);
+    out.u2(superClass);
+    out.u2(interfaceIndices.length);
+    for (final int index : interfaceIndices) {
+      out.u2(index);
+    }
+    out.u2(0);
+    out.u2(methodBytes.size());
+    for (final byte[] bytes : methodBytes) {
+      out.bytes(bytes);
+    }
+    out.u2(0);
+    return out.toByteArray();
+  }
+
+  private int utf8(final String s) {
+    final String key = "U" + s;
+    final Integer index = constantIndices.get(key);
+    if (index != null) {
+      return index;
+    }
+    constants.u1(CONSTANT_UTF8);
+    constants.utf(s);
+    return add(key, 1);
+  }
+
+  private int integer(final int value) {
+    final String key = "I" + value;
+    final Integer index = constantIndices.get(key);
+    if (index != null) {
+      return index;
+    }
+    constants.u1(CONSTANT_INTEGER);
+    constants.u4(value);
+    return add(key, 1);
+  }
+
+  private int string(final String value) {
+    final String key = "S" + value;
+    final Integer index = constantIndices.get(key);
+    if (index != null) {
+      return index;
+    }
+    final int valueIndex = utf8(value);
+    constants.u1(CONSTANT_STRING);
+    constants.u2(valueIndex);
+    return add(key, 1);
+  }
+
+  private int classRef(final String name) {
+    final String key = "C" + name;
+    final Integer index = constantIndices.get(key);
+    if (index != null) {
+      return index;
+    }
+    final int nameIndex = utf8(name);
+    constants.u1(CONSTANT_CLASS);
+    constants.u2(nameIndex);
+    return add(key, 1);
+  }
+
+  private int nameAndType(final String name, final String descriptor) {
+    final String key = "N" + name + ' ' + descriptor;
+    final Integer index = constantIndices.get(key);
+    if (index != null) {
+      return index;
+    }
+    final int nameIndex = utf8(name);
+    final int descriptorIndex = utf8(descriptor);
+    constants.u1(CONSTANT_NAME_AND_TYPE);
+    constants.u2(nameIndex);
+    constants.u2(descriptorIndex);
+    return add(key, 1);
+  }
+
+  private int memberRef(final int tag, final String owner, final String name,
+                        final String descriptor) {
+    final String key = "M" + tag + owner + ' ' + name + ' ' + descriptor;
+    final Integer index = constantIndices.get(key);
+    if (index != null) {
+      return index;
+    }
+    final int classIndex = classRef(owner);
+    final int nameAndTypeIndex = nameAndType(name, descriptor);
+    constants.u1(tag);
+    constants.u2(classIndex);
+    constants.u2(nameAndTypeIndex);
+    return add(key, 1);
+  }
+
+  private int add(final String key, final int slots) {
+    final int index = constantCount;
+    constantCount += slots;
+    if (constantCount > MAX_CONSTANTS) {
+      throw new IllegalStateException("too many constants");
+    }
+    constantIndices.put(key, index);
+    return index;
+  }
+
+  /**
+   * A branch target.
+   */
+  static final class Label {
+
+    private int offset = -1;
+    private final List<Integer> jumps = new ArrayList<Integer>();
+  }
+
+  /**
+   * The code of a method.
+   */
+  final class Code {
+
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9A;
+    static final int IFLT = 0x9B;
+    static final int IFGE = 0x9C;
+    static final int IFGT = 0x9D;
+    static final int IFLE = 0x9E;
+    static final int IF_ICMPEQ = 0x9F;
+    static final int IF_ICMPNE = 0xA0;
+    static final int IF_ICMPLT = 0xA1;
+    static final int IF_ICMPGE = 0xA2;
+    static final int IF_ICMPGT = 0xA3;
+    static final int IF_ICMPLE = 0xA4;
+
+    private static final int MAX_STACK = 8;
+    private static final int MAX_CODE = 0x7FFF;
+
+    private final int access;
+    private final String name;
+    private final String descriptor;
+    private final String[] locals;
+
+    private final Buffer code = new Buffer();
+    private final List<Label> labels = new ArrayList<Label>();
+    private final List<Integer> frames = new ArrayList<Integer>();
+    private boolean unreachable;
+
+    private Code(final int access, final String name, final String descriptor,
+                 final String[] locals) {
+      this.access = access;
+      this.name = name;
+      this.descriptor = descriptor;
+      this.locals = locals;
+    }
+
+    Label label() {
+      final Label label = new Label();
+      labels.add(label);
+      return label;
+    }
+
+    Code bind(final Label label) {
+      label.offset = code.size();
+      frame();
+      unreachable = false;
+      return this;
+    }
+
+    Code aload(final int local) {
+      return op(0x19).u1(local);
+    }
+
+    Code iload(final int local) {
+      return op(0x15).u1(local);
+    }
+
+    Code istore(final int local) {
+      return op(0x36).u1(local);
+    }
+
+    Code iinc(final int local, final int increment) {
+      return op(0x84).u1(local).u1(increment);
+    }
+
+    Code iconst(final int value) {
+      if (value >= -1 && value <= 5) {
+        return op(0x03 + value);
+      }
+      if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        return op(0x10).u1(value);
+      }
+      if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        return op(0x11).u2(value);
+      }
+      final int index = integer(value);
+      return op(0x13).u2(index);
+    }
+
+    Code ldc(final String value) {
+      final int index = string(value);
+      if (index <= 0xFF) {
+        return op(0x12).u1(index);
+      }
+      return op(0x13).u2(index);
+    }
+
+    Code iadd() {
+      return op(0x60);
+    }
+
+    Code ireturn() {
+      op(0xAC);
+      unreachable = true;
+      return this;
+    }
+
+    Code getfield(final String owner, final String name, final String descriptor) {
+      final int index = memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+      return op(0xB4).u2(index);
+    }
+
+    Code invokevirtual(final String owner, final String name, final String descriptor) {
+      final int index = memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+      return op(0xB6).u2(index);
+    }
+
+    Code invokespecial(final String owner, final String name, final String descriptor) {
+      final int index = memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+      return op(0xB7).u2(index);
+    }
+
+    Code invokestatic(final String owner, final String name, final String descriptor) {
+      final int index = memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+      return op(0xB8).u2(index);
+    }
+
+    Code invokeinterface(final String owner, final String name, final String descriptor,
+                         final int argumentSlots) {
+      final int index = memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+      return op(0xB9).u2(index).u1(argumentSlots + 1).u1(0);
+    }
+
+    Code vreturn() {
+      op(0xB1);
+      unreachable = true;
+      return this;
+    }
+
+    /**
+     * Emit a conditional branch, e.g. {@link #IF_ICMPNE}.
+     */
+    Code jump(final int opcode, final Label target) {
+      op(opcode);
+      branch(target, code.size() - 1);
+      code.u2(0);
+      return this;
+    }
+
+    Code jump(final Label target) {
+      op(0xA7);
+      branch(target, code.size() - 1);
+      code.u2(0);
+      unreachable = true;
+      return this;
+    }
+
+    /**
+     * Emit a {@code lookupswitch} over sorted {@code keys}.
+     */
+    Code lookupswitch(final int[] keys, final Label[] targets, final Label otherwise) {
+      final int start = code.size();
+      op(0xAB);
+      while (code.size() % 4 != 0) {
+        code.u1(0);
+      }
+      branch32(otherwise, start);
+      code.u4(keys.length);
+      for (int i = 0; i < keys.length; i++) {
+        code.u4(keys[i]);
+        branch32(targets[i], start);
+      }
+      unreachable = true;
+      return this;
+    }
+
+    private void branch(final Label target, final int instruction) {
+      target.jumps.add(instruction);
+      target.jumps.add(code.size());
+      target.jumps.add(2);
+    }
+
+    private void branch32(final Label target, final int instruction) {
+      target.jumps.add(instruction);
+      target.jumps.add(code.size());
+      target.jumps.add(4);
+      code.u4(0);
+    }
+
+    private Code op(final int opcode) {
+      if (unreachable) {
+        // Code after an unconditional jump is only reachable by a branch and needs a frame.
+        frame();
+        unreachable = false;
+      }
+      code.u1(opcode);
+      return this;
+    }
+
+    private Code u1(final int value) {
+      code.u1(value);
+      return this;
+    }
+
+    private Code u2(final int value) {
+      code.u2(value);
+      return this;
+    }
+
+    private void frame() {
+      final int offset = code.size();
+      if (frames.isEmpty() || frames.get(frames.size() - 1) != offset) {
+        frames.add(offset);
+      }
+    }
+
+    private byte[] toByteArray() {
+      if (code.size() > MAX_CODE) {
+        throw new IllegalStateException("method too large: " + name);
+      }
+      final byte[] bytes = code.toByteArray();
+      for (final Label label : labels) {
+        if (label.jumps.isEmpty()) {
+          continue;
+        }
+        if (label.offset < 0) {
+          throw new IllegalStateException("unbound label in " + name);
+        }
+        for (int i = 0; i < label.jumps.size(); i += 3) {
+          final int instruction = label.jumps.get(i);
+          final int position = label.jumps.get(i + 1);
+          final int size = label.jumps.get(i + 2);
+          final int offset = label.offset - instruction;
+          if (size == 2) {
+            bytes[position] = (byte) (offset >> 8);
+            bytes[position + 1] = (byte) offset;
+          } else {
+            bytes[position] = (byte) (offset >> 24);
+            bytes[position + 1] = (byte) (offset >> 16);
+            bytes[position + 2] = (byte) (offset >> 8);
+            bytes[position + 3] = (byte) offset;
+          }
+        }
+      }
+
+      final int nameIndex = utf8(name);
+      final int descriptorIndex = utf8(descriptor);
+      final int codeIndex = utf8("Code");
+      final byte[] stackMap = stackMapTable();
+
+      final Buffer out = new Buffer();
+      out.u2(access);
+      out.u2(nameIndex);
+      out.u2(descriptorIndex);
+      out.u2(1);
+      out.u2(codeIndex);
+      out.u4(2 + 2 + 4 + bytes.length + 2 + 2 + stackMap.length);
+      out.u2(MAX_STACK);
+      out.u2(slots());
+      out.u4(bytes.length);
+      out.bytes(bytes);
+      out.u2(0);
+      out.u2(stackMap.length == 0 ? 0 : 1);
+      out.bytes(stackMap);
+      return out.toByteArray();
+    }
+
+    private int slots() {
+      return locals.length;
+    }
+
+    private byte[] stackMapTable() {
+      if (frames.isEmpty()) {
+        return new byte[0];
+      }
+      final int attributeIndex = utf8("StackMapTable");
+      final Buffer table = new Buffer();
+      table.u2(frames.size());
+      int previous = -1;
+      for (final int offset : frames) {
+        final int delta = offset - previous - 1;
+        if (previous == -1) {
+          // full_frame
+          table.u1(255);
+          table.u2(delta);
+          table.u2(locals.length);
+          for (final String local : locals) {
+            if (local == null) {
+              table.u1(1);
+            } else {
+              table.u1(7);
+              table.u2(classRef(local));
+            }
+          }
+          table.u2(0);
+        } else if (delta < 64) {
+          // same_frame
+          table.u1(delta);
+        } else {
+          // same_frame_extended
+          table.u1(251);
+          table.u2(delta);
+        }
+        previous = offset;
+      }
+      final byte[] bytes = table.toByteArray();
+      final Buffer out = new Buffer();
+      out.u2(attributeIndex);
+      out.u4(bytes.length);
+      out.bytes(bytes);
+      return out.toByteArray();
+    }
+  }
+
+  private static final class Buffer {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    void u1(final int value) {
+      bytes.write(value);
+    }
+
+    void u2(final int value) {
+      bytes.write(value >> 8);
+      bytes.write(value);
+    }
+
+    void u4(final int value) {
+      u2(value >>> 16);
+      u2(value & 0xFFFF);
+    }
+
+    void bytes(final byte[] value) {
+      bytes.write(value, 0, value.length);
+    }
+
+    void utf(final String value) {
+      try {
+        out.writeUTF(value);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    int size() {
+      return bytes.size();
+    }
+
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+  }
+}
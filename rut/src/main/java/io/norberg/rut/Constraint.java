@@ -0,0 +1,549 @@
+package io.norberg.rut;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A regular expression constraint of a segment capture, e.g. {@code <version:v[0-9]+>}. The
+ * expression is compiled into a DFA when the route is added, and the DFA is run over the captured
+ * segment while routing, without {@link java.util.regex.Pattern} or any allocation.
+ *
+ * <p>Constraints always match the whole captured value and only support a restricted ASCII subset
+ * of the regular expression syntax: literals, {@code .}, character classes with ranges and
+ * negation, the {@code \d}, {@code \w} and {@code \s} classes and their negations, escaped
+ * metacharacters, groups, alternation and the {@code *}, {@code +}, {@code ?} and {@code {n,m}}
+ * quantifiers. A constraint cannot contain {@code >}, as it ends the capture.
+ *
+ * <p>The DFA is stored as a string, so that specialized lookups can load it as a constant. Each
+ * state is a row of {@link #ROW} chars: the next state for each ASCII char, followed by a non zero
+ * char if the state accepts. State 0 is the dead state and state 1 is the start state.
+ */
+final class Constraint {
+
+  static final int ROW = 129;
+
+  private static final int ASCII = 128;
+  private static final int ACCEPT = 128;
+  private static final int DEAD = 0;
+  private static final int START = 1;
+
+  /**
+   * The maximum number of DFA states, including the dead state. Keeps the table small enough to be
+   * a class file constant.
+   */
+  static final int MAX_STATES = 128;
+
+  /**
+   * The maximum number of NFA states, bounding the expansion of counted repetitions.
+   */
+  private static final int MAX_NFA_STATES = 1024;
+
+  private final String regex;
+  private final String table;
+
+  private Constraint(final String regex, final String table) {
+    this.regex = regex;
+    this.table = table;
+  }
+
+  /**
+   * Compile a constraint.
+   *
+   * @throws IllegalArgumentException if the expression is invalid, unsupported or compiles to too
+   *                                  many states.
+   */
+  static Constraint compile(final String regex) {
+    final Nfa nfa = new Nfa(regex);
+    final State end = nfa.state();
+    final State start = nfa.build(new Parser(regex).parse(), end);
+    return new Constraint(regex, dfa(regex, nfa.states, start, end));
+  }
+
+  String regex() {
+    return regex;
+  }
+
+  String table() {
+    return table;
+  }
+
+  boolean matches(final CharSequence s, final int start, final int end) {
+    return matches(table, s, start, end);
+  }
+
+  /**
+   * Check if {@code s} from {@code start} to {@code end} matches the DFA {@code table}. Stops at
+   * the first char that leads to the dead state.
+   */
+  static boolean matches(final String table, final CharSequence s, final int start,
+                         final int end) {
+    int state = START;
+    for (int i = start; i < end; i++) {
+      final char c = s.charAt(i);
+      if (c >= ASCII) {
+        return false;
+      }
+      state = table.charAt(state * ROW + c);
+      if (state == DEAD) {
+        return false;
+      }
+    }
+    return table.charAt(state * ROW + ACCEPT) != 0;
+  }
+
+  /**
+   * Find the longest prefix of {@code s} from {@code start} to at most {@code end} that matches
+   * the DFA {@code table}.
+   *
+   * @return The end of the prefix, or -1 if no prefix matches.
+   */
+  static int lastMatch(final String table, final CharSequence s, final int start, final int end) {
+    int state = START;
+    int last = (table.charAt(state * ROW + ACCEPT) != 0) ? start : -1;
+    for (int i = start; i < end; i++) {
+      final char c = s.charAt(i);
+      if (c >= ASCII) {
+        break;
+      }
+      state = table.charAt(state * ROW + c);
+      if (state == DEAD) {
+        break;
+      }
+      if (table.charAt(state * ROW + ACCEPT) != 0) {
+        last = i + 1;
+      }
+    }
+    return last;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    return this == o || (o instanceof Constraint && regex.equals(((Constraint) o).regex));
+  }
+
+  @Override
+  public int hashCode() {
+    return regex.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return regex;
+  }
+
+  /**
+   * Determinize the NFA from {@code start} to {@code end} by subset construction.
+   */
+  private static String dfa(final String regex, final List<State> nfa, final State start,
+                            final State end) {
+    final List<BitSet> states = new ArrayList<BitSet>();
+    final Map<BitSet, Integer> ids = new HashMap<BitSet, Integer>();
+    final BitSet initial = new BitSet();
+    closure(initial, start);
+    states.add(new BitSet());
+    states.add(initial);
+    ids.put(initial, START);
+
+    final StringBuilder table = new StringBuilder();
+    table.setLength(ROW);
+    for (int d = START; d < states.size(); d++) {
+      final BitSet state = states.get(d);
+      final int row = table.length();
+      table.setLength(row + ROW);
+      for (int c = 0; c < ASCII; c++) {
+        final BitSet next = new BitSet();
+        for (int s = state.nextSetBit(0); s >= 0; s = state.nextSetBit(s + 1)) {
+          final State from = nfa.get(s);
+          if (from.chars != null && from.chars.get(c)) {
+            closure(next, from.next);
+          }
+        }
+        if (next.isEmpty()) {
+          continue;
+        }
+        Integer id = ids.get(next);
+        if (id == null) {
+          if (states.size() == MAX_STATES) {
+            throw invalid(regex, "too complex");
+          }
+          id = states.size();
+          states.add(next);
+          ids.put(next, id);
+        }
+        table.setCharAt(row + c, (char) id.intValue());
+      }
+      table.setCharAt(row + ACCEPT, (char) (state.get(end.id) ? 1 : 0));
+    }
+    return table.toString();
+  }
+
+  /**
+   * Add {@code state} and the states reachable from it by epsilon transitions to {@code states}.
+   */
+  private static void closure(final BitSet states, final State state) {
+    final Deque<State> stack = new ArrayDeque<State>();
+    stack.push(state);
+    while (!stack.isEmpty()) {
+      final State s = stack.pop();
+      if (states.get(s.id)) {
+        continue;
+      }
+      states.set(s.id);
+      for (final State epsilon : s.epsilons) {
+        stack.push(epsilon);
+      }
+    }
+  }
+
+  private static IllegalArgumentException invalid(final String regex, final String reason) {
+    return new IllegalArgumentException("Invalid capture constraint: " + regex + " (" + reason +
+                                        ")");
+  }
+
+  /**
+   * A parsed expression.
+   */
+  private abstract static class Expr {
+
+  }
+
+  private static final class Chars extends Expr {
+
+    private final BitSet chars;
+
+    private Chars(final BitSet chars) {
+      this.chars = chars;
+    }
+  }
+
+  private static final class Concat extends Expr {
+
+    private final List<Expr> exprs;
+
+    private Concat(final List<Expr> exprs) {
+      this.exprs = exprs;
+    }
+  }
+
+  private static final class Alt extends Expr {
+
+    private final List<Expr> exprs;
+
+    private Alt(final List<Expr> exprs) {
+      this.exprs = exprs;
+    }
+  }
+
+  private static final class Repeat extends Expr {
+
+    private final Expr expr;
+    private final int min;
+    private final int max;
+
+    /**
+     * @param max The maximum number of repetitions, or -1 for no maximum.
+     */
+    private Repeat(final Expr expr, final int min, final int max) {
+      this.expr = expr;
+      this.min = min;
+      this.max = max;
+    }
+  }
+
+  /**
+   * A recursive descent parser of the supported expression syntax.
+   */
+  private static final class Parser {
+
+    private final String regex;
+    private int i;
+
+    private Parser(final String regex) {
+      this.regex = regex;
+    }
+
+    private Expr parse() {
+      final Expr expr = alternation();
+      if (i != regex.length()) {
+        throw invalid(regex, "unmatched )");
+      }
+      return expr;
+    }
+
+    private Expr alternation() {
+      final List<Expr> alternatives = new ArrayList<Expr>();
+      alternatives.add(concatenation());
+      while (i < regex.length() && regex.charAt(i) == '|') {
+        i++;
+        alternatives.add(concatenation());
+      }
+      return (alternatives.size() == 1) ? alternatives.get(0) : new Alt(alternatives);
+    }
+
+    private Expr concatenation() {
+      final List<Expr> exprs = new ArrayList<Expr>();
+      while (i < regex.length() && regex.charAt(i) != '|' && regex.charAt(i) != ')') {
+        exprs.add(repetition());
+      }
+      return (exprs.size() == 1) ? exprs.get(0) : new Concat(exprs);
+    }
+
+    private Expr repetition() {
+      Expr expr = atom();
+      while (i < regex.length()) {
+        final char c = regex.charAt(i);
+        if (c == '*') {
+          expr = new Repeat(expr, 0, -1);
+        } else if (c == '+') {
+          expr = new Repeat(expr, 1, -1);
+        } else if (c == '?') {
+          expr = new Repeat(expr, 0, 1);
+        } else if (c == '{') {
+          i++;
+          final int min = number();
+          int max = min;
+          if (i < regex.length() && regex.charAt(i) == ',') {
+            i++;
+            max = (i < regex.length() && regex.charAt(i) == '}') ? -1 : number();
+          }
+          if (i == regex.length() || regex.charAt(i) != '}' || (max != -1 && max < min)) {
+            throw invalid(regex, "bad repetition");
+          }
+          expr = new Repeat(expr, min, max);
+        } else {
+          break;
+        }
+        i++;
+      }
+      return expr;
+    }
+
+    private int number() {
+      final int start = i;
+      while (i < regex.length() && regex.charAt(i) >= '0' && regex.charAt(i) <= '9' &&
+             i - start < 4) {
+        i++;
+      }
+      if (i == start) {
+        throw invalid(regex, "bad repetition");
+      }
+      return Integer.parseInt(regex.substring(start, i));
+    }
+
+    private Expr atom() {
+      final char c = regex.charAt(i++);
+      switch (c) {
+        case '(': {
+          if (i < regex.length() && regex.charAt(i) == '?') {
+            throw invalid(regex, "unsupported group");
+          }
+          final Expr expr = alternation();
+          if (i == regex.length() || regex.charAt(i) != ')') {
+            throw invalid(regex, "unmatched (");
+          }
+          i++;
+          return expr;
+        }
+        case '[':
+          return new Chars(charClass());
+        case '.': {
+          final BitSet chars = new BitSet();
+          chars.set(0, ASCII);
+          return new Chars(chars);
+        }
+        case '\\':
+          return new Chars(escape());
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+          throw invalid(regex, "dangling " + c);
+        case '^':
+        case '$':
+          throw invalid(regex, "anchors are not supported");
+        default:
+          return new Chars(single(c));
+      }
+    }
+
+    private BitSet charClass() {
+      final BitSet chars = new BitSet();
+      final boolean negated = i < regex.length() && regex.charAt(i) == '^';
+      if (negated) {
+        i++;
+      }
+      boolean first = true;
+      while (true) {
+        if (i == regex.length()) {
+          throw invalid(regex, "unclosed character class");
+        }
+        final char c = regex.charAt(i++);
+        if (c == ']' && !first) {
+          break;
+        }
+        first = false;
+        if (c == '[') {
+          throw invalid(regex, "nested character classes are not supported");
+        }
+        if (c == '\\') {
+          chars.or(escape());
+          continue;
+        }
+        if (i + 1 < regex.length() && regex.charAt(i) == '-' && regex.charAt(i + 1) != ']') {
+          final char last = regex.charAt(i + 1);
+          if (last == '\\' || last == '[' || last < c) {
+            throw invalid(regex, "bad character range");
+          }
+          chars.set(c, Math.min(last + 1, ASCII));
+          i += 2;
+        } else if (c < ASCII) {
+          chars.set(c);
+        }
+      }
+      if (negated) {
+        chars.flip(0, ASCII);
+      }
+      return chars;
+    }
+
+    private BitSet escape() {
+      if (i == regex.length()) {
+        throw invalid(regex, "trailing \\");
+      }
+      final char c = regex.charAt(i++);
+      final BitSet chars = new BitSet();
+      switch (c) {
+        case 'd':
+        case 'D':
+          chars.set('0', '9' + 1);
+          break;
+        case 'w':
+        case 'W':
+          chars.set('a', 'z' + 1);
+          chars.set('A', 'Z' + 1);
+          chars.set('0', '9' + 1);
+          chars.set('_');
+          break;
+        case 's':
+        case 'S':
+          chars.set(' ');
+          chars.set('\t', '\r' + 1);
+          break;
+        case 't':
+          return single('\t');
+        case 'n':
+          return single('\n');
+        case 'r':
+          return single('\r');
+        case 'f':
+          return single('\f');
+        default:
+          if (Character.isLetterOrDigit(c)) {
+            throw invalid(regex, "unsupported escape \\" + c);
+          }
+          return single(c);
+      }
+      if (Character.isUpperCase(c)) {
+        chars.flip(0, ASCII);
+      }
+      return chars;
+    }
+
+    private static BitSet single(final char c) {
+      final BitSet chars = new BitSet();
+      if (c < ASCII) {
+        chars.set(c);
+      }
+      return chars;
+    }
+  }
+
+  /**
+   * A Thompson NFA under construction.
+   */
+  private static final class Nfa {
+
+    private final String regex;
+    private final List<State> states = new ArrayList<State>();
+
+    private Nfa(final String regex) {
+      this.regex = regex;
+    }
+
+    private State state() {
+      if (states.size() == MAX_NFA_STATES) {
+        throw invalid(regex, "too complex");
+      }
+      final State state = new State(states.size());
+      states.add(state);
+      return state;
+    }
+
+    /**
+     * Build the states of {@code expr} leading to {@code next}.
+     *
+     * @return The start state.
+     */
+    private State build(final Expr expr, final State next) {
+      if (expr instanceof Chars) {
+        final State state = state();
+        state.chars = ((Chars) expr).chars;
+        state.next = next;
+        return state;
+      }
+      if (expr instanceof Concat) {
+        final List<Expr> exprs = ((Concat) expr).exprs;
+        State state = next;
+        for (int i = exprs.size() - 1; i >= 0; i--) {
+          state = build(exprs.get(i), state);
+        }
+        return state;
+      }
+      if (expr instanceof Alt) {
+        final State state = state();
+        for (final Expr alternative : ((Alt) expr).exprs) {
+          state.epsilons.add(build(alternative, next));
+        }
+        return state;
+      }
+      final Repeat repeat = (Repeat) expr;
+      State state;
+      if (repeat.max == -1) {
+        state = state();
+        state.epsilons.add(build(repeat.expr, state));
+        state.epsilons.add(next);
+      } else {
+        state = next;
+        for (int i = repeat.min; i < repeat.max; i++) {
+          final State optional = state();
+          optional.epsilons.add(build(repeat.expr, state));
+          optional.epsilons.add(state);
+          state = optional;
+        }
+      }
+      for (int i = 0; i < repeat.min; i++) {
+        state = build(repeat.expr, state);
+      }
+      return state;
+    }
+  }
+
+  private static final class State {
+
+    private final int id;
+
+    // A transition on any of the chars to the next state, or epsilon transitions
+    private BitSet chars;
+    private State next;
+    private final List<State> epsilons = new ArrayList<State>();
+
+    private State(final int id) {
+      this.id = id;
+    }
+  }
+}
@@ -5,6 +5,7 @@
 package io.norberg.rut;
 
 import java.nio.CharBuffer;
+import java.util.Arrays;
 
 import static java.lang.Character.MIN_HIGH_SURROGATE;
 import static java.lang.Character.MIN_LOW_SURROGATE;
@@ -14,6 +15,20 @@ final class Encoding {
 
   private static final int INVALID = Integer.MIN_VALUE;
 
+  // The values of the hex digits, indexed by char, and -1 for other chars
+  private static final byte[] HEX = new byte[256];
+
+  static {
+    Arrays.fill(HEX, (byte) -1);
+    for (int i = 0; i < 10; i++) {
+      HEX['0' + i] = (byte) i;
+    }
+    for (int i = 0; i < 6; i++) {
+      HEX['a' + i] = (byte) (10 + i);
+      HEX['A' + i] = (byte) (10 + i);
+    }
+  }
+
   private Encoding() {
     throw new AssertionError();
   }
@@ -25,158 +40,136 @@ final class Encoding {
    * @return Decoded CharSequence or null if invalid encoding.
    */
   static CharSequence decode(final CharSequence s) {
-    if (!contains(s, '%')) {
+    final int length = s.length();
+    final int first = CharSequences.indexOf(s, '%', 0, length);
+    if (first == -1) {
       return s.toString();
     }
-    return decode0(s);
+    final char[] chars = new char[length];
+    for (int i = 0; i < first; i++) {
+      chars[i] = s.charAt(i);
+    }
+    final int n = decode(s, first, length, chars, first);
+    return (n == -1) ? null : CharBuffer.wrap(chars, 0, first + n);
   }
 
   /**
-   * Percent and UTF8 decode a {@link CharSequence}. Returns null if invalid.
+   * Percent and UTF8 decode the chars of {@code s} from {@code start} to {@code end} into {@code
+   * dst}, starting at {@code offset}. The decoded value is never longer than the encoded value.
    *
-   * @param s Percent encoded {@link CharSequence}.
-   * @return Decoded CharSequence or null if invalid encoding.
+   * <p>Unencoded chars are copied in the same pass that looks for {@code %}. Each run of percent
+   * encoded bytes is first decoded into {@code dst}, one byte per char, and then UTF8 decoded in
+   * place, as a UTF8 sequence is never shorter than its UTF16 encoding.
+   *
+   * @return The number of decoded chars, or -1 if the encoding is invalid.
    */
-  private static CharSequence decode0(final CharSequence s) {
-    final int length = s.length();
-    final CharBuffer cb = CharBuffer.allocate(length);
+  static int decode(final CharSequence s, final int start, final int end, final char[] dst,
+                    final int offset) {
+    return decode(s, start, end, dst, offset, false);
+  }
 
-    for (int i = 0; i < length; ) {
+  /**
+   * Decode a query string parameter name or value, as {@link #decode(CharSequence, int, int,
+   * char[], int)} but also decoding {@code +} as a space.
+   */
+  static int decodeQuery(final CharSequence s, final int start, final int end, final char[] dst,
+                         final int offset) {
+    return decode(s, start, end, dst, offset, true);
+  }
+
+  private static int decode(final CharSequence s, final int start, final int end, final char[] dst,
+                            final int offset, final boolean plusIsSpace) {
+    if (offset < 0 || offset > dst.length - (end - start)) {
+      throw new IndexOutOfBoundsException();
+    }
+    int j = offset;
+    int i = start;
+    while (i < end) {
       final char c = s.charAt(i);
 
       // Not encoded?
       if (c != '%') {
-        cb.append(c);
+        dst[j++] = (plusIsSpace && c == '+') ? ' ' : c;
         i++;
         continue;
       }
 
-      // UTF8 - 1 Byte
-      int b1 = decodePercent(s, length, i);
-      if (b1 == INVALID) {
-        return null;
-      }
-      i += 3;
-      final int n = utf8Length(b1);
-      if (n == INVALID) {
-        return null;
-      }
-      if (n == 1) {
-        cb.append((char) b1);
-        continue;
-      }
-
-      // UTF8 - 2 Bytes
-      final int b2 = decodePercent(s, length, i);
-      if (b2 == INVALID) {
-        return null;
-      }
-      i += 3;
-      if (n == 2) {
-        final int cp = utf8Read2(b1, b2);
-        if (cp == INVALID) {
-          return null;
+      // Percent decode the run of encoded bytes
+      final int bytes = j;
+      do {
+        if (i + 2 >= end) {
+          return -1;
         }
-        cb.append((char) cp);
-        continue;
-      }
-
-      // UTF8 - 3 Bytes
-      final int b3 = decodePercent(s, length, i);
-      if (b3 == INVALID) {
-        return null;
-      }
-      i += 3;
-      if (n == 3) {
-        final int cp = utf8Read3(b1, b2, b3);
-        if (cp == INVALID) {
-          return null;
+        final int b = hex(s.charAt(i + 1)) << 4 | hex(s.charAt(i + 2));
+        if (b < 0) {
+          return -1;
         }
-        cb.append((char) cp);
-        continue;
-      }
+        dst[j++] = (char) b;
+        i += 3;
+      } while (i < end && s.charAt(i) == '%');
 
-      // UTF8 - 4 Bytes
-      final int b4 = decodePercent(s, length, i);
-      if (b4 == INVALID) {
-        return null;
+      j = utf8(dst, bytes, j);
+      if (j == -1) {
+        return -1;
       }
-      i += 3;
-      final int cp = utf8Read4(b1, b2, b3, b4);
-      if (cp == INVALID) {
-        return null;
-      }
-      final int offset = cp - MIN_SUPPLEMENTARY_CODE_POINT;
-      cb.append((char) ((offset >>> 10) + MIN_HIGH_SURROGATE));
-      cb.append((char) ((offset & 0x3ff) + MIN_LOW_SURROGATE));
-    }
-
-    cb.flip();
-    return cb;
-  }
-
-  /**
-   * Decode a percent encoded byte. E.g. "%3F" -> 63.
-   */
-  private static int decodePercent(final CharSequence s, final int length, final int i) {
-    if (i + 2 >= length) {
-      return INVALID;
     }
-    final char n1 = s.charAt(i + 1);
-    final char n2 = s.charAt(i + 2);
-    return decodeNibbles(n1, n2);
+    return j - offset;
   }
 
   /**
-   * Decode two hex nibbles to a byte. E.g. '3' and 'F' -> 63.
+   * UTF8 decode the bytes stored one per char in {@code chars} from {@code start} to {@code end},
+   * in place.
+   *
+   * @return The end of the decoded chars, or -1 if the bytes are not valid UTF8.
    */
-  private static int decodeNibbles(final char c1, final char c2) {
-    final int n1 = decodeHex(c1);
-    if (n1 == INVALID) {
-      return INVALID;
-    }
-    final int n2 = decodeHex(c2);
-    if (n2 == INVALID) {
-      return INVALID;
+  private static int utf8(final char[] chars, final int start, final int end) {
+    // ASCII needs no decoding
+    int i = start;
+    while (i < end && chars[i] < 0x80) {
+      i++;
+    }
+    int j = i;
+    while (i < end) {
+      final int b1 = chars[i];
+      if (b1 < 0x80) {
+        chars[j++] = (char) b1;
+        i++;
+        continue;
+      }
+      final int n = utf8Length(b1);
+      if (n == INVALID || i + n > end) {
+        return -1;
+      }
+      final int cp;
+      if (n == 2) {
+        cp = utf8Read2(b1, chars[i + 1]);
+      } else if (n == 3) {
+        cp = utf8Read3(b1, chars[i + 1], chars[i + 2]);
+      } else {
+        cp = utf8Read4(b1, chars[i + 1], chars[i + 2], chars[i + 3]);
+      }
+      if (cp == INVALID) {
+        return -1;
+      }
+      i += n;
+      if (cp < MIN_SUPPLEMENTARY_CODE_POINT) {
+        chars[j++] = (char) cp;
+      } else {
+        final int offset = cp - MIN_SUPPLEMENTARY_CODE_POINT;
+        chars[j++] = (char) ((offset >>> 10) + MIN_HIGH_SURROGATE);
+        chars[j++] = (char) ((offset & 0x3ff) + MIN_LOW_SURROGATE);
+      }
     }
-    return (((n1 & 0xf) << 4) | (n2 & 0xf));
+    return j;
   }
 
   /**
    * Decode a hex nibble. E.g. '3' -> 3 and 'F' -> 15.
+   *
+   * @return The nibble or -1 if {@code c} is not a hex digit.
    */
-  private static int decodeHex(final char c) {
-    if (c < '0') {
-      return INVALID;
-    }
-    if (c <= '9') {
-      return c - '0';
-    }
-    if (c < 'A') {
-      return INVALID;
-    }
-    if (c <= 'F') {
-      return c - 'A' + 10;
-    }
-    if (c < 'a') {
-      return INVALID;
-    }
-    if (c <= 'f') {
-      return c - 'a' + 10;
-    }
-    return INVALID;
-  }
-
-  /**
-   * Check whether a {@link CharSequence} contains a specific character.
-   */
-  private static boolean contains(final CharSequence s, final char c) {
-    for (int i = 0; i < s.length(); i++) {
-      if (s.charAt(i) == c) {
-        return true;
-      }
-    }
-    return false;
+  private static int hex(final char c) {
+    return (c < HEX.length) ? HEX[c] : -1;
   }
 
   /**
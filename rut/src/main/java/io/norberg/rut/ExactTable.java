@@ -0,0 +1,164 @@
+package io.norberg.rut;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * An open addressing hash table of paths without captures. A lookup hashes the path in the same
+ * pass that finds the start of the query, and compares the path chars in place, so no strings are
+ * allocated.
+ *
+ * @param <V> The value type.
+ */
+final class ExactTable<V> {
+
+  private static final char QUERY = '?';
+
+  private final String[] keys;
+  private final Object[] values;
+
+  ExactTable(final List<String> paths, final List<V> values) {
+    int capacity = 4;
+    while (capacity < paths.size() * 2) {
+      capacity <<= 1;
+    }
+    this.keys = new String[capacity];
+    this.values = new Object[capacity];
+    for (int i = 0; i < paths.size(); i++) {
+      insert(paths.get(i), values.get(i));
+    }
+  }
+
+  /**
+   * Look up the part of {@code path} that begins at index {@code start}, up to any query. On a
+   * match the query is recorded in {@code captor}.
+   *
+   * @return The value, or null if the path is not in this table.
+   */
+  @SuppressWarnings("unchecked")
+  V lookup(final CharSequence path, final int start, final RadixTrie.Captor captor) {
+    final int length = path.length();
+    int end = length;
+    int h = 0;
+    for (int i = start; i < length; i++) {
+      final char c = path.charAt(i);
+      if (c == QUERY) {
+        end = i;
+        break;
+      }
+      h = 31 * h + c;
+    }
+
+    final int mask = keys.length - 1;
+    for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+      final String key = keys[i];
+      if (key == null) {
+        return null;
+      }
+      if (equals(key, path, start, end)) {
+        captor.reset();
+        if (end < length) {
+          captor.query(end + 1, length);
+        }
+        captor.match(0);
+        return (V) values[i];
+      }
+    }
+  }
+
+  /**
+   * Get a table with the value of {@code path} replaced by {@code value}, or removed if {@code
+   * value} is null.
+   *
+   * @param table The table to copy, or null for an empty table.
+   * @return The new table, or null if it is empty.
+   */
+  @SuppressWarnings("unchecked")
+  static <V> ExactTable<V> with(final ExactTable<V> table, final String path, final V value) {
+    final List<String> paths = new ArrayList<String>();
+    final List<V> values = new ArrayList<V>();
+    if (table != null) {
+      for (int i = 0; i < table.keys.length; i++) {
+        if (table.keys[i] != null && !table.keys[i].equals(path)) {
+          paths.add(table.keys[i]);
+          values.add((V) table.values[i]);
+        }
+      }
+    }
+    if (value != null) {
+      paths.add(path);
+      values.add(value);
+    }
+    return paths.isEmpty() ? null : new ExactTable<V>(paths, values);
+  }
+
+  /**
+   * Write the paths of a table to a snapshot. Values are written as their indices in {@code
+   * values}, by identity. See {@link Snapshot}.
+   *
+   * @param table The table, or null for an empty table.
+   */
+  @SuppressWarnings("unchecked")
+  static <V> void write(final ExactTable<V> table, final DataOutput out,
+                        final IdentityHashMap<V, Integer> values) throws IOException {
+    final List<Integer> slots = new ArrayList<Integer>();
+    if (table != null) {
+      for (int i = 0; i < table.keys.length; i++) {
+        if (table.keys[i] != null) {
+          slots.add(i);
+        }
+      }
+    }
+    out.writeInt(slots.size());
+    for (final int i : slots) {
+      Snapshot.writeString(out, table.keys[i]);
+      out.writeInt(values.get((V) table.values[i]));
+    }
+  }
+
+  /**
+   * Read a table written by {@link #write}.
+   *
+   * @param values The values, indexed as when written.
+   * @return The table, or null if it is empty.
+   */
+  static <V> ExactTable<V> read(final ByteBuffer in, final List<V> values) {
+    final int size = Snapshot.length(in, 8);
+    final List<String> paths = new ArrayList<String>(size);
+    final List<V> routes = new ArrayList<V>(size);
+    for (int i = 0; i < size; i++) {
+      paths.add(Snapshot.readString(in));
+      routes.add(values.get(in.getInt()));
+    }
+    return paths.isEmpty() ? null : new ExactTable<V>(paths, routes);
+  }
+
+  private void insert(final String path, final V value) {
+    final int h = path.hashCode();
+    final int mask = keys.length - 1;
+    int i = (h ^ (h >>> 16)) & mask;
+    while (keys[i] != null) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = path;
+    values[i] = value;
+  }
+
+  private static boolean equals(final String key, final CharSequence path, final int start,
+                                final int end) {
+    final int length = key.length();
+    if (end - start != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (key.charAt(i) != path.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
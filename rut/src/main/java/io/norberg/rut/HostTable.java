@@ -0,0 +1,284 @@
+package io.norberg.rut;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A trie of host names by reversed label, e.g. {@code www.example.com} is stored as {@code com},
+ * {@code example}, {@code www}. A host pattern may begin with a wildcard label, e.g. {@code
+ * *.example.com}, that matches one or more leading labels. An exact host is preferred over a
+ * wildcard, and a longer wildcard suffix over a shorter one. A lookup hashes and compares each
+ * label of the host in place, ignoring ASCII case, so no strings are allocated.
+ *
+ * @param <V> The value type.
+ */
+final class HostTable<V> {
+
+  private static final char DOT = '.';
+  private static final char PORT = ':';
+  private static final char WILDCARD = '*';
+
+  private final Node<V> root = new Node<V>();
+  private final List<Entry<V>> entries = new ArrayList<Entry<V>>();
+
+  /**
+   * @param hosts  Host patterns, normalized with {@link #normalize}.
+   * @param values The value of each host pattern.
+   */
+  HostTable(final List<String> hosts, final List<V> values) {
+    for (int i = 0; i < hosts.size(); i++) {
+      insert(hosts.get(i), values.get(i));
+    }
+  }
+
+  private void insert(final String host, final V value) {
+    final boolean wildcard = host.charAt(0) == WILDCARD;
+    final Entry<V> entry = new Entry<V>(host, value, wildcard);
+    Node<V> node = root;
+    int end = host.length();
+    final int stop = wildcard ? 1 : 0;
+    while (end > stop) {
+      final int dot = host.lastIndexOf(DOT, end - 1);
+      node = node.insert(host.substring(dot + 1, end));
+      end = dot;
+    }
+    if (wildcard) {
+      node.wildcard = entry;
+    } else {
+      node.exact = entry;
+    }
+    entries.add(entry);
+  }
+
+  /**
+   * Look up a host, e.g. the value of a {@code Host} header, from index 0 to {@code end}. See
+   * {@link #end}.
+   *
+   * @return The entry of the best matching host pattern, or null if no pattern matches.
+   */
+  Entry<V> lookup(final CharSequence host, final int end) {
+    Node<V> node = root;
+    Entry<V> wildcard = null;
+    int i = end;
+    while (true) {
+      if (i > 0 && node.wildcard != null) {
+        wildcard = node.wildcard;
+      }
+      final int dot = lastIndexOf(host, DOT, i);
+      node = node.child(host, dot + 1, i);
+      if (node == null) {
+        return wildcard;
+      }
+      if (dot == -1) {
+        return (node.exact != null) ? node.exact : wildcard;
+      }
+      i = dot;
+    }
+  }
+
+  /**
+   * Get the entries of all host patterns.
+   */
+  List<Entry<V>> entries() {
+    return entries;
+  }
+
+  /**
+   * Get the end of the name of a host, excluding any port and trailing dot.
+   */
+  static int end(final CharSequence host) {
+    final int length = host.length();
+    int end = length;
+    if (length > 0 && host.charAt(0) == '[') {
+      // IPv6 literal
+      end = CharSequences.indexOf(host, ']', 0, length) + 1;
+      if (end == 0) {
+        end = length;
+      }
+    } else {
+      final int port = CharSequences.indexOf(host, PORT, 0, length);
+      if (port != -1) {
+        end = port;
+      }
+    }
+    if (end > 0 && host.charAt(end - 1) == DOT) {
+      end--;
+    }
+    return end;
+  }
+
+  /**
+   * Normalize a host pattern to lower case, without any trailing dot.
+   *
+   * @throws IllegalArgumentException if the pattern is not a valid host name, optionally
+   *                                  beginning with a {@code *} label.
+   */
+  static String normalize(final String host) {
+    String normalized = host.toLowerCase(Locale.ROOT);
+    if (normalized.endsWith(".")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    final boolean literal = normalized.startsWith("[") && normalized.endsWith("]");
+    int start = 0;
+    while (start <= normalized.length()) {
+      int dot = normalized.indexOf(DOT, start);
+      if (dot == -1 || literal) {
+        dot = normalized.length();
+      }
+      if (!valid(normalized.substring(start, dot), start == 0, literal)) {
+        throw new IllegalArgumentException("Invalid host: " + host);
+      }
+      start = dot + 1;
+    }
+    return normalized;
+  }
+
+  private static boolean valid(final String label, final boolean first, final boolean literal) {
+    if (label.isEmpty() || label.indexOf('/') != -1) {
+      return false;
+    }
+    if (label.indexOf(WILDCARD) != -1) {
+      return first && label.length() == 1;
+    }
+    return literal || (label.indexOf(PORT) == -1 && label.indexOf('[') == -1);
+  }
+
+  private static int lastIndexOf(final CharSequence s, final char c, final int end) {
+    for (int i = end - 1; i >= 0; i--) {
+      if (s.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static char lower(final char c) {
+    return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  /**
+   * A matched host pattern.
+   */
+  static final class Entry<V> {
+
+    private final String host;
+    private final V value;
+    private final boolean wildcard;
+
+    private Entry(final String host, final V value, final boolean wildcard) {
+      this.host = host;
+      this.value = value;
+      this.wildcard = wildcard;
+    }
+
+    String host() {
+      return host;
+    }
+
+    V value() {
+      return value;
+    }
+
+    /**
+     * Get the end of the part of a host of length {@code end} matched by the wildcard of this
+     * pattern, or -1 if the pattern has no wildcard.
+     */
+    int wildcardEnd(final int end) {
+      return wildcard ? end - (host.length() - 1) : -1;
+    }
+  }
+
+  /**
+   * A label of a host pattern, with an open addressing hash table of the labels that precede it.
+   */
+  private static final class Node<V> {
+
+    private String[] labels;
+    private Node<V>[] children;
+    private int size;
+
+    private Entry<V> exact;
+    private Entry<V> wildcard;
+
+    private Node<V> insert(final String label) {
+      if (labels == null) {
+        rehash(4);
+      }
+      Node<V> child = child(label, 0, label.length());
+      if (child == null) {
+        if (size * 2 >= labels.length) {
+          rehash(labels.length * 2);
+        }
+        child = new Node<V>();
+        put(label, child);
+        size++;
+      }
+      return child;
+    }
+
+    /**
+     * Get the child of the label of {@code host} from {@code start} to {@code end}, ignoring
+     * ASCII case.
+     */
+    private Node<V> child(final CharSequence host, final int start, final int end) {
+      if (labels == null) {
+        return null;
+      }
+      int h = 0;
+      for (int i = start; i < end; i++) {
+        h = 31 * h + lower(host.charAt(i));
+      }
+      final int length = end - start;
+      final int mask = labels.length - 1;
+      for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+        final String label = labels[i];
+        if (label == null) {
+          return null;
+        }
+        if (equals(label, host, start, length)) {
+          return children[i];
+        }
+      }
+    }
+
+    private static boolean equals(final String label, final CharSequence host, final int start,
+                                  final int length) {
+      if (label.length() != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (label.charAt(i) != lower(host.charAt(start + i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void rehash(final int capacity) {
+      final String[] labels = this.labels;
+      final Node<V>[] children = this.children;
+      this.labels = new String[capacity];
+      this.children = (Node<V>[]) new Node[capacity];
+      if (labels != null) {
+        for (int i = 0; i < labels.length; i++) {
+          if (labels[i] != null) {
+            put(labels[i], children[i]);
+          }
+        }
+      }
+    }
+
+    private void put(final String label, final Node<V> child) {
+      final int h = label.hashCode();
+      final int mask = labels.length - 1;
+      int i = (h ^ (h >>> 16)) & mask;
+      while (labels[i] != null) {
+        i = (i + 1) & mask;
+      }
+      labels[i] = label;
+      children[i] = child;
+    }
+  }
+}
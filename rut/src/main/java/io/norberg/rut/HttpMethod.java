@@ -0,0 +1,27 @@
+package io.norberg.rut;
+
+/**
+ * Well-known request methods. Routing with a {@link HttpMethod} avoids comparing method names.
+ *
+ * @see Router#route(HttpMethod, CharSequence, Router.Result)
+ */
+public enum HttpMethod {
+  GET,
+  HEAD,
+  POST,
+  PUT,
+  DELETE,
+  CONNECT,
+  OPTIONS,
+  TRACE,
+  PATCH;
+
+  /**
+   * Get the method id of this method. Well-known methods have the same id in all routers.
+   *
+   * @see Router#methodId(CharSequence)
+   */
+  public int id() {
+    return ordinal();
+  }
+}
@@ -0,0 +1,162 @@
+package io.norberg.rut;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static io.norberg.rut.Objects.requireNonNull;
+
+/**
+ * A table of interned request method names. Each method is assigned a small dense integer id. The
+ * {@link HttpMethod}s are always present, with their ordinals as ids.
+ */
+final class Methods {
+
+  static final int UNKNOWN = -1;
+
+  private String[] names;
+  private int size;
+
+  private String[] table;
+  private int[] ids;
+
+  Methods() {
+    names = new String[16];
+    table = new String[32];
+    ids = new int[32];
+    for (final HttpMethod method : HttpMethod.values()) {
+      intern(method.name());
+    }
+  }
+
+  private Methods(final Methods methods) {
+    names = Arrays.copyOf(methods.names, methods.size);
+    size = methods.size;
+    table = methods.table.clone();
+    ids = methods.ids.clone();
+  }
+
+  /**
+   * Get an immutable copy of this table.
+   */
+  Methods snapshot() {
+    return new Methods(this);
+  }
+
+  /**
+   * Get the id of a method, assigning a new id if the method has not been seen before.
+   */
+  int intern(final String method) {
+    requireNonNull(method, "method");
+    final int id = id(method);
+    if (id != UNKNOWN) {
+      return id;
+    }
+    if (size == names.length) {
+      names = Arrays.copyOf(names, size * 2);
+    }
+    names[size] = method;
+    if (size * 2 >= table.length) {
+      rehash(table.length * 2);
+    }
+    insert(method, size);
+    return size++;
+  }
+
+  /**
+   * Get the id of a method, or {@link #UNKNOWN} if the method is not in this table.
+   */
+  int id(final CharSequence method) {
+    final int length = method.length();
+    final int mask = table.length - 1;
+    for (int i = hash(method) & mask; ; i = (i + 1) & mask) {
+      final String name = table[i];
+      if (name == null) {
+        return UNKNOWN;
+      }
+      if (equals(name, method, length)) {
+        return ids[i];
+      }
+    }
+  }
+
+  /**
+   * Get the name of the method with id {@code id}.
+   */
+  String name(final int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException();
+    }
+    return names[id];
+  }
+
+  /**
+   * Get the number of methods in this table.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Write the method names of this table to a snapshot, in id order. See {@link Snapshot}.
+   */
+  void write(final DataOutput out) throws IOException {
+    out.writeInt(size);
+    for (int id = 0; id < size; id++) {
+      Snapshot.writeString(out, names[id]);
+    }
+  }
+
+  /**
+   * Read a table written by {@link #write}. Methods get the same ids as when written.
+   */
+  static Methods read(final ByteBuffer in) {
+    final Methods methods = new Methods();
+    final int size = Snapshot.length(in, 4);
+    for (int id = 0; id < size; id++) {
+      if (methods.intern(Snapshot.readString(in)) != id) {
+        throw new IllegalArgumentException("Corrupt snapshot");
+      }
+    }
+    return methods;
+  }
+
+  private void rehash(final int capacity) {
+    table = new String[capacity];
+    ids = new int[capacity];
+    for (int id = 0; id < size; id++) {
+      insert(names[id], id);
+    }
+  }
+
+  private void insert(final String method, final int id) {
+    final int mask = table.length - 1;
+    int i = hash(method) & mask;
+    while (table[i] != null) {
+      i = (i + 1) & mask;
+    }
+    table[i] = method;
+    ids[i] = id;
+  }
+
+  private static int hash(final CharSequence s) {
+    int h = 0;
+    for (int i = 0; i < s.length(); i++) {
+      h = 31 * h + s.charAt(i);
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equals(final String a, final CharSequence b, final int length) {
+    if (a.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (a.charAt(i) != b.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,59 @@
+package io.norberg.rut;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of routing trie nodes that can be shared by routers. Identical subtrees of the route
+ * tables of routers built with the same pool, i.e. subtrees with equal prefixes and the same
+ * targets, are stored once, and routers with identical route tables share their compiled tables.
+ * Useful when building many nearly identical routers, e.g. one per tenant from a template. See
+ * {@link Router.Builder#nodePool(NodePool)}.
+ *
+ * <p>Nodes are only weakly referenced by the pool, and are released along with the routers that
+ * use them. Thread safe.
+ */
+public final class NodePool {
+
+  private final Map<Object, WeakReference<Object>> nodes =
+      new WeakHashMap<Object, WeakReference<Object>>();
+  private final Map<Object, Object> layouts = new WeakHashMap<Object, Object>();
+
+  /**
+   * Get the number of distinct nodes in this pool.
+   */
+  public synchronized int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Get the pooled node equal to {@code node}, adding {@code node} if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  synchronized <N> N intern(final N node) {
+    final WeakReference<Object> ref = nodes.get(node);
+    final Object pooled = (ref == null) ? null : ref.get();
+    if (pooled != null) {
+      return (N) pooled;
+    }
+    nodes.put(node, new WeakReference<Object>(node));
+    return node;
+  }
+
+  /**
+   * Get the compiled layout of the trie rooted at the pooled node {@code root}, or null if there
+   * is none.
+   */
+  synchronized Object layout(final Object root) {
+    return layouts.get(root);
+  }
+
+  /**
+   * Add the compiled layout of the trie rooted at the pooled node {@code root}. The layout must not
+   * refer to {@code root}.
+   */
+  synchronized void layout(final Object root, final Object layout) {
+    layouts.put(root, layout);
+  }
+}
@@ -0,0 +1,125 @@
+package io.norberg.rut;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static io.norberg.rut.Objects.requireNonNull;
+
+/**
+ * A handle to a path parameter name. Routes resolve the names of their parameters to handles when
+ * they are added, so looking up a captured value by handle, e.g. with {@link
+ * Router.Result#paramValue(ParamKey)}, is a binary search of the few parameter ids of the matched
+ * route instead of a comparison of the parameter names.
+ *
+ * <p>Handles are interned and valid for all routers. A handle is released once neither the
+ * application nor any route refers to it, so handles are meant to be created once for the
+ * parameter names declared in routes, e.g. as constants, and not for names taken from requests.
+ */
+public final class ParamKey {
+
+  private static final Map<String, WeakReference<ParamKey>> KEYS =
+      new WeakHashMap<String, WeakReference<ParamKey>>();
+  private static int nextId;
+
+  private final String name;
+  private final int id;
+
+  private ParamKey(final String name, final int id) {
+    this.name = name;
+    this.id = id;
+  }
+
+  /**
+   * Get the handle of a parameter name.
+   */
+  public static ParamKey of(final String name) {
+    requireNonNull(name, "name");
+    synchronized (KEYS) {
+      final WeakReference<ParamKey> ref = KEYS.get(name);
+      ParamKey key = (ref == null) ? null : ref.get();
+      if (key == null) {
+        // The handle refers to its name, which keeps the entry as long as the handle is in use
+        key = new ParamKey(name, nextId++);
+        KEYS.put(key.name, new WeakReference<ParamKey>(key));
+      }
+      return key;
+    }
+  }
+
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * The indices of the parameters of a route by handle, as the ids of the handles in ascending
+   * order and the index of the parameter of each.
+   */
+  static final class Indices {
+
+    private static final Indices EMPTY = new Indices(new ParamKey[0], new int[0], new int[0]);
+
+    // Referenced to keep the ids of the handles in use
+    private final ParamKey[] keys;
+    private final int[] ids;
+    private final int[] indices;
+
+    private Indices(final ParamKey[] keys, final int[] ids, final int[] indices) {
+      this.keys = keys;
+      this.ids = ids;
+      this.indices = indices;
+    }
+
+    /**
+     * Get the indices of the handles of {@code names}. The first of any duplicate names wins.
+     */
+    static Indices of(final String[] names) {
+      if (names.length == 0) {
+        return EMPTY;
+      }
+      final ParamKey[] keys = new ParamKey[names.length];
+      for (int i = 0; i < names.length; i++) {
+        keys[i] = ParamKey.of(names[i]);
+      }
+      final ParamKey[] sorted = keys.clone();
+      Arrays.sort(sorted, new Comparator<ParamKey>() {
+        @Override
+        public int compare(final ParamKey a, final ParamKey b) {
+          return (a.id < b.id) ? -1 : (a.id == b.id) ? 0 : 1;
+        }
+      });
+      int size = 0;
+      for (int i = 0; i < sorted.length; i++) {
+        if (size == 0 || sorted[size - 1] != sorted[i]) {
+          sorted[size++] = sorted[i];
+        }
+      }
+      final ParamKey[] unique = Arrays.copyOf(sorted, size);
+      final int[] ids = new int[size];
+      final int[] indices = new int[size];
+      for (int i = 0; i < size; i++) {
+        ids[i] = unique[i].id;
+        indices[i] = -1;
+      }
+      for (int i = names.length - 1; i >= 0; i--) {
+        indices[Arrays.binarySearch(ids, keys[i].id)] = i;
+      }
+      return new Indices(unique, ids, indices);
+    }
+
+    /**
+     * Get the index of the parameter with the handle {@code key}, or -1 if there is none.
+     */
+    int get(final ParamKey key) {
+      final int i = Arrays.binarySearch(ids, key.id);
+      return (i < 0) ? -1 : indices[i];
+    }
+  }
+}
@@ -11,5 +11,22 @@ public enum ParameterType {
   /**
    * A path parameter that can include several segments.
    */
-  PATH
+  PATH,
+  /**
+   * A segment path parameter that is a decimal {@code int}, e.g. {@code <id:int>}.
+   */
+  INT,
+  /**
+   * A segment path parameter that is a decimal {@code long}, e.g. {@code <id:long>}.
+   */
+  LONG,
+  /**
+   * A segment path parameter that is a UUID in its canonical 36 char form, e.g. {@code
+   * <key:uuid>}.
+   */
+  UUID,
+  /**
+   * A segment path parameter of one or more hexadecimal digits, e.g. {@code <slug:hex>}.
+   */
+  HEX
 }
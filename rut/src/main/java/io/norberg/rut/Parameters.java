@@ -0,0 +1,155 @@
+package io.norberg.rut;
+
+/**
+ * Validation and parsing of typed path parameter values, see {@link ParameterType}. Values are
+ * read in place from the routed path, without creating intermediate strings.
+ */
+final class Parameters {
+
+  private static final int UUID_LENGTH = 36;
+
+  private Parameters() {
+    throw new AssertionError();
+  }
+
+  static boolean isInt(final CharSequence s, final int start, final int end) {
+    return isDecimal(s, start, end, Integer.MIN_VALUE);
+  }
+
+  static boolean isLong(final CharSequence s, final int start, final int end) {
+    return isDecimal(s, start, end, Long.MIN_VALUE);
+  }
+
+  static boolean isUuid(final CharSequence s, final int start, final int end) {
+    if (end - start != UUID_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < UUID_LENGTH; i++) {
+      final char c = s.charAt(start + i);
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') {
+          return false;
+        }
+      } else if (hex(c) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isHex(final CharSequence s, final int start, final int end) {
+    if (start == end) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (hex(s.charAt(i)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static int parseInt(final CharSequence s, final int start, final int end) {
+    if (!isInt(s, start, end)) {
+      throw numberFormatException(s, start, end);
+    }
+    return (int) decimal(s, start, end);
+  }
+
+  static long parseLong(final CharSequence s, final int start, final int end) {
+    if (!isLong(s, start, end)) {
+      throw numberFormatException(s, start, end);
+    }
+    return decimal(s, start, end);
+  }
+
+  static long uuidMostSignificantBits(final CharSequence s, final int start, final int end) {
+    if (!isUuid(s, start, end)) {
+      throw new IllegalArgumentException("Invalid UUID: " + s.subSequence(start, end));
+    }
+    return hex(s, start, start + 8) << 32 |
+           hex(s, start + 9, start + 13) << 16 |
+           hex(s, start + 14, start + 18);
+  }
+
+  static long uuidLeastSignificantBits(final CharSequence s, final int start, final int end) {
+    if (!isUuid(s, start, end)) {
+      throw new IllegalArgumentException("Invalid UUID: " + s.subSequence(start, end));
+    }
+    return hex(s, start + 19, start + 23) << 48 |
+           hex(s, start + 24, start + 36);
+  }
+
+  /**
+   * Check for an optionally negative decimal number that is not less than {@code min} and not
+   * greater than {@code -(min + 1)}. Digits are accumulated as a negative number, as in {@link
+   * Long#parseLong}, so that {@code min} itself does not overflow.
+   */
+  private static boolean isDecimal(final CharSequence s, final int start, final int end,
+                                   final long min) {
+    int i = start;
+    final boolean negative = i < end && s.charAt(i) == '-';
+    if (negative) {
+      i++;
+    }
+    if (i == end) {
+      return false;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      final int digit = s.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return false;
+      }
+      if (value < (min + digit) / 10) {
+        return false;
+      }
+      value = value * 10 - digit;
+    }
+    return negative || value != min;
+  }
+
+  /**
+   * Parse a decimal number that has been checked with {@link #isDecimal}.
+   */
+  private static long decimal(final CharSequence s, final int start, final int end) {
+    final boolean negative = s.charAt(start) == '-';
+    long value = 0;
+    for (int i = negative ? start + 1 : start; i < end; i++) {
+      value = value * 10 - (s.charAt(i) - '0');
+    }
+    return negative ? value : -value;
+  }
+
+  /**
+   * Parse at most 16 hexadecimal digits that have been checked with {@link #hex(char)}.
+   */
+  private static long hex(final CharSequence s, final int start, final int end) {
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      value = value << 4 | hex(s.charAt(i));
+    }
+    return value;
+  }
+
+  /**
+   * Get the value of a hexadecimal digit, or -1 if {@code c} is not a hexadecimal digit.
+   */
+  private static int hex(final char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+  private static NumberFormatException numberFormatException(final CharSequence s,
+                                                             final int start, final int end) {
+    return new NumberFormatException("For input string: \"" + s.subSequence(start, end) + "\"");
+  }
+}
@@ -2,10 +2,10 @@ package io.norberg.rut;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import static io.norberg.rut.CharSequences.indexOf;
 import static io.norberg.rut.Objects.requireNonNull;
-import static io.norberg.rut.ParameterType.PATH;
 import static io.norberg.rut.ParameterType.SEGMENT;
 import static java.util.Collections.unmodifiableList;
 
@@ -26,13 +26,7 @@ final class Path {
     for (final Part part : parts) {
       if (part instanceof Capture) {
         captureNames.add(((Capture) part).name());
-
-        if (part instanceof CaptureSegment) {
-          parameterTypes.add(SEGMENT);
-        }
-        else {
-          parameterTypes.add(PATH);
-        }
+        parameterTypes.add(((Capture) part).type());
       }
     }
     this.captureNames = unmodifiableList(captureNames);
@@ -72,6 +66,8 @@ final class Path {
   interface Capture extends Part {
 
     String name();
+
+    ParameterType type();
   }
 
   static final class Match implements Part {
@@ -95,9 +91,29 @@ final class Path {
   static final class CaptureSegment implements Capture {
 
     private final String name;
+    private final ParameterType type;
+    private final Constraint constraint;
 
     CaptureSegment(final String name) {
+      this(name, SEGMENT);
+    }
+
+    /**
+     * A segment capture whose value must be of {@code type}, e.g. {@link ParameterType#LONG}.
+     */
+    CaptureSegment(final String name, final ParameterType type) {
+      this.name = name;
+      this.type = type;
+      this.constraint = null;
+    }
+
+    /**
+     * A segment capture whose value must match a regular expression {@code constraint}.
+     */
+    CaptureSegment(final String name, final Constraint constraint) {
       this.name = name;
+      this.type = SEGMENT;
+      this.constraint = constraint;
     }
 
     @Override
@@ -105,9 +121,27 @@ final class Path {
       return name;
     }
 
+    @Override
+    public ParameterType type() {
+      return type;
+    }
+
+    /**
+     * Get the regular expression constraint of this capture, or null if it has none.
+     */
+    Constraint constraint() {
+      return constraint;
+    }
+
     @Override
     public String toString() {
-      return "<" + name + ">";
+      if (constraint != null) {
+        return "<" + name + ":" + constraint.regex() + ">";
+      }
+      if (type == SEGMENT) {
+        return "<" + name + ">";
+      }
+      return "<" + name + ":" + type.name().toLowerCase(Locale.ROOT) + ">";
     }
   }
 
@@ -124,6 +158,11 @@ final class Path {
       return name;
     }
 
+    @Override
+    public ParameterType type() {
+      return ParameterType.PATH;
+    }
+
     @Override
     public String toString() {
       return "<" + name + ":path>";
@@ -189,7 +228,33 @@ final class Path {
     if ("path".equals(type)) {
       return new CapturePath(name);
     }
-    throw new IllegalArgumentException("Unknown capture type: " + name);
+    if ("int".equals(type)) {
+      return new CaptureSegment(name, ParameterType.INT);
+    }
+    if ("long".equals(type)) {
+      return new CaptureSegment(name, ParameterType.LONG);
+    }
+    if ("uuid".equals(type)) {
+      return new CaptureSegment(name, ParameterType.UUID);
+    }
+    if ("hex".equals(type)) {
+      return new CaptureSegment(name, ParameterType.HEX);
+    }
+    // Any other plain word is taken to be a misspelled type name rather than a constraint
+    if (isWord(type)) {
+      throw new IllegalArgumentException("Unknown capture type: " + name);
+    }
+    return new CaptureSegment(name, Constraint.compile(type));
+  }
+
+  private static boolean isWord(final String s) {
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (!Character.isLetterOrDigit(c) && c != '_') {
+        return false;
+      }
+    }
+    return true;
   }
 
   private static String join(final List<Part> parts) {
@@ -0,0 +1,225 @@
+package io.norberg.rut;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache of lookup results keyed by exact path, up to any query. Readers never block.
+ * Entries are stored in small sets of slots, and a full set evicts with the CLOCK (second chance)
+ * policy: an entry that was hit since the last time the set was swept survives the sweep.
+ *
+ * <p>A path is only admitted on its second miss, as remembered by a table of the hashes of recently
+ * missed paths, so that paths that are only routed once neither allocate entries nor evict hot
+ * ones.
+ *
+ * @param <V> The cached value type.
+ */
+final class PathCache<V> {
+
+  // Slots per set. The eviction sweep picks a slot with the top two bits of the hash.
+  private static final int WAYS = 4;
+
+  // Counters are striped over padded slots to keep threads from contending on a single cache line
+  private static final int STRIPES = 16;
+  private static final int PAD = 8;
+
+  private static final char QUERY = '?';
+
+  private final AtomicReferenceArray<Entry<V>> slots;
+  private final int mask;
+
+  // Hashes of recently missed paths. Races only affect which paths are admitted.
+  private final int[] missed;
+
+  private final AtomicLongArray hits = new AtomicLongArray(STRIPES * PAD);
+  private final AtomicLongArray misses = new AtomicLongArray(STRIPES * PAD);
+
+  /**
+   * Create a cache with room for at least {@code capacity} paths.
+   */
+  PathCache(final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    int size = WAYS;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.slots = new AtomicReferenceArray<Entry<V>>(size);
+    this.mask = size - 1;
+    this.missed = new int[size];
+  }
+
+  /**
+   * Get the entry for the part of {@code path} that begins at index {@code start}, up to any
+   * query.
+   *
+   * @return The entry, or null if the path is not cached.
+   */
+  Entry<V> get(final CharSequence path, final int start) {
+    final int hash = hash(path, start);
+    final int set = hash & mask & -WAYS;
+    for (int i = 0; i < WAYS; i++) {
+      final Entry<V> entry = slots.get(set + i);
+      if (entry != null && entry.hash == hash && entry.matches(path, start)) {
+        if (!entry.referenced) {
+          entry.referenced = true;
+        }
+        count(hits);
+        return entry;
+      }
+    }
+    count(misses);
+    return null;
+  }
+
+  /**
+   * Cache a lookup result for the part of {@code path} that begins at index {@code start}, up to
+   * any query, with the captures recorded in {@code captor}. The result is only cached if the path
+   * was recently put before.
+   */
+  void put(final CharSequence path, final int start, final V value,
+           final RadixTrie.Captor captor) {
+    final int hash = hash(path, start);
+    final int recent = hash & mask;
+    if (missed[recent] != hash) {
+      missed[recent] = hash;
+      return;
+    }
+    final int set = hash & mask & -WAYS;
+
+    // Take an empty slot, or sweep the set for an entry that has not been hit since the last sweep
+    int victim = -1;
+    for (int i = 0; i < WAYS; i++) {
+      final Entry<V> slot = slots.get(set + i);
+      if (slot == null) {
+        victim = i;
+        break;
+      }
+      if (slot.hash == hash && slot.matches(path, start)) {
+        return;
+      }
+      if (!slot.referenced && victim == -1) {
+        victim = i;
+      }
+    }
+    if (victim == -1) {
+      for (int i = 0; i < WAYS; i++) {
+        final Entry<V> slot = slots.get(set + i);
+        if (slot != null) {
+          slot.referenced = false;
+        }
+      }
+      victim = hash >>> 30;
+    }
+
+    // Losing a race with another writer only means that this result is not cached
+    final Entry<V> old = slots.get(set + victim);
+    slots.compareAndSet(set + victim, old, new Entry<V>(path, start, hash, value, captor));
+  }
+
+  /**
+   * Get the number of paths this cache has room for.
+   */
+  int capacity() {
+    return slots.length();
+  }
+
+  long hits() {
+    return sum(hits);
+  }
+
+  long misses() {
+    return sum(misses);
+  }
+
+  private static void count(final AtomicLongArray counter) {
+    final int id = (int) Thread.currentThread().getId();
+    counter.getAndIncrement(((id ^ (id >>> 4)) & (STRIPES - 1)) * PAD);
+  }
+
+  private static long sum(final AtomicLongArray counter) {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += counter.get(i * PAD);
+    }
+    return sum;
+  }
+
+  /**
+   * Hash the part of {@code path} that begins at index {@code start}, up to any query.
+   */
+  private static int hash(final CharSequence path, final int start) {
+    int h = 0;
+    final int length = path.length();
+    for (int i = start; i < length; i++) {
+      final char c = path.charAt(i);
+      if (c == QUERY) {
+        break;
+      }
+      h = 31 * h + c;
+    }
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * A cached lookup result. Capture bounds are relative to the start of the path.
+   */
+  static final class Entry<V> {
+
+    private final String path;
+    private final int hash;
+    private final V value;
+    private final int[] bounds;
+
+    // Set on hits and cleared by eviction sweeps. A lost update only affects the eviction choice.
+    private boolean referenced;
+
+    private Entry(final CharSequence path, final int start, final int hash, final V value,
+                  final RadixTrie.Captor captor) {
+      final int end = CharSequences.indexOf(path, QUERY, start, path.length());
+      this.path = path.subSequence(start, (end == -1) ? path.length() : end).toString();
+      this.hash = hash;
+      this.value = value;
+      this.bounds = new int[captor.values() * 2];
+      for (int i = 0; i < captor.values(); i++) {
+        bounds[i * 2] = captor.valueStart(i) - start;
+        bounds[i * 2 + 1] = captor.valueEnd(i) - start;
+      }
+    }
+
+    V value() {
+      return value;
+    }
+
+    /**
+     * Record the captures of this entry and the query of {@code path} in {@code captor}, for a
+     * path that begins at index {@code start}.
+     */
+    void restore(final RadixTrie.Captor captor, final CharSequence path, final int start) {
+      captor.restore(bounds, start);
+      final int query = start + this.path.length();
+      if (query < path.length()) {
+        captor.query(query + 1, path.length());
+      }
+    }
+
+    /**
+     * Check if the part of {@code path} that begins at index {@code start}, up to any query, is
+     * the path of this entry.
+     */
+    private boolean matches(final CharSequence path, final int start) {
+      final int length = this.path.length();
+      final int end = start + length;
+      if (path.length() < end || (path.length() > end && path.charAt(end) != QUERY)) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (this.path.charAt(i) != path.charAt(start + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package io.norberg.rut;
+
+import java.util.Arrays;
+
+/**
+ * The positions of the segment bounds, query separators, query parameter separators and percent
+ * encoded chars of a path, found in a single pass. Lets the routing trie, decoding and query
+ * parsing look up the end of a segment or parameter, or check a captured value for encoded chars,
+ * without scanning the path again. Reused from path to path.
+ */
+final class PathScan {
+
+  private static final char SLASH = '/';
+  private static final char QUERY = '?';
+  private static final char PERCENT = '%';
+  private static final char AMPERSAND = '&';
+
+  private CharSequence path;
+
+  // Ordered positions of '/' and '?', of '?', of '&' and of '%'
+  private int[] bounds = new int[16];
+  private int boundCount;
+  private int[] queries = new int[2];
+  private int queryCount;
+  private int[] separators = new int[4];
+  private int separatorCount;
+  private int[] percents = new int[8];
+  private int percentCount;
+
+  /**
+   * Scan {@code path} from {@code start}.
+   */
+  void scan(final CharSequence path, final int start) {
+    this.path = path;
+    boundCount = 0;
+    queryCount = 0;
+    separatorCount = 0;
+    percentCount = 0;
+    final int length = path.length();
+    for (int i = start; i < length; i++) {
+      final char c = path.charAt(i);
+      if (c == SLASH) {
+        bound(i);
+      } else if (c == QUERY) {
+        bound(i);
+        if (queryCount == queries.length) {
+          queries = Arrays.copyOf(queries, queryCount * 2);
+        }
+        queries[queryCount++] = i;
+      } else if (c == PERCENT) {
+        if (percentCount == percents.length) {
+          percents = Arrays.copyOf(percents, percentCount * 2);
+        }
+        percents[percentCount++] = i;
+      } else if (c == AMPERSAND) {
+        if (separatorCount == separators.length) {
+          separators = Arrays.copyOf(separators, separatorCount * 2);
+        }
+        separators[separatorCount++] = i;
+      }
+    }
+  }
+
+  private void bound(final int i) {
+    if (boundCount == bounds.length) {
+      bounds = Arrays.copyOf(bounds, boundCount * 2);
+    }
+    bounds[boundCount++] = i;
+  }
+
+  /**
+   * Check if this is a scan of {@code path}.
+   */
+  boolean covers(final CharSequence path) {
+    return this.path == path;
+  }
+
+  /**
+   * Find the first {@code /} or {@code ?} from {@code index} to {@code end}.
+   *
+   * @return The position, or -1 if there is none.
+   */
+  int bound(final int index, final int end) {
+    return next(bounds, boundCount, index, end);
+  }
+
+  /**
+   * Find the first {@code ?} from {@code index} to {@code end}.
+   *
+   * @return The position, or -1 if there is none.
+   */
+  int query(final int index, final int end) {
+    return next(queries, queryCount, index, end);
+  }
+
+  /**
+   * Find the first {@code &} from {@code index} to {@code end}.
+   *
+   * @return The position, or -1 if there is none.
+   */
+  int separator(final int index, final int end) {
+    return next(separators, separatorCount, index, end);
+  }
+
+  /**
+   * Check if there is a {@code %} from {@code start} to {@code end}.
+   */
+  boolean encoded(final int start, final int end) {
+    return next(percents, percentCount, start, end) != -1;
+  }
+
+  private static int next(final int[] positions, final int count, final int index,
+                          final int end) {
+    int i = Arrays.binarySearch(positions, 0, count, index);
+    if (i < 0) {
+      i = -(i + 1);
+    }
+    return (i == count || positions[i] >= end) ? -1 : positions[i];
+  }
+}
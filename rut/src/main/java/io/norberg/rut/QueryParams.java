@@ -0,0 +1,248 @@
+package io.norberg.rut;
+
+import java.util.Arrays;
+
+/**
+ * A reusable cursor over the {@code name=value} parameters of the query string of a routed path.
+ * Parameters are read in place as offsets into the path, and decoded on demand into caller
+ * supplied buffers, so reading them creates no garbage. Get one from {@link
+ * Router.Result#queryParams()}.
+ *
+ * <pre>{@code
+ * final QueryParams params = result.queryParams();
+ * while (params.next()) {
+ *   if (params.nameEquals("limit")) {
+ *     limit = params.valueLong();
+ *   }
+ * }
+ * }</pre>
+ *
+ * <p>Parameters are separated by {@code &}. Empty parameters are skipped, and a parameter without
+ * {@code =} has an empty value. Names and values are compared undecoded, and decoded with {@code +}
+ * as a space.
+ */
+public final class QueryParams {
+
+  private static final char SEPARATOR = '&';
+  private static final char EQUALS = '=';
+
+  private CharSequence path;
+  private PathScan scan;
+  private int end;
+  private int position;
+
+  private int nameStart = -1;
+  private int nameEnd = -1;
+  private int valueStart = -1;
+  private int valueEnd = -1;
+
+  // Reusable views and decoding buffer
+  private final CharSequenceView name = new CharSequenceView();
+  private final CharSequenceView value = new CharSequenceView();
+  private char[] decoded = new char[0];
+
+  QueryParams() {
+  }
+
+  /**
+   * Iterate over the parameters of the query from {@code start} to {@code end} of {@code path}.
+   * A {@code start} of -1 means that there is no query.
+   */
+  QueryParams reset(final CharSequence path, final int start, final int end) {
+    return reset(path, start, end, null);
+  }
+
+  /**
+   * Iterate over the parameters of the query from {@code start} to {@code end} of {@code path},
+   * finding the separators of the parameters in {@code scan} if it is a scan of {@code path}.
+   */
+  QueryParams reset(final CharSequence path, final int start, final int end,
+                    final PathScan scan) {
+    this.path = path;
+    this.scan = (scan != null && scan.covers(path)) ? scan : null;
+    this.position = (start == -1) ? 0 : start;
+    this.end = (start == -1) ? 0 : end;
+    nameStart = nameEnd = valueStart = valueEnd = -1;
+    return this;
+  }
+
+  /**
+   * Move to the next parameter.
+   *
+   * @return false if there are no more parameters.
+   */
+  public boolean next() {
+    while (position < end) {
+      int separator = (scan != null)
+                      ? scan.separator(position, end)
+                      : CharSequences.indexOf(path, SEPARATOR, position, end);
+      if (separator == -1) {
+        separator = end;
+      }
+      final int start = position;
+      position = separator + 1;
+      if (start == separator) {
+        continue;
+      }
+      final int equals = CharSequences.indexOf(path, EQUALS, start, separator);
+      nameStart = start;
+      nameEnd = (equals == -1) ? separator : equals;
+      valueStart = (equals == -1) ? separator : equals + 1;
+      valueEnd = separator;
+      return true;
+    }
+    nameStart = nameEnd = valueStart = valueEnd = -1;
+    return false;
+  }
+
+  /**
+   * Move to the next parameter named {@code name}.
+   *
+   * @return false if there are no more parameters named {@code name}.
+   */
+  public boolean next(final CharSequence name) {
+    while (next()) {
+      if (nameEquals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the start offset into the routed path of the name of the current parameter.
+   */
+  public int nameStart() {
+    check();
+    return nameStart;
+  }
+
+  /**
+   * Get the end offset into the routed path of the name of the current parameter.
+   */
+  public int nameEnd() {
+    check();
+    return nameEnd;
+  }
+
+  /**
+   * Get the start offset into the routed path of the value of the current parameter.
+   */
+  public int valueStart() {
+    check();
+    return valueStart;
+  }
+
+  /**
+   * Get the end offset into the routed path of the value of the current parameter.
+   */
+  public int valueEnd() {
+    check();
+    return valueEnd;
+  }
+
+  /**
+   * Check if the undecoded name of the current parameter is equal to {@code name}.
+   */
+  public boolean nameEquals(final CharSequence name) {
+    check();
+    final int length = nameEnd - nameStart;
+    return name.length() == length && CharSequences.regionMatches(path, nameStart, name, 0, length);
+  }
+
+  /**
+   * Get a view of the undecoded name of the current parameter. The view is reused, and only valid
+   * until the cursor is moved.
+   */
+  public CharSequence name() {
+    check();
+    return name.wrap(path, nameStart, nameEnd);
+  }
+
+  /**
+   * Get a view of the undecoded value of the current parameter. The view is reused, and only
+   * valid until the cursor is moved.
+   */
+  public CharSequence value() {
+    check();
+    return value.wrap(path, valueStart, valueEnd);
+  }
+
+  /**
+   * Get the value of the current parameter as a {@code long}, parsed in place.
+   *
+   * @throws NumberFormatException if the value is not a decimal {@code long}.
+   */
+  public long valueLong() {
+    check();
+    return Parameters.parseLong(path, valueStart, valueEnd);
+  }
+
+  /**
+   * Decode the name of the current parameter into {@code dst}, starting at {@code offset}.
+   *
+   * @return The decoded length or {@link Router.Result#INVALID_ENCODING} if the encoding is
+   * invalid, in which case {@code dst} is not modified.
+   * @throws IndexOutOfBoundsException if the decoded name does not fit.
+   */
+  public int nameDecoded(final char[] dst, final int offset) {
+    check();
+    return decode(nameStart, nameEnd, dst, offset);
+  }
+
+  /**
+   * Decode the value of the current parameter into {@code dst}, starting at {@code offset}.
+   *
+   * @return The decoded length or {@link Router.Result#INVALID_ENCODING} if the encoding is
+   * invalid, in which case {@code dst} is not modified.
+   * @throws IndexOutOfBoundsException if the decoded value does not fit.
+   */
+  public int valueDecoded(final char[] dst, final int offset) {
+    check();
+    return decode(valueStart, valueEnd, dst, offset);
+  }
+
+  /**
+   * Decode the value of the current parameter and append it to {@code dst}.
+   *
+   * @return The decoded length or {@link Router.Result#INVALID_ENCODING} if the encoding is
+   * invalid, in which case {@code dst} is not modified.
+   */
+  public int valueDecoded(final StringBuilder dst) {
+    check();
+    final int length = decode(valueStart, valueEnd);
+    if (length != Router.Result.INVALID_ENCODING) {
+      dst.append(decoded, 0, length);
+    }
+    return length;
+  }
+
+  private int decode(final int start, final int end, final char[] dst, final int offset) {
+    final int length = decode(start, end);
+    if (length == Router.Result.INVALID_ENCODING) {
+      return length;
+    }
+    if (offset < 0 || offset > dst.length - length) {
+      throw new IndexOutOfBoundsException();
+    }
+    System.arraycopy(decoded, 0, dst, offset, length);
+    return length;
+  }
+
+  /**
+   * Decode from {@code start} to {@code end} of the path into the decoding buffer.
+   */
+  private int decode(final int start, final int end) {
+    if (decoded.length < end - start) {
+      decoded = Arrays.copyOf(decoded, Math.max(decoded.length * 2, end - start));
+    }
+    final int length = Encoding.decodeQuery(path, start, end, decoded, 0);
+    return (length == -1) ? Router.Result.INVALID_ENCODING : length;
+  }
+
+  private void check() {
+    if (nameStart == -1) {
+      throw new IllegalStateException("no current parameter");
+    }
+  }
+}
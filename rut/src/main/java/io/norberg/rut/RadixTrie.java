@@ -1,28 +1,219 @@
 package io.norberg.rut;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
-import static io.norberg.rut.RadixTrie.Node.fanout;
 import static java.lang.Math.max;
 
+/**
+ * A compressed radix trie. The trie is compiled from a tree of {@link Node}s into parallel arrays
+ * laid out in breadth first order. Siblings are stored contiguously, so the edges of a node are
+ * found by index arithmetic instead of by chasing pointers, and all tails share a single byte
+ * pool. Identical subtrees are shared, see {@link #compile}, making the tree a DAG.
+ */
 final class RadixTrie<T> {
 
   private static final Charset ASCII = Charset.forName("US-ASCII");
 
-  private static final byte CAPTURE_SEG = -128;
-  private static final byte CAPTURE_PATH = -127;
+  static final byte CAPTURE_SEG = -128;
+  static final byte CAPTURE_PATH = -127;
+
+  /**
+   * Heads of typed seg captures, see {@link ParameterType}. A typed seg capture only captures
+   * values of its type. Typed seg capture siblings are tried before the seg capture.
+   */
+  static final byte CAPTURE_INT = -126;
+  static final byte CAPTURE_LONG = -125;
+  static final byte CAPTURE_UUID = -124;
+  static final byte CAPTURE_HEX = -123;
+
+  /**
+   * Head of regex constrained seg captures, see {@link Constraint}. These siblings are ordered
+   * after the typed seg captures, by expression.
+   */
+  static final byte CAPTURE_REGEX = -122;
 
   private static final byte SLASH = '/';
   private static final byte QUERY = '?';
 
+  /**
+   * Tails at least this long are compared a word at a time when the path is byte backed.
+   */
+  private static final int WORD = 8;
+
+  /**
+   * Tail offset marking a seg capture that always captures a full segment.
+   */
+  static final int FULL_SEG = -1;
+
+  /**
+   * Lookup engine stack frame kinds, and the frame size in ints.
+   */
+  private static final int CAPTURES = 0;
+  private static final int EDGES = 1;
+  private static final int SEG = 2;
+  private static final int FRAME = 5;
+
+  /**
+   * Node match result for a path that continues into the edges of the node.
+   */
+  private static final int DESCEND = -2;
+
+  /**
+   * Child lookup kinds. Each sibling block gets a kind depending on how many match siblings it
+   * has: a single head comparison, a linear or binary search of the sorted heads, or a dense jump
+   * table indexed by ASCII character.
+   */
+  static final byte SINGLE = 0;
+  static final byte LINEAR = 1;
+  static final byte BINARY = 2;
+  static final byte TABLE = 3;
+
+  static final int LINEAR_MAX = 8;
+  static final int BINARY_MAX = 24;
+  static final int TABLE_SIZE = 128;
+
   private final Node<T> root;
   private final int captures;
 
+  final int roots;
+  final byte[] heads;
+  final int[] tails;
+  final int[] tailLengths;
+  final int[] edges;
+  final int[] fanouts;
+  final Object[] values;
+  final byte[] pool;
+  final Constraint[] constraints;
+
+  // Indexed by the first node of each sibling block
+  final byte[] kinds;
+  final int[] spans;
+  final int[] tables;
+  final int[] jumps;
+
+  private final Specialized specialized;
+
   RadixTrie(final Node<T> root) {
+    this(root, new Layout(root));
+  }
+
+  private RadixTrie(final Node<T> root, final Layout layout) {
     this.root = root;
     this.captures = (root == null) ? 0 : root.captures();
+
+    this.roots = siblings(root);
+    this.heads = layout.heads;
+    this.tails = layout.tails;
+    this.tailLengths = layout.tailLengths;
+    this.edges = layout.edges;
+    this.fanouts = layout.fanouts;
+    this.values = layout.values;
+    this.pool = layout.pool;
+    this.constraints = layout.constraints;
+    this.kinds = layout.kinds;
+    this.spans = layout.spans;
+    this.tables = layout.tables;
+    this.jumps = layout.jumps;
+    this.specialized = null;
+  }
+
+  private RadixTrie(final RadixTrie<T> trie, final Specialized specialized) {
+    this.root = trie.root;
+    this.captures = trie.captures;
+    this.roots = trie.roots;
+    this.heads = trie.heads;
+    this.tails = trie.tails;
+    this.tailLengths = trie.tailLengths;
+    this.edges = trie.edges;
+    this.fanouts = trie.fanouts;
+    this.values = trie.values;
+    this.pool = trie.pool;
+    this.constraints = trie.constraints;
+    this.kinds = trie.kinds;
+    this.spans = trie.spans;
+    this.tables = trie.tables;
+    this.jumps = trie.jumps;
+    this.specialized = specialized;
+  }
+
+  /**
+   * Compile a trie with identical subtrees of {@code root} replaced by a single shared instance.
+   * Subtrees that are equal to subtrees already in {@code pool} are replaced by those, and if the
+   * whole trie is already in {@code pool} its compiled layout is reused.
+   */
+  static <T> RadixTrie<T> compile(final Node<T> root, final NodePool pool) {
+    final Node<T> interned = intern(root, pool);
+    if (interned == null) {
+      return new RadixTrie<T>(null);
+    }
+    Layout layout = (Layout) pool.layout(interned);
+    if (layout == null) {
+      layout = new Layout(interned);
+      pool.layout(interned, layout);
+    }
+    return new RadixTrie<T>(interned, layout);
+  }
+
+  /**
+   * Replace {@code first}, its siblings and their edges with the equal nodes in {@code pool},
+   * adding the nodes that are not in the pool. Nodes are interned after their siblings and edges,
+   * so that equal nodes have identical siblings and edges.
+   */
+  private static <T> Node<T> intern(final Node<T> first, final NodePool pool) {
+    final List<Node<T>> siblings = new ArrayList<Node<T>>();
+    for (Node<T> node = first; node != null; node = node.sibling) {
+      siblings.add(node);
+    }
+    Node<T> interned = null;
+    for (int i = siblings.size() - 1; i >= 0; i--) {
+      final Node<T> node = siblings.get(i);
+      final Node<T> edge = (node.edge == null) ? null : intern(node.edge, pool);
+      final Node<T> copy = (edge == node.edge && interned == node.sibling)
+                           ? node
+                           : new Node<T>(node.head, node.tail, interned, edge, node.value,
+                                         node.constraint);
+      interned = pool.intern(copy);
+    }
+    return interned;
+  }
+
+  /**
+   * Get a trie with a lookup specialized for the structure of this trie. See {@link Specializer}.
+   * Returns this trie if a specialized lookup cannot be generated.
+   */
+  RadixTrie<T> specialize() {
+    if (specialized != null) {
+      return this;
+    }
+    final Specialized specialized = Specializer.specialize(this);
+    return specialized == null ? this : new RadixTrie<T>(this, specialized);
+  }
+
+  boolean isSpecialized() {
+    return specialized != null;
+  }
+
+  /**
+   * Get a trie where the value at {@code path} is replaced by the value returned by {@code
+   * visitor}, or removed if the visitor returns null. Only the nodes on the way to {@code path}
+   * and their preceding siblings are copied, all other nodes are shared with this trie. The nodes
+   * are kept in the same form as if the trie was built from scratch. The node arrays of the new
+   * trie are laid out again, in time in proportion to the number of nodes.
+   *
+   * @return The new trie, or this trie if nothing changed.
+   */
+  RadixTrie<T> with(final Path path, final Trie.Visitor<T> visitor) {
+    final Node<T> root = update(this.root, key(path), constraints(path), 0, visitor);
+    return (root == this.root) ? this : new RadixTrie<T>(root);
   }
 
   T lookup(final CharSequence path) {
@@ -30,8 +221,93 @@ final class RadixTrie<T> {
   }
 
   T lookup(final CharSequence path, final Captor captor) {
+    return lookup(path, 0, captor);
+  }
+
+  /**
+   * Look up the part of {@code path} that begins at index {@code start}. Captured values and the
+   * query are recorded as indices into {@code path}.
+   */
+  T lookup(final CharSequence path, final int start, final Captor captor) {
+    captor.reset();
+    if (specialized != null) {
+      final int node = specialized.lookup(path, start, captor);
+      return node < 0 ? null : value(node);
+    }
+    final int node = find(path, 0, roots, start, captor);
+    return node < 0 ? null : value(node);
+  }
+
+  /**
+   * Begin a lookup of the part of {@code path} that begins at index {@code start}. The lookup is
+   * advanced with {@link #descend} and completed with {@link #resume}. This lets a batch of
+   * lookups descend through the trie in lockstep, overlapping their memory accesses.
+   */
+  void begin(final CharSequence path, final int start, final Captor captor) {
     captor.reset();
-    return fanout(root, path, 0, captor, 0);
+    captor.resumeFirst = 0;
+    captor.resumeFanout = roots;
+    captor.resumeIndex = start;
+    captor.descending = (specialized == null);
+  }
+
+  /**
+   * Descend a begun lookup one level, through a match node whose tail matches and whose edges the
+   * path continues into. Pushes the same frames as {@link #find} would.
+   *
+   * @return true if the lookup descended, false if it must be completed with {@link #resume}.
+   */
+  boolean descend(final CharSequence path, final Captor captor) {
+    if (!captor.descending) {
+      return false;
+    }
+    final int first = captor.resumeFirst;
+    final int fanout = captor.resumeFanout;
+    final int i = captor.resumeIndex;
+    final int length = path.length();
+    if (fanout == 0 || i == length) {
+      captor.descending = false;
+      return false;
+    }
+    final char c = path.charAt(i);
+    final int match = (c == QUERY) ? -1 : seek(first, c);
+    if (match < 0 || fanouts[match] == 0) {
+      captor.descending = false;
+      return false;
+    }
+    final int tailLength = tailLengths[match];
+    final int next = i + 1 + tailLength;
+    if (next >= length ||
+        mismatch(path, i + 1, tails[match], tailLength) != -1 ||
+        path.charAt(next) == QUERY) {
+      captor.descending = false;
+      return false;
+    }
+
+    final int end = first + fanout;
+    final int captures = first + spans[first];
+    if (captures < end) {
+      captor.push(CAPTURES, captures, end, i, 0);
+    }
+    captor.push(EDGES, match, 0, next, 0);
+    captor.resumeFirst = edges[match];
+    captor.resumeFanout = fanouts[match];
+    captor.resumeIndex = next;
+    return true;
+  }
+
+  /**
+   * Complete a lookup begun with {@link #begin}.
+   */
+  T resume(final CharSequence path, final Captor captor) {
+    captor.descending = false;
+    final int node;
+    if (specialized != null) {
+      node = specialized.lookup(path, captor.resumeIndex, captor);
+    } else {
+      node = find(path, captor.resumeFirst, captor.resumeFanout, captor.resumeIndex, captor);
+    }
+    return node < 0 ? null : value(node);
   }
 
   int captures() {
@@ -55,321 +331,1100 @@ final class RadixTrie<T> {
     return new Builder<T>();
   }
 
-  static final class Node<T> {
+  /**
+   * Look up the path from {@code offset} among the {@code size} sibling nodes starting at node
+   * {@code from}. The trie is walked in a loop instead of recursively. When the walk descends into
+   * the edges of a node, a frame for resuming the alternatives of the node is pushed on the
+   * {@link Captor} stack, so the call stack does not grow with the depth of the trie.
+   *
+   * @return The index of the matching node, or -1 if there is no match.
+   */
+  private int find(final CharSequence path, final int from, final int size, final int offset,
+                   final Captor captor) {
+    int first = from;
+    int fanout = size;
+    int i = offset;
+    int capture = 0;
+    int node;
+
+    descend:
+    while (true) {
+      node = -1;
+
+      // Look up the path among the fanout sibling nodes starting at first
+      if (fanout != 0) {
+        if (i == path.length() || path.charAt(i) == QUERY) {
+          node = terminalFanout(first, fanout, captor, capture);
+        } else {
+          // Resume with the capture nodes if the match node does not match. These can be the two
+          // last nodes in the list, with the seg capture node before the path capture node.
+          final int end = first + fanout;
+          final int captures = first + spans[first];
+          if (captures < end) {
+            captor.push(CAPTURES, captures, end, i, capture);
+          }
 
-    private static final byte[] FULL_SEG = new byte[0];
+          // Seek single potential matching node.
+          final int match = seek(first, path.charAt(i));
+          if (match >= 0) {
+            node = match(match, path, i, captor, capture);
+            if (node == DESCEND) {
+              final int next = i + 1 + tailLengths[match];
+              captor.push(EDGES, match, 0, next, capture);
+              first = edges[match];
+              fanout = fanouts[match];
+              i = next;
+              continue;
+            }
+          }
+        }
+      }
 
-    private final byte head;
-    private final byte[] tail;
-    private final Node<T> sibling;
-    private final Node<T> edge;
-    private final T value;
+      // Unwind until a frame has an alternative to descend into
+      while (captor.top > 0) {
+        captor.top -= FRAME;
+        final int[] stack = captor.stack;
+        final int top = captor.top;
+        final int frameCapture = stack[top + 4];
+        switch (stack[top]) {
+          case CAPTURES: {
+            if (node >= 0) {
+              break;
+            }
+            final int end = stack[top + 2];
+            final int index = stack[top + 3];
+            for (int n = stack[top + 1]; n < end; n++) {
+              if (heads[n] != CAPTURE_PATH) {
+                final int limit = captureBound(path, index, captor);
+                int position = limit;
+                if (heads[n] != CAPTURE_SEG) {
+                  // A typed capture only captures a full segment value of its type
+                  if (!valid(n, path, index, limit)) {
+                    if (tails[n] == FULL_SEG) {
+                      continue;
+                    }
+                    position = backtrack(n, path, index, limit - 1);
+                    if (position < 0) {
+                      continue;
+                    }
+                  }
+                }
+                if (position == limit) {
+                  node = captureSeg(n, path, index, limit, captor, frameCapture);
+                  if (node >= 0) {
+                    break;
+                  }
+                }
+                if (fanouts[n] != 0) {
+                  if (n + 1 < end) {
+                    captor.push(CAPTURES, n + 1, end, index, frameCapture);
+                  }
+                  captor.push(SEG, n, index, position, frameCapture);
+                  first = edges[n];
+                  fanout = fanouts[n];
+                  i = position;
+                  capture = frameCapture + 1;
+                  continue descend;
+                }
+              } else {
+                node = capturePath(n, path, index, captor, frameCapture);
+                break;
+              }
+            }
+            break;
+          }
+          case EDGES: {
+            if (node < 0) {
+              node = trailingSlash(stack[top + 1], path, stack[top + 3], captor, frameCapture);
+            }
+            break;
+          }
+          default: {
+            final int seg = stack[top + 1];
+            final int index = stack[top + 2];
+            final int position = stack[top + 3];
+            if (node >= 0) {
+              captor.capture(frameCapture, index, position);
+              break;
+            }
 
-    private Node(final byte head, final byte[] tail, final Node<T> sibling, final Node<T> edge,
-                 final T value) {
-      this.head = head;
-      this.tail = tail;
-      this.sibling = sibling;
-      this.edge = edge;
-      this.value = value;
+            // Capturing a partial segment, back-track.
+            if (tails[seg] != FULL_SEG && position > index) {
+              final int previous = backtrack(seg, path, index, position - 1);
+              if (previous < 0) {
+                break;
+              }
+              captor.push(SEG, seg, index, previous, frameCapture);
+              first = edges[seg];
+              fanout = fanouts[seg];
+              i = previous;
+              capture = frameCapture + 1;
+              continue descend;
+            }
+            break;
+          }
+        }
+      }
 
-      // Verify that match siblings are ordered
-      if (sibling != null && head > 0 && sibling.head > 0 && head > sibling.head) {
-        throw new IllegalArgumentException("unordered sibling");
+      return node;
+    }
+  }
+
+  /**
+   * Find the match node with head {@code c} among the siblings starting at index {@code first}.
+   *
+   * @return The index of the matching node, or -1 if there is none.
+   */
+  private int seek(final int first, final char c) {
+    switch (kinds[first]) {
+      case SINGLE:
+        return (heads[first] == c) ? first : -1;
+      case LINEAR: {
+        final int end = first + spans[first];
+        for (int node = first; node < end; node++) {
+          final byte head = heads[node];
+          if (head == c) {
+            return node;
+          }
+          if (head > c) {
+            break;
+          }
+        }
+        return -1;
+      }
+      case BINARY: {
+        int low = first;
+        int high = first + spans[first] - 1;
+        while (low <= high) {
+          final int mid = (low + high) >>> 1;
+          final byte head = heads[mid];
+          if (head < c) {
+            low = mid + 1;
+          } else if (head > c) {
+            high = mid - 1;
+          } else {
+            return mid;
+          }
+        }
+        return -1;
       }
+      default:
+        return (c < TABLE_SIZE) ? jumps[tables[first] + c] : -1;
+    }
+  }
 
-      // Verify that sibling heads are unique
-      if (sibling != null && head == sibling.head) {
-        throw new IllegalArgumentException("duplicate sibling head");
+  private int terminalFanout(final int first, final int fanout, final Captor captor,
+                             final int capture) {
+    if (!captor.optionalTrailingSlash || fanout == 0) {
+      return -1;
+    }
+
+    // Trailing slash in prefix?
+    final int node = seek(first, (char) SLASH);
+    if (node >= 0 && tailLengths[node] == 0 && values[node] != null) {
+      captor.match(capture);
+      return node;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Match the tail of a node.
+   *
+   * @return The index of the matching node, -1 if there is no match, or {@link #DESCEND} if the
+   * path continues into the edges of the node.
+   */
+  private int match(final int node, final CharSequence path, final int index,
+                    final Captor captor, final int capture) {
+    final boolean value = values[node] != null;
+    final int tail = tails[node];
+    final int tailLength = tailLengths[node];
+
+    // Match prefix
+    final int length = path.length();
+    final int next = index + 1 + tailLength;
+    if (next > length) {
+      // Trailing slash in prefix?
+      if (captor.optionalTrailingSlash) {
+        if (next == length + 1 &&
+            value &&
+            pool[tail + tailLength - 1] == SLASH) {
+          if (mismatch(path, index + 1, tail, tailLength - 1) != -1) {
+            return -1;
+          }
+          captor.match(capture);
+          return node;
+        }
+      }
+      return -1;
+    }
+    final int i = mismatch(path, index + 1, tail, tailLength);
+    if (i != -1) {
+      // Trailing slash in prefix?
+      if (captor.optionalTrailingSlash) {
+        if (value &&
+            i == tailLength - 1 &&
+            pool[tail + i] == SLASH &&
+            path.charAt(index + 1 + i) == QUERY) {
+          captor.query(index + 2 + i, length);
+          captor.match(capture);
+          return node;
+        }
       }
+      return -1;
+    }
 
-      // Verify that the seg capture is last or followed by path capture
-      if (head == CAPTURE_SEG && sibling != null && sibling.head != CAPTURE_PATH) {
-        throw new IllegalArgumentException("seg capture must be last or followed by path capture");
+    // Terminal?
+    if (next == length) {
+      if (value) {
+        captor.match(capture);
+        return node;
       }
+      return terminalFanout(edges[node], fanouts[node], captor, capture);
+    }
 
-      // Verify that the path capture is last
-      if (head == CAPTURE_PATH && sibling != null) {
-        throw new IllegalArgumentException("path capture must be last sibling");
+    // Query?
+    final char c = path.charAt(next);
+    if (c == QUERY) {
+      if (value) {
+        captor.query(next + 1, length);
+        captor.match(capture);
+        return node;
+      }
+      final int edge = terminalFanout(edges[node], fanouts[node], captor, capture);
+      if (edge >= 0) {
+        captor.query(next + 1, length);
       }
+      return edge;
+    }
 
-      // Verify that terminal nodes have values
-      if (value == null && edge == null) {
-        throw new IllegalArgumentException("terminal node without value");
+    // Edge fanout
+    if (fanouts[node] != 0) {
+      return DESCEND;
+    }
+
+    return trailingSlash(node, path, next, captor, capture);
+  }
+
+  /**
+   * Match a node with a trailing slash in the path at {@code next}, after the edges of the node
+   * did not match.
+   */
+  private int trailingSlash(final int node, final CharSequence path, final int next,
+                            final Captor captor, final int capture) {
+    // Trailing slash in path?
+    if (captor.optionalTrailingSlash) {
+      if (values[node] != null && path.charAt(next) == SLASH) {
+        final int length = path.length();
+        if (next + 1 == length) {
+          captor.match(capture);
+          return node;
+        } else if (path.charAt(next + 1) == QUERY) {
+          captor.match(capture);
+          captor.query(next + 2, length);
+          return node;
+        }
       }
     }
 
-    private int captures() {
-      final int captures = (head < 0) ? 1 : 0;
-      final int edgeCaptures = (edge == null) ? 0 : edge.captures();
-      final int siblingCaptures = (sibling == null) ? 0 : sibling.captures();
-      return captures + max(edgeCaptures, siblingCaptures);
+    return -1;
+  }
+
+  private int capturePath(final int node, final CharSequence path, final int index,
+                          final Captor captor, final int capture) {
+    // value != null
+
+    // Find capture bound
+    final int length = path.length();
+    int i = captor.indexOfQuery(path, index, length);
+    if (i == -1) {
+      i = length;
+    } else {
+      captor.query(i + 1, length);
     }
 
-    static <T> T fanout(final Node<T> root, final CharSequence path, final int i,
-                        final Captor captor, final int capture) {
-      if (root == null) {
-        return null;
+    captor.match(capture + 1);
+    captor.capture(capture, index, i);
+    return node;
+  }
+
+  /**
+   * Find the last position from {@code position} down to {@code index} where a partial segment
+   * capture of node {@code seg} from {@code index} can end.
+   *
+   * @return The position, or -1 if there is none.
+   */
+  private int backtrack(final int seg, final CharSequence path, final int index,
+                        final int position) {
+    final byte head = heads[seg];
+    if (head == CAPTURE_SEG) {
+      return position;
+    }
+    if (head == CAPTURE_REGEX) {
+      return Constraint.lastMatch(constraints[seg].table(), path, index, position);
+    }
+    for (int p = position; p > index; p--) {
+      if (valid(head, path, index, p)) {
+        return p;
       }
+    }
+    return -1;
+  }
 
-      if (i == path.length()) {
-        return terminalFanout(root, captor, capture);
+  /**
+   * Check that a value captured by the seg capture node {@code node} satisfies its type or
+   * constraint.
+   */
+  private boolean valid(final int node, final CharSequence path, final int start,
+                        final int end) {
+    if (heads[node] == CAPTURE_REGEX) {
+      return constraints[node].matches(path, start, end);
+    }
+    return valid(heads[node], path, start, end);
+  }
+
+  /**
+   * Check that a value captured by a seg capture with head {@code head} is of its type.
+   */
+  static boolean valid(final byte head, final CharSequence path, final int start,
+                       final int end) {
+    switch (head) {
+      case CAPTURE_INT:
+        return Parameters.isInt(path, start, end);
+      case CAPTURE_LONG:
+        return Parameters.isLong(path, start, end);
+      case CAPTURE_UUID:
+        return Parameters.isUuid(path, start, end);
+      case CAPTURE_HEX:
+        return Parameters.isHex(path, start, end);
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Get the head of the seg capture of a typed parameter.
+   */
+  static byte captureHead(final ParameterType type) {
+    switch (type) {
+      case INT:
+        return CAPTURE_INT;
+      case LONG:
+        return CAPTURE_LONG;
+      case UUID:
+        return CAPTURE_UUID;
+      case HEX:
+        return CAPTURE_HEX;
+      case PATH:
+        return CAPTURE_PATH;
+      default:
+        return CAPTURE_SEG;
+    }
+  }
+
+  /**
+   * Get the parameter type captured by a capture node with head {@code head}.
+   */
+  static ParameterType captureType(final byte head) {
+    switch (head) {
+      case CAPTURE_INT:
+        return ParameterType.INT;
+      case CAPTURE_LONG:
+        return ParameterType.LONG;
+      case CAPTURE_UUID:
+        return ParameterType.UUID;
+      case CAPTURE_HEX:
+        return ParameterType.HEX;
+      case CAPTURE_PATH:
+        return ParameterType.PATH;
+      default:
+        return ParameterType.SEGMENT;
+    }
+  }
+
+  /**
+   * Get the sort rank of a sibling head. Match siblings are ordered by head, followed by the typed
+   * seg captures, the seg capture and the path capture.
+   */
+  static int rank(final byte head) {
+    switch (head) {
+      case CAPTURE_SEG:
+        return 0x100;
+      case CAPTURE_PATH:
+        return 0x101;
+      default:
+        return head & 0xFF;
+    }
+  }
+
+  /**
+   * Compare the sibling order of two nodes, given their heads and regex constraints.
+   */
+  private static int order(final byte head, final Constraint constraint, final byte otherHead,
+                           final Constraint otherConstraint) {
+    final int order = rank(head) - rank(otherHead);
+    if (order != 0 || head != CAPTURE_REGEX) {
+      return order;
+    }
+    return constraint.regex().compareTo(otherConstraint.regex());
+  }
+
+  /**
+   * Find the end of a segment capture starting at {@code index}.
+   */
+  private static int captureBound(final CharSequence path, final int index,
+                                  final Captor captor) {
+    final int length = path.length();
+    final int i = captor.indexOfBound(path, index, length);
+    if (i == -1) {
+      return length;
+    }
+    if (path.charAt(i) == QUERY) {
+      captor.query(i + 1, length);
+    }
+    return i;
+  }
+
+  /**
+   * Match a segment capture from {@code index} to {@code limit} that ends the path.
+   *
+   * @return The index of the matching node, or -1 if there is no match.
+   */
+  private int captureSeg(final int node, final CharSequence path, final int index,
+                         final int limit, final Captor captor, final int capture) {
+    if (values[node] == null) {
+      return -1;
+    }
+
+    // Terminal?
+    final int length = path.length();
+    if (limit == length || path.charAt(limit) == QUERY) {
+      captor.match(capture + 1);
+      captor.capture(capture, index, limit);
+      return node;
+    }
+
+    // Trailing slash in path?
+    if (captor.optionalTrailingSlash) {
+      if (limit + 1 == length) { // c == SLASH
+        captor.match(capture + 1);
+        captor.capture(capture, index, limit);
+        return node;
+      } else if (path.charAt(limit + 1) == QUERY) { // limit + 1 < length
+        captor.match(capture + 1);
+        captor.capture(capture, index, limit);
+        captor.query(limit + 2, length);
+        return node;
       }
+    }
 
-      final char c = path.charAt(i);
+    return -1;
+  }
 
-      if (c == QUERY) {
-        return terminalFanout(root, captor, capture);
+  /**
+   * Compare {@code length} chars of {@code path} starting at {@code index} to the tail pool
+   * starting at {@code tail}. Short tails are compared inline.
+   *
+   * @return The offset of the first mismatching char, or -1 if all chars match.
+   */
+  private int mismatch(final CharSequence path, final int index, final int tail,
+                       final int length) {
+    if (length >= WORD) {
+      return CharSequences.mismatch(path, index, pool, tail, length);
+    }
+    for (int i = 0; i < length; i++) {
+      if (pool[tail + i] != path.charAt(index + i)) {
+        return i;
       }
+    }
+    return -1;
+  }
 
-      Node<T> node = root;
-      byte head;
+  @SuppressWarnings("unchecked")
+  private T value(final int node) {
+    return (T) values[node];
+  }
 
-      // Seek single potential matching node. This will be at any place in the ordered list.
-      do {
-        head = node.head;
-        if (head < 0) {
-          break;
-        }
-        if (head == c) {
-          final T value = node.match(path, i, captor, capture);
-          if (value != null) {
-            return value;
-          }
-          break;
-        }
-        if (node.sibling == null) {
-          break;
-        }
-        node = node.sibling;
-      } while (true);
-
-      // Seek potential capture nodes. These can be the second two last nodes in the list,
-      // with the seg capture node before the path capture node.
-      do {
-        if (node.head == CAPTURE_SEG) {
-          final T value = node.captureSeg(path, i, captor, capture);
-          if (value != null) {
-            return value;
-          }
-        }
-        if (node.head == CAPTURE_PATH) {
-          return node.capturePath(path, i, captor, capture);
-        }
-        node = node.sibling;
-      } while (node != null);
+  /**
+   * Count a node and its siblings.
+   */
+  private static int siblings(Node<?> node) {
+    int n = 0;
+    while (node != null) {
+      n++;
+      node = node.sibling;
+    }
+    return n;
+  }
 
-      return null;
+  /**
+   * Write the nodes of this trie to a snapshot. Node values are written as their indices in
+   * {@code values}. See {@link Snapshot}.
+   */
+  void write(final DataOutput out, final IdentityHashMap<T, Integer> values) throws IOException {
+    final int n = heads.length;
+    final int[] tails = new int[n];
+    final int[] indices = new int[n];
+    for (int i = 0; i < n; i++) {
+      tails[i] = (this.tails[i] == FULL_SEG) ? FULL_SEG : tailLengths[i];
+      @SuppressWarnings("unchecked") final T value = (T) this.values[i];
+      indices[i] = (value == null) ? -1 : values.get(value);
+    }
+    out.writeInt(roots);
+    Snapshot.writeBytes(out, heads);
+    Snapshot.writeInts(out, tails);
+    Snapshot.writeInts(out, edges);
+    Snapshot.writeInts(out, fanouts);
+    Snapshot.writeInts(out, indices);
+    Snapshot.writeBytes(out, pool);
+    int regexes = 0;
+    for (int i = 0; i < n; i++) {
+      if (constraints[i] != null) {
+        regexes++;
+      }
     }
+    out.writeInt(regexes);
+    for (int i = 0; i < n; i++) {
+      if (constraints[i] != null) {
+        out.writeInt(i);
+        Snapshot.writeString(out, constraints[i].regex());
+      }
+    }
+  }
 
-    private static <T> T terminalFanout(Node<T> node, final Captor captor, final int capture) {
-      if (!captor.optionalTrailingSlash) {
-        return null;
+  /**
+   * Read a trie written by {@link #write}. The node tree is rebuilt bottom up from the breadth
+   * first node arrays, without parsing or compressing any paths.
+   *
+   * @param values The node values, indexed as when written.
+   */
+  static <T> RadixTrie<T> read(final ByteBuffer in, final List<T> values) {
+    final int roots = in.getInt();
+    final byte[] heads = Snapshot.readBytes(in);
+    final int[] tails = Snapshot.readInts(in);
+    final int[] edges = Snapshot.readInts(in);
+    final int[] fanouts = Snapshot.readInts(in);
+    final int[] indices = Snapshot.readInts(in);
+    final byte[] pool = Snapshot.readBytes(in);
+    final int n = heads.length;
+    final Constraint[] constraints = new Constraint[n];
+    final int regexes = Snapshot.length(in, 8);
+    for (int i = 0; i < regexes; i++) {
+      final int node = in.getInt();
+      if (node < 0 || node >= n) {
+        throw new IllegalArgumentException("Corrupt snapshot");
       }
+      constraints[node] = Constraint.compile(Snapshot.readString(in));
+    }
+    if (tails.length != n || edges.length != n || fanouts.length != n || indices.length != n ||
+        roots < 0 || roots > n || (roots == 0 && n != 0)) {
+      throw new IllegalArgumentException("Corrupt snapshot");
+    }
 
-      // Trailing slash in prefix?
-      byte head;
-      do {
-        head = node.head;
-        if (head < 0) {
-          break;
-        }
-        if (head == SLASH && node.tail == null) {
-          if (node.value != null) {
-            captor.match(capture);
-          }
-          return node.value;
-        }
-        node = node.sibling;
-      } while (node != null);
+    // The pool offset and length of each tail, and the value of each node
+    final int[] offsets = new int[n];
+    final int[] lengths = new int[n];
+    final Object[] nodeValues = new Object[n];
+    int offset = 0;
+    for (int i = 0; i < n; i++) {
+      final int first = edges[i];
+      final int end = first + fanouts[i];
+      if (tails[i] < FULL_SEG || fanouts[i] < 0 || (fanouts[i] > 0 && (first <= i || end > n))) {
+        throw new IllegalArgumentException("Corrupt snapshot");
+      }
+      offsets[i] = (tails[i] == FULL_SEG) ? FULL_SEG : offset;
+      lengths[i] = max(tails[i], 0);
+      offset += lengths[i];
+      nodeValues[i] = (indices[i] == -1) ? null : values.get(indices[i]);
+    }
+    if (offset != pool.length) {
+      throw new IllegalArgumentException("Corrupt snapshot");
+    }
+    final Node<T> root =
+        tree(roots, heads, offsets, lengths, edges, fanouts, nodeValues, pool, constraints);
+    return new RadixTrie<T>(root);
+  }
 
-      return null;
+  /**
+   * Build a node tree bottom up from breadth first node arrays, where {@code tails} are offsets
+   * into {@code pool} or {@link #FULL_SEG}.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> Node<T> tree(final int roots, final byte[] heads, final int[] tails,
+                                  final int[] tailLengths, final int[] edges,
+                                  final int[] fanouts, final Object[] values, final byte[] pool,
+                                  final Constraint[] constraints) {
+    final int n = heads.length;
+
+    // The end of the sibling block of each node
+    final int[] ends = new int[n];
+    Arrays.fill(ends, 0, roots, roots);
+    for (int i = 0; i < n; i++) {
+      if (fanouts[i] > 0) {
+        Arrays.fill(ends, edges[i], edges[i] + fanouts[i], edges[i] + fanouts[i]);
+      }
     }
 
-    private T match(final CharSequence path, final int index, final Captor captor,
-                    final int capture) {
-      // Match prefix
-      final int length = path.length();
-      final int next;
-      if (tail == null) {
-        next = index + 1;
+    final List<Node<T>> nodes = new ArrayList<Node<T>>(n);
+    for (int i = 0; i < n; i++) {
+      nodes.add(null);
+    }
+    for (int i = n - 1; i >= 0; i--) {
+      final byte[] tail;
+      if (tails[i] == FULL_SEG) {
+        tail = Node.FULL_SEG;
+      } else if (tailLengths[i] == 0) {
+        tail = null;
       } else {
-        next = index + 1 + tail.length;
-        if (next > length) {
-          // Trailing slash in prefix?
-          if (captor.optionalTrailingSlash) {
-            if (next == length + 1 &&
-                value != null &&
-                tail[tail.length - 1] == SLASH) {
-              for (int i = 0; i < tail.length - 1; i++) {
-                if (tail[i] != path.charAt(index + 1 + i)) {
-                  return null;
-                }
-              }
-              captor.match(capture);
-              return value;
-            }
-          }
-          return null;
-        }
-        for (int i = 0; i < tail.length; i++) {
-          if (tail[i] != path.charAt(index + 1 + i)) {
-            // Trailing slash in prefix?
-            if (captor.optionalTrailingSlash) {
-              if (value != null &&
-                  i == tail.length - 1 &&
-                  tail[tail.length - 1] == SLASH &&
-                  path.charAt(index + 1 + i) == QUERY) {
-                captor.query(index + 2 + i, length);
-                captor.match(capture);
-                return value;
-              }
-            }
-            return null;
-          }
-        }
+        tail = Arrays.copyOfRange(pool, tails[i], tails[i] + tailLengths[i]);
       }
+      final Node<T> sibling = (i + 1 < ends[i]) ? nodes.get(i + 1) : null;
+      final Node<T> edge = (fanouts[i] == 0) ? null : nodes.get(edges[i]);
+      nodes.set(i, new Node<T>(heads[i], tail, sibling, edge, (T) values[i], constraints[i]));
+    }
+    return (n == 0) ? null : nodes.get(0);
+  }
 
-      // Terminal?
-      if (next == length) {
-        if (value != null) {
-          captor.match(capture);
-          return value;
+  /**
+   * Encode a path as a key of ASCII characters and capture heads.
+   */
+  private static byte[] key(final Path path) {
+    int length = 0;
+    for (final Path.Part part : path.parts()) {
+      length += (part instanceof Path.Match) ? ((Path.Match) part).string().length() : 1;
+    }
+    final byte[] key = new byte[length];
+    int i = 0;
+    for (final Path.Part part : path.parts()) {
+      if (part instanceof Path.Match) {
+        final String string = ((Path.Match) part).string();
+        for (int j = 0; j < string.length(); j++) {
+          key[i++] = (byte) string.charAt(j);
         }
-        return terminalFanout(edge, captor, capture);
+      } else {
+        final Path.Capture capture = (Path.Capture) part;
+        final boolean regex = capture instanceof Path.CaptureSegment &&
+                              ((Path.CaptureSegment) capture).constraint() != null;
+        key[i++] = regex ? CAPTURE_REGEX : captureHead(capture.type());
       }
+    }
+    return key;
+  }
 
-      // Query?
-      final char c = path.charAt(next);
-      if (c == QUERY) {
-        if (value != null) {
-          captor.query(next + 1, length);
-          captor.match(capture);
-          return value;
-        }
-        final T value = terminalFanout(edge, captor, capture);
-        if (value != null) {
-          captor.query(next + 1, length);
-          return value;
+  /**
+   * Get the regex constraints of the captures of a path, aligned with its {@link #key}.
+   */
+  private static Constraint[] constraints(final Path path) {
+    int length = 0;
+    for (final Path.Part part : path.parts()) {
+      length += (part instanceof Path.Match) ? ((Path.Match) part).string().length() : 1;
+    }
+    final Constraint[] constraints = new Constraint[length];
+    int i = 0;
+    for (final Path.Part part : path.parts()) {
+      if (part instanceof Path.Match) {
+        i += ((Path.Match) part).string().length();
+      } else {
+        if (part instanceof Path.CaptureSegment) {
+          constraints[i] = ((Path.CaptureSegment) part).constraint();
         }
-        return null;
+        i++;
+      }
+    }
+    return constraints;
+  }
+
+  /**
+   * Update the value at the part of {@code key} from {@code k} among the siblings starting at
+   * {@code first}.
+   *
+   * @return The first of the updated siblings, or {@code first} if nothing changed.
+   */
+  private static <T> Node<T> update(final Node<T> first, final byte[] key,
+                                    final Constraint[] constraints, final int k,
+                                    final Trie.Visitor<T> visitor) {
+    int n = 0;
+    Node<T> node = first;
+    while (node != null && order(node.head, node.constraint, key[k], constraints[k]) < 0) {
+      node = node.sibling;
+      n++;
+    }
+    final Node<T> updated;
+    if (node != null && order(node.head, node.constraint, key[k], constraints[k]) == 0) {
+      updated = updateNode(node, key, constraints, k, visitor);
+    } else {
+      final T value = visitor.finish(null);
+      updated = (value == null) ? node : create(key, constraints, k, node, value);
+    }
+    return (updated == node) ? first : relink(first, n, updated);
+  }
+
+  /**
+   * Update the value at the part of {@code key} from {@code k} in or below {@code node}, whose
+   * head matches the first symbol.
+   *
+   * @return The updated node followed by its siblings, or {@code node} if nothing changed.
+   */
+  private static <T> Node<T> updateNode(final Node<T> node, final byte[] key,
+                                        final Constraint[] constraints, final int k,
+                                        final Trie.Visitor<T> visitor) {
+    final int length = (node.head < 0) ? 1 : 1 + ((node.tail == null) ? 0 : node.tail.length);
+    int l = 1;
+    while (l < length && k + l < key.length && node.tail[l - 1] == key[k + l]) {
+      l++;
+    }
+
+    // Split a match node whose prefix diverges from the key
+    if (l < length) {
+      final Node<T> rest = match(node.tail, l - 1, length - 1, null, node.edge, node.value);
+      if (k + l == key.length) {
+        final T value = visitor.finish(null);
+        return (value == null)
+               ? node
+               : match(key, k, k + l, node.sibling, rest, value);
       }
+      final Node<T> edge = update(rest, key, constraints, k + l, visitor);
+      return (edge == rest) ? node : match(key, k, k + l, node.sibling, edge, null);
+    }
 
-      // Edge fanout
-      final T value = fanout(edge, path, next, captor, capture);
-      if (value != null) {
-        return value;
+    final T value;
+    final Node<T> edge;
+    if (k + length == key.length) {
+      value = visitor.finish(node.value);
+      if (value == node.value) {
+        return node;
+      }
+      edge = node.edge;
+    } else {
+      edge = update(node.edge, key, constraints, k + length, visitor);
+      if (edge == node.edge) {
+        return node;
       }
+      value = node.value;
+    }
 
-      // Trailing slash in path?
-      if (captor.optionalTrailingSlash) {
-        if (this.value != null && c == SLASH) {
-          if (next + 1 == length) {
-            captor.match(capture);
-            return this.value;
-          } else if (path.charAt(next + 1) == QUERY) {
-            captor.match(capture);
-            captor.query(next + 2, length);
-            return this.value;
-          }
-        }
+    if (value == null && edge == null) {
+      return node.sibling;
+    }
+    if (node.head == CAPTURE_PATH) {
+      return new Node<T>(CAPTURE_PATH, null, node.sibling, null, value);
+    }
+    if (node.head < 0) {
+      return seg(node.head, node.constraint, node.sibling, edge, value);
+    }
+
+    // Merge a match node that no longer has a value with its single match edge
+    if (value == null && edge.sibling == null && edge.head >= 0) {
+      final byte[] prefix = new byte[length + 1 + ((edge.tail == null) ? 0 : edge.tail.length)];
+      prefix[0] = node.head;
+      if (node.tail != null) {
+        System.arraycopy(node.tail, 0, prefix, 1, node.tail.length);
+      }
+      prefix[length] = edge.head;
+      if (edge.tail != null) {
+        System.arraycopy(edge.tail, 0, prefix, length + 1, edge.tail.length);
       }
+      return match(prefix, 0, prefix.length, node.sibling, edge.edge, edge.value);
+    }
+    return new Node<T>(node.head, node.tail, node.sibling, edge, value);
+  }
+
+  /**
+   * Create the nodes for the part of {@code key} from {@code k}, followed by {@code sibling}.
+   */
+  private static <T> Node<T> create(final byte[] key, final Constraint[] constraints,
+                                    final int k, final Node<T> sibling, final T value) {
+    if (key[k] == CAPTURE_PATH) {
+      return new Node<T>(CAPTURE_PATH, null, sibling, null, value);
+    }
+    if (key[k] < 0) {
+      return (k + 1 == key.length)
+             ? seg(key[k], constraints[k], sibling, null, value)
+             : seg(key[k], constraints[k], sibling, create(key, constraints, k + 1, null, value),
+                   null);
+    }
+    int end = k + 1;
+    while (end < key.length && key[end] >= 0) {
+      end++;
+    }
+    return (end == key.length)
+           ? match(key, k, end, sibling, null, value)
+           : match(key, k, end, sibling, create(key, constraints, end, null, value), null);
+  }
 
-      return null;
+  /**
+   * Copy the first {@code n} siblings starting at {@code node}, followed by {@code rest}.
+   */
+  private static <T> Node<T> relink(final Node<T> node, final int n, final Node<T> rest) {
+    if (n == 0) {
+      return rest;
     }
+    return new Node<T>(node.head, node.tail, relink(node.sibling, n - 1, rest), node.edge,
+                       node.value, node.constraint);
+  }
 
-    private T capturePath(final CharSequence path, final int index, final Captor captor,
-                          final int capture) {
-      // value != null
+  /**
+   * Create a match node for the prefix {@code bytes} from {@code from} to {@code to}.
+   */
+  private static <T> Node<T> match(final byte[] bytes, final int from, final int to,
+                                   final Node<T> sibling, final Node<T> edge, final T value) {
+    final byte[] tail = (to - from == 1) ? null : Arrays.copyOfRange(bytes, from + 1, to);
+    return new Node<T>(bytes[from], tail, sibling, edge, value);
+  }
+
+  /**
+   * Create a seg capture node, typed or not. It always captures a full segment if it is terminal
+   * or its only edge begins with a slash.
+   */
+  private static <T> Node<T> seg(final byte head, final Constraint constraint,
+                                 final Node<T> sibling, final Node<T> edge, final T value) {
+    final boolean full = (edge == null) || (edge.sibling == null && edge.head == SLASH);
+    return new Node<T>(head, full ? Node.FULL_SEG : null, sibling, edge, value, constraint);
+  }
 
-      int i;
-      char c;
+  /**
+   * A lookup specialized for the structure of a particular trie.
+   */
+  interface Specialized {
+
+    /**
+     * Look up the part of {@code path} that begins at index {@code start}.
+     *
+     * @return The index of the matching node, or -1 if there is no match.
+     */
+    int lookup(CharSequence path, int start, Captor captor);
+  }
 
-      // Find capture bound
-      final int length = path.length();
-      for (i = index; i < length; i++) {
-        c = path.charAt(i);
-        if (c == QUERY) {
-          captor.query(i + 1, length);
-          break;
+  /**
+   * Lays out a tree of {@link Node}s in parallel arrays in breadth first order. The siblings of
+   * each node are laid out contiguously, with the root siblings first.
+   */
+  private static final class Layout {
+
+    private final byte[] heads;
+    private final int[] tails;
+    private final int[] tailLengths;
+    private final int[] edges;
+    private final int[] fanouts;
+    private final Object[] values;
+    private final byte[] pool;
+    private final Constraint[] constraints;
+    private final byte[] kinds;
+    private final int[] spans;
+    private final int[] tables;
+    private final int[] jumps;
+
+    private Layout(final Node<?> root) {
+      // Lay out each sibling block after all nodes with an edge to it, so that edges point forward.
+      // A block shared by several nodes is laid out once. A tree is laid out breadth first.
+      final Map<Node<?>, int[]> references = references(root);
+      final Map<Node<?>, Integer> blocks = new IdentityHashMap<Node<?>, Integer>();
+      final List<Node<?>> nodes = new ArrayList<Node<?>>();
+      int tailBytes = 0;
+      if (root != null) {
+        blocks.put(root, 0);
+        enqueue(nodes, root);
+      }
+      for (int i = 0; i < nodes.size(); i++) {
+        final Node<?> node = nodes.get(i);
+        if (node.tail != null) {
+          tailBytes += node.tail.length;
+        }
+        if (node.edge != null && --references.get(node.edge)[0] == 0) {
+          blocks.put(node.edge, nodes.size());
+          enqueue(nodes, node.edge);
         }
       }
 
-      captor.match(capture + 1);
-      captor.capture(capture, index, i);
-      return value;
-    }
-
-    private T captureSeg(final CharSequence path, final int index, final Captor captor,
-                         final int capture) {
-      int i;
-      char c;
-
-      // Find capture bound
-      final int length = path.length();
-      boolean terminal = true;
-      for (i = index; i < length; i++) {
-        c = path.charAt(i);
-        if (c == SLASH) {
-          terminal = false;
-          break;
+      final int n = nodes.size();
+      heads = new byte[n];
+      tails = new int[n];
+      tailLengths = new int[n];
+      edges = new int[n];
+      fanouts = new int[n];
+      values = new Object[n];
+      pool = new byte[tailBytes];
+      constraints = new Constraint[n];
+      kinds = new byte[n];
+      spans = new int[n];
+      tables = new int[n];
+
+      int offset = 0;
+      for (int i = 0; i < n; i++) {
+        final Node<?> node = nodes.get(i);
+        heads[i] = node.head;
+        values[i] = node.value;
+        constraints[i] = node.constraint;
+        if (node.tail == Node.FULL_SEG) {
+          tails[i] = FULL_SEG;
+        } else if (node.tail != null) {
+          System.arraycopy(node.tail, 0, pool, offset, node.tail.length);
+          tails[i] = offset;
+          tailLengths[i] = node.tail.length;
+          offset += node.tail.length;
         }
-        if (c == QUERY) {
-          captor.query(i + 1, length);
-          break;
+        if (node.edge != null) {
+          edges[i] = blocks.get(node.edge);
+          fanouts[i] = siblings(node.edge);
         }
       }
-      final int limit = i;
 
-      // Terminal?
-      if (value != null) {
-        if (terminal) {
-          captor.match(capture + 1);
-          captor.capture(capture, index, limit);
-          return value;
-        }
+      // Choose the child lookup kind of each sibling block
+      int tableCount = 0;
+      for (final Map.Entry<Node<?>, Integer> block : blocks.entrySet()) {
+        tableCount += block(block.getValue(), siblings(block.getKey()));
+      }
 
-        // Trailing slash in path?
-        if (captor.optionalTrailingSlash) {
-          if (limit + 1 == length) { // c == SLASH
-            captor.match(capture + 1);
-            captor.capture(capture, index, limit);
-            return value;
-          } else if (path.charAt(limit + 1) == QUERY) { // limit + 1 < length
-            captor.match(capture + 1);
-            captor.capture(capture, index, i);
-            captor.query(limit + 2, length);
-            return value;
+      jumps = new int[tableCount * TABLE_SIZE];
+      Arrays.fill(jumps, -1);
+      int table = 0;
+      for (int first = 0; first < n; first++) {
+        if (kinds[first] == TABLE) {
+          for (int node = first; node < first + spans[first]; node++) {
+            jumps[table + heads[node]] = node;
           }
+          tables[first] = table;
+          table += TABLE_SIZE;
         }
       }
+    }
 
-      // Fanout
-      if (edge != null) {
-        T value = fanout(edge, path, i, captor, capture + 1);
-        if (value != null) {
-          captor.capture(capture, index, i);
-          return value;
-        }
+    /**
+     * Choose the child lookup kind of the {@code fanout} siblings starting at index
+     * {@code first}.
+     *
+     * @return 1 if the siblings need a jump table, 0 otherwise.
+     */
+    private int block(final int first, final int fanout) {
+      int span = 0;
+      while (span < fanout && heads[first + span] >= 0) {
+        span++;
+      }
+      spans[first] = span;
+      if (span <= 1) {
+        kinds[first] = SINGLE;
+      } else if (span <= LINEAR_MAX) {
+        kinds[first] = LINEAR;
+      } else if (span <= BINARY_MAX) {
+        kinds[first] = BINARY;
+      } else {
+        kinds[first] = TABLE;
+        return 1;
+      }
+      return 0;
+    }
 
-        // Capturing a partial segment, back-track.
-        if (tail != FULL_SEG) {
-          for (i = limit - 1; i >= index; i--) {
-            value = fanout(edge, path, i, captor, capture + 1);
-            if (value != null) {
-              captor.capture(capture, index, i);
-              return value;
-            }
+    /**
+     * Count the edges to each sibling block reachable from {@code root}.
+     */
+    private static Map<Node<?>, int[]> references(final Node<?> root) {
+      final Map<Node<?>, int[]> references = new IdentityHashMap<Node<?>, int[]>();
+      final List<Node<?>> blocks = new ArrayList<Node<?>>();
+      if (root != null) {
+        blocks.add(root);
+      }
+      for (int i = 0; i < blocks.size(); i++) {
+        for (Node<?> node = blocks.get(i); node != null; node = node.sibling) {
+          if (node.edge == null) {
+            continue;
+          }
+          final int[] count = references.get(node.edge);
+          if (count == null) {
+            references.put(node.edge, new int[]{1});
+            blocks.add(node.edge);
+          } else {
+            count[0]++;
           }
         }
       }
+      return references;
+    }
 
-      return null;
+    private static void enqueue(final List<Node<?>> nodes, Node<?> node) {
+      while (node != null) {
+        nodes.add(node);
+        node = node.sibling;
+      }
+    }
+  }
+
+  static final class Node<T> {
+
+    private static final byte[] FULL_SEG = new byte[0];
+
+    private final byte head;
+    private final byte[] tail;
+    private final Node<T> sibling;
+    private final Node<T> edge;
+    private final T value;
+    private final Constraint constraint;
+
+    // Lazily computed, see #hashCode
+    private int hash;
+
+    private Node(final byte head, final byte[] tail, final Node<T> sibling, final Node<T> edge,
+                 final T value) {
+      this(head, tail, sibling, edge, value, null);
+    }
+
+    private Node(final byte head, final byte[] tail, final Node<T> sibling, final Node<T> edge,
+                 final T value, final Constraint constraint) {
+      this.head = head;
+      this.tail = tail;
+      this.sibling = sibling;
+      this.edge = edge;
+      this.value = value;
+      this.constraint = constraint;
+
+      // Verify that regex captures have a constraint
+      if ((head == CAPTURE_REGEX) != (constraint != null)) {
+        throw new IllegalArgumentException("regex capture without constraint");
+      }
+
+      // Verify that siblings are ordered
+      final int order = (sibling == null)
+                        ? -1
+                        : order(head, constraint, sibling.head, sibling.constraint);
+      if (order > 0) {
+        throw new IllegalArgumentException("unordered sibling");
+      }
+
+      // Verify that sibling heads are unique
+      if (order == 0) {
+        throw new IllegalArgumentException("duplicate sibling head");
+      }
+
+      // Verify that the seg capture is last or followed by path capture
+      if (head == CAPTURE_SEG && sibling != null && sibling.head != CAPTURE_PATH) {
+        throw new IllegalArgumentException("seg capture must be last or followed by path capture");
+      }
+
+      // Verify that the path capture is last
+      if (head == CAPTURE_PATH && sibling != null) {
+        throw new IllegalArgumentException("path capture must be last sibling");
+      }
+
+      // Verify that terminal nodes have values
+      if (value == null && edge == null) {
+        throw new IllegalArgumentException("terminal node without value");
+      }
+    }
+
+    private int captures() {
+      final int captures = (head < 0) ? 1 : 0;
+      final int edgeCaptures = (edge == null) ? 0 : edge.captures();
+      final int siblingCaptures = (sibling == null) ? 0 : sibling.captures();
+      return captures + max(edgeCaptures, siblingCaptures);
     }
 
     private String prefix() {
       if (head == CAPTURE_SEG) {
         return "<*>";
+      } else if (head == CAPTURE_REGEX) {
+        return "<*:" + constraint + ">";
+      } else if (head < 0) {
+        return "<*:" + captureType(head).name().toLowerCase(Locale.ROOT) + ">";
       } else {
         if (tail == null) {
           return String.valueOf((char) head);
@@ -383,6 +1438,44 @@ final class RadixTrie<T> {
       }
     }
 
+    /**
+     * Nodes are equal if they have equal prefixes, values and constraints, and identical siblings
+     * and edges. Equal nodes are interchangeable when their siblings and edges are interned, see
+     * {@link NodePool}.
+     */
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Node)) {
+        return false;
+      }
+      final Node<?> node = (Node<?>) o;
+      return head == node.head &&
+             sibling == node.sibling &&
+             edge == node.edge &&
+             (tail == FULL_SEG) == (node.tail == FULL_SEG) &&
+             Arrays.equals(tail, node.tail) &&
+             (value == null ? node.value == null : value.equals(node.value)) &&
+             (constraint == null ? node.constraint == null : constraint.equals(node.constraint));
+    }
+
+    @Override
+    public int hashCode() {
+      int h = hash;
+      if (h == 0) {
+        h = head;
+        h = 31 * h + System.identityHashCode(sibling);
+        h = 31 * h + System.identityHashCode(edge);
+        h = 31 * h + Arrays.hashCode(tail);
+        h = 31 * h + (value == null ? 0 : value.hashCode());
+        h = 31 * h + (constraint == null ? 0 : constraint.hashCode());
+        hash = h;
+      }
+      return h;
+    }
+
     @Override
     public String toString() {
       return "Node{'" + prefix() + "\': " +
@@ -403,10 +1496,25 @@ final class RadixTrie<T> {
       return new Node<T>(CAPTURE_SEG, null, sibling, edge, value);
     }
 
+    static <T> Node<T> captureTyped(final byte head, final boolean full, final Node<T> sibling,
+                                    final Node<T> edge, final T value) {
+      return new Node<T>(head, full ? FULL_SEG : null, sibling, edge, value);
+    }
+
+    static <T> Node<T> captureRegex(final Constraint constraint, final boolean full,
+                                    final Node<T> sibling, final Node<T> edge, final T value) {
+      return new Node<T>(CAPTURE_REGEX, full ? FULL_SEG : null, sibling, edge, value, constraint);
+    }
+
     static <T> Node<T> capturePath(final Node<T> sibling, final T value) {
       return new Node<T>(CAPTURE_PATH, null, sibling, null, value);
     }
 
+    static <T> Node<T> match(final byte head, final byte[] tail, final Node<T> sibling,
+                             final Node<T> edge, final T value) {
+      return new Node<T>(head, tail, sibling, edge, value);
+    }
+
     static <T> Node<T> match(final CharSequence prefix, final Node<T> sibling,
                              final Node<T> edge, final T value) {
       final byte head = (byte) prefix.charAt(0);
@@ -453,7 +1561,28 @@ final class RadixTrie<T> {
     }
 
     RadixTrie<T> build() {
-      return trie.compress();
+      return build(new NodePool());
+    }
+
+    /**
+     * Build the trie, sharing identical subtrees with the nodes in {@code nodes}.
+     */
+    RadixTrie<T> build(final NodePool nodes) {
+      return trie.compress(nodes);
+    }
+
+    /**
+     * Build the trie, compressing large subtrees in parallel.
+     */
+    RadixTrie<T> buildParallel() {
+      return buildParallel(new NodePool());
+    }
+
+    /**
+     * Build the trie in parallel, sharing identical subtrees with the nodes in {@code nodes}.
+     */
+    RadixTrie<T> buildParallel(final NodePool nodes) {
+      return trie.compressParallel(nodes);
     }
 
     @Override
@@ -474,7 +1603,20 @@ final class RadixTrie<T> {
     private int queryStart;
     private int queryEnd;
 
-    private boolean optionalTrailingSlash;
+    // Lookup engine stack. Grows on demand and is then reused by later lookups.
+    private int[] stack = new int[FRAME * 16];
+    private int top;
+
+    // Position of a lookup descending in lockstep with others
+    private int resumeFirst;
+    private int resumeFanout;
+    private int resumeIndex;
+    private boolean descending;
+
+    boolean optionalTrailingSlash;
+
+    // Pre-scan of the routed path, if enabled
+    private PathScan scan;
 
     Captor(final int captures) {
       this.start = new int[captures];
@@ -485,19 +1627,97 @@ final class RadixTrie<T> {
       this.optionalTrailingSlash = optionalTrailingSlash;
     }
 
-    private void reset() {
+    /**
+     * Use a pre-scan of the routed paths, or null to scan while matching.
+     */
+    void scan(final PathScan scan) {
+      this.scan = scan;
+    }
+
+    /**
+     * Find the first {@code /} or {@code ?} in {@code path} from {@code index} to {@code
+     * length}, from the pre-scan of the path if there is one.
+     *
+     * @return The position, or -1 if there is none.
+     */
+    int indexOfBound(final CharSequence path, final int index, final int length) {
+      if (scan != null && scan.covers(path)) {
+        return scan.bound(index, length);
+      }
+      return CharSequences.indexOf(path, (char) SLASH, (char) QUERY, index, length);
+    }
+
+    /**
+     * Find the first {@code ?} in {@code path} from {@code index} to {@code length}, from the
+     * pre-scan of the path if there is one.
+     *
+     * @return The position, or -1 if there is none.
+     */
+    int indexOfQuery(final CharSequence path, final int index, final int length) {
+      if (scan != null && scan.covers(path)) {
+        return scan.query(index, length);
+      }
+      return CharSequences.indexOf(path, (char) QUERY, (char) QUERY, index, length);
+    }
+
+    /**
+     * Check if {@code path} has a {@code %} from {@code start} to {@code end}, from the pre-scan
+     * of the path if there is one.
+     */
+    boolean encoded(final CharSequence path, final int start, final int end) {
+      if (scan != null && scan.covers(path)) {
+        return scan.encoded(start, end);
+      }
+      return CharSequences.indexOf(path, '%', start, end) != -1;
+    }
+
+    /**
+     * Get the number of captures this captor can hold.
+     */
+    int capacity() {
+      return start.length;
+    }
+
+    void reset() {
       match = false;
       captured = 0;
       queryStart = -1;
       queryEnd = -1;
+      top = 0;
+      descending = false;
+    }
+
+    /**
+     * Record a match with the capture bounds of a previous match, offset by {@code offset}.
+     */
+    void restore(final int[] bounds, final int offset) {
+      reset();
+      match = true;
+      captured = bounds.length / 2;
+      for (int i = 0; i < captured; i++) {
+        start[i] = offset + bounds[i * 2];
+        end[i] = offset + bounds[i * 2 + 1];
+      }
+    }
+
+    private void push(final int kind, final int a, final int b, final int c, final int d) {
+      if (top + FRAME > stack.length) {
+        stack = Arrays.copyOf(stack, stack.length * 2);
+      }
+      stack[top] = kind;
+      stack[top + 1] = a;
+      stack[top + 2] = b;
+      stack[top + 3] = c;
+      stack[top + 4] = d;
+      top += FRAME;
     }
 
-    private void capture(final int i, final int start, final int end) {
+    void capture(final int i, final int start, final int end) {
       this.start[i] = start;
       this.end[i] = end;
     }
 
-    private void match(final int captured) {
+    void match(final int captured) {
       match = true;
       this.captured = captured;
     }
@@ -540,7 +1760,7 @@ final class RadixTrie<T> {
       return haystack.subSequence(start[i], end[i]);
     }
 
-    private void query(final int start, final int end) {
+    void query(final int start, final int end) {
       this.queryStart = start;
       this.queryEnd = end;
     }
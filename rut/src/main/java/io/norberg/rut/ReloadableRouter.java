@@ -0,0 +1,198 @@
+package io.norberg.rut;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A router whose routes can be replaced while it is routing requests. Requests are routed by the
+ * current {@link Router}, which is held in an atomic reference. Routing never blocks, also not
+ * while routes are being reloaded: a request is routed either by the old or by the new router.
+ *
+ * <p>{@link Router.Result}s are grown as needed when routing, so a {@link Router.Result} created
+ * before a reload can be reused after it, even if the new routes capture more parameters.
+ *
+ * <p>Method ids are specific to a {@link Router} and are not stable across reloads, so requests
+ * are routed by method name.
+ *
+ * @param <T> The target endpoint type.
+ */
+public final class ReloadableRouter<T> {
+
+  private final AtomicReference<Router<T>> router;
+  private final Object reloadLock = new Object();
+
+  private final ThreadLocal<Router.Result<T>> results = new ThreadLocal<Router.Result<T>>() {
+    @Override
+    protected Router.Result<T> initialValue() {
+      return router.get().result();
+    }
+  };
+
+  private final AtomicLong reloads = new AtomicLong();
+  private volatile long lastBuildNanos;
+
+  /**
+   * Create a reloadable router that initially routes requests with {@code router}.
+   */
+  public ReloadableRouter(final Router<T> router) {
+    if (router == null) {
+      throw new NullPointerException("router");
+    }
+    this.router = new AtomicReference<Router<T>>(router);
+  }
+
+  /**
+   * Get the current {@link Router}.
+   */
+  public Router<T> router() {
+    return router.get();
+  }
+
+  /**
+   * Route a request with the current {@link Router}.
+   *
+   * @see Router#route(CharSequence, CharSequence, Router.Result)
+   */
+  public Router.Status route(final CharSequence method, final CharSequence path,
+                             final Router.Result<T> result) {
+    return router.get().route(method, path, result);
+  }
+
+  /**
+   * Route a request with a well-known method with the current {@link Router}.
+   *
+   * @see Router#route(HttpMethod, CharSequence, Router.Result)
+   */
+  public Router.Status route(final HttpMethod method, final CharSequence path,
+                             final Router.Result<T> result) {
+    return router.get().route(method, path, result);
+  }
+
+  /**
+   * Route a request by host and path with the current {@link Router}.
+   *
+   * @see Router#route(CharSequence, CharSequence, CharSequence, Router.Result)
+   */
+  public Router.Status route(final CharSequence host, final CharSequence method,
+                             final CharSequence path, final Router.Result<T> result) {
+    return router.get().route(host, method, path, result);
+  }
+
+  /**
+   * Route a request given as ASCII bytes with the current {@link Router}.
+   *
+   * @see Router#route(byte[], int, int, byte[], int, int, Router.Result)
+   */
+  public Router.Status route(final byte[] method, final int methodOffset, final int methodLength,
+                             final byte[] path, final int pathOffset, final int pathLength,
+                             final Router.Result<T> result) {
+    return router.get().route(method, methodOffset, methodLength,
+                              path, pathOffset, pathLength, result);
+  }
+
+  /**
+   * Route a request given as ASCII bytes in {@link ByteBuffer}s with the current {@link Router}.
+   *
+   * @see Router#route(ByteBuffer, ByteBuffer, Router.Result)
+   */
+  public Router.Status route(final ByteBuffer method, final ByteBuffer path,
+                             final Router.Result<T> result) {
+    return router.get().route(method, path, result);
+  }
+
+  /**
+   * Route a request with the current {@link Router} into a {@link Router.Result} owned by the
+   * calling thread. The {@link Router.Result} is reused by the next call from the same thread, so
+   * it must not be retained or handed to other threads.
+   *
+   * @return The routing result of the calling thread.
+   * @see Router#route(CharSequence, CharSequence, Router.Result)
+   */
+  public Router.Result<T> route(final CharSequence method, final CharSequence path) {
+    final Router.Result<T> result = results.get();
+    router.get().route(method, path, result);
+    return result;
+  }
+
+  /**
+   * Create a {@link Router.Result} for the current {@link Router}.
+   *
+   * @see Router#result()
+   */
+  public Router.Result<T> result() {
+    return router.get().result();
+  }
+
+  /**
+   * Build a new {@link Router} on the calling thread and start routing requests with it. Requests
+   * keep being routed by the current router while the new router is built. Reloads are
+   * serialized.
+   *
+   * @param builder A builder with the new routes.
+   * @return The new router.
+   */
+  public Router<T> reload(final Router.Builder<T> builder) {
+    synchronized (reloadLock) {
+      final long start = System.nanoTime();
+      final Router<T> next = builder.build();
+      lastBuildNanos = System.nanoTime() - start;
+      swap(next);
+      return next;
+    }
+  }
+
+  /**
+   * Build a new {@link Router} on {@code executor} and start routing requests with it once it has
+   * been built.
+   *
+   * @param builder  A builder with the new routes. It must not be modified until the reload is
+   *                 done.
+   * @param executor The executor to build the new router on.
+   * @return A future that completes with the new router.
+   * @see #reload(Router.Builder)
+   */
+  public Future<Router<T>> reload(final Router.Builder<T> builder, final Executor executor) {
+    final FutureTask<Router<T>> task = new FutureTask<Router<T>>(new Callable<Router<T>>() {
+      @Override
+      public Router<T> call() {
+        return reload(builder);
+      }
+    });
+    executor.execute(task);
+    return task;
+  }
+
+  /**
+   * Start routing requests with an already built {@link Router}.
+   *
+   * @return The previous router.
+   */
+  public Router<T> swap(final Router<T> next) {
+    if (next == null) {
+      throw new NullPointerException("router");
+    }
+    final Router<T> previous = router.getAndSet(next);
+    reloads.incrementAndGet();
+    return previous;
+  }
+
+  /**
+   * Get the number of times the router has been replaced.
+   */
+  public long reloads() {
+    return reloads.get();
+  }
+
+  /**
+   * Get the time in nanoseconds it took to build the router of the last {@link
+   * #reload(Router.Builder)}.
+   */
+  public long lastBuildNanos() {
+    return lastBuildNanos;
+  }
+}
@@ -1,15 +1,34 @@
 package io.norberg.rut;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.OptionalInt;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
-import static io.norberg.rut.Encoding.decode;
 import static io.norberg.rut.Router.Status.METHOD_NOT_ALLOWED;
 import static io.norberg.rut.Router.Status.NOT_FOUND;
 import static io.norberg.rut.Router.Status.SUCCESS;
+import static java.lang.Math.max;
 
 /**
  * A router for routing REST request paths to endpoints.
@@ -19,11 +38,23 @@ import static io.norberg.rut.Router.Status.SUCCESS;
 public final class Router<T> {
 
   private final RadixTrie<RouteTarget<T>> trie;
+  private final Methods methods;
   private final boolean optionalTrailingSlash;
+  private final ExactTable<RouteTarget<T>> exact;
+  private final PathCache<RouteTarget<T>> cache;
 
-  private Router(final RadixTrie<RouteTarget<T>> trie, final boolean optionalTrailingSlash) {
+  // The routes of each host, or null if all routes are for any host
+  private final HostTable<Router<T>> hosts;
+
+  private Router(final RadixTrie<RouteTarget<T>> trie, final ExactTable<RouteTarget<T>> exact,
+                 final Methods methods, final boolean optionalTrailingSlash,
+                 final PathCache<RouteTarget<T>> cache, final HostTable<Router<T>> hosts) {
     this.trie = trie;
+    this.exact = exact;
+    this.methods = methods;
     this.optionalTrailingSlash = optionalTrailingSlash;
+    this.cache = cache;
+    this.hosts = hosts;
   }
 
   public static <T> Builder<T> builder() {
@@ -41,15 +72,253 @@ public final class Router<T> {
    * @param method The request method. E.g. {@code GET, PUT, POST, DELETE}, etc.
    * @param path   The request path. E.g. {@code /foo/baz/bar}.
    * @param result A {@link Result} for storing the routing result, target and captured parameters.
-   *               The {@link Result} should have enough capacity to store all captured parameters.
-   *               See {@link #result()}.
+   *               A {@link Result} without enough capacity to store all captured parameters of
+   *               this router is grown. See {@link #result()}.
    * @return Routing status. {@link Status#SUCCESS} if an endpoint and matching method was found.
    * {@link Status#NOT_FOUND} if the endpoint could not be found, {@link Status#METHOD_NOT_ALLOWED}
    * if the endpoint was found but the method did not match.
    */
   public Status route(final CharSequence method, final CharSequence path, final Result<T> result) {
+    return route(methods.id(method), path, 0, result);
+  }
+
+  /**
+   * Route a request with a well-known method.
+   *
+   * @see #route(CharSequence, CharSequence, Result)
+   */
+  public Status route(final HttpMethod method, final CharSequence path, final Result<T> result) {
+    return route(method.id(), path, 0, result);
+  }
+
+  /**
+   * Route a request with an already resolved method id, skipping method name comparison.
+   *
+   * @param methodId The request method id. See {@link #methodId(CharSequence)} and {@link
+   *                 HttpMethod#id()}.
+   * @see #route(CharSequence, CharSequence, Result)
+   */
+  public Status route(final int methodId, final CharSequence path, final Result<T> result) {
+    return route(methodId, path, 0, result);
+  }
+
+  /**
+   * Route a request by host and path. The host is matched against the hosts of the routes
+   * registered with {@link Builder#route(String, String, String, Object)}, ignoring case and any
+   * port, and the request is then routed by the routes of the best matching host alone. A request
+   * for a host that matches no host is routed by the routes registered without a host. No strings
+   * are allocated to match the host.
+   *
+   * @param host The request host, e.g. the value of the {@code Host} header: {@code
+   *             www.example.com:8080}.
+   * @see #route(CharSequence, CharSequence, Result)
+   * @see Result#host()
+   */
+  public Status route(final CharSequence host, final CharSequence method, final CharSequence path,
+                      final Result<T> result) {
+    return route(host, methods.id(method), path, result);
+  }
+
+  /**
+   * Route a request with a well-known method by host and path.
+   *
+   * @see #route(CharSequence, CharSequence, CharSequence, Result)
+   */
+  public Status route(final CharSequence host, final HttpMethod method, final CharSequence path,
+                      final Result<T> result) {
+    return route(host, method.id(), path, result);
+  }
+
+  private Status route(final CharSequence host, final int method, final CharSequence path,
+                       final Result<T> result) {
+    if (hosts != null) {
+      final int end = HostTable.end(host);
+      final HostTable.Entry<Router<T>> entry = hosts.lookup(host, end);
+      if (entry != null) {
+        final Status status = entry.value().route(method, path, 0, result);
+        result.host(host, entry.host(), entry.wildcardEnd(end));
+        return status;
+      }
+    }
+    return route(method, path, 0, result);
+  }
+
+  /**
+   * Get the method id of a request method. The id can be used with {@link #route(int,
+   * CharSequence, Result)} to route requests without comparing method names.
+   *
+   * @return The method id, or {@code -1} if no route accepts the method. Routing an unknown method
+   * id results in {@link Status#NOT_FOUND} or {@link Status#METHOD_NOT_ALLOWED}.
+   */
+  public int methodId(final CharSequence method) {
+    return methods.id(method);
+  }
+
+  /**
+   * Route a request given as ASCII bytes, e.g. straight out of a read buffer. The bytes are
+   * matched in place, without being decoded or copied.
+   *
+   * @param method       The request method bytes.
+   * @param methodOffset The offset of the request method in {@code method}.
+   * @param methodLength The length of the request method.
+   * @param path         The request path bytes.
+   * @param pathOffset   The offset of the request path in {@code path}.
+   * @param pathLength   The length of the request path.
+   * @param result       A {@link Result} for storing the routing result. Captured parameter and
+   *                     query offsets are indices into the {@code path} array.
+   * @return Routing status.
+   * @see #route(CharSequence, CharSequence, Result)
+   */
+  public Status route(final byte[] method, final int methodOffset, final int methodLength,
+                      final byte[] path, final int pathOffset, final int pathLength,
+                      final Result<T> result) {
+    if (pathOffset < 0 || pathLength < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    return route(methods.id(result.methodBytes.wrap(method, methodOffset, methodLength)),
+                 result.pathBytes.wrap(path, 0, pathOffset + pathLength), pathOffset, result);
+  }
+
+  /**
+   * Route a request given as ASCII bytes in heap or direct {@link ByteBuffer}s. The request
+   * method and path are read from the position to the limit of each buffer. The bytes are matched
+   * in place, without being decoded or copied, and the buffer positions and limits are not
+   * modified.
+   *
+   * @param method The request method bytes.
+   * @param path   The request path bytes.
+   * @param result A {@link Result} for storing the routing result. Captured parameter and query
+   *               offsets are absolute indices into the {@code path} buffer.
+   * @return Routing status.
+   * @see #route(CharSequence, CharSequence, Result)
+   */
+  public Status route(final ByteBuffer method, final ByteBuffer path, final Result<T> result) {
+    return route(methods.id(result.methodBytes.wrap(method, method.position(), method.remaining())),
+                 result.pathBytes.wrap(path, 0, path.limit()), path.position(), result);
+  }
+
+  /**
+   * Route a batch of requests. The lookups of the requests descend through the routing trie in
+   * lockstep, a level at a time, so that the memory accesses of independent lookups overlap
+   * instead of being serialized.
+   *
+   * @param methods The request methods.
+   * @param paths   The request paths.
+   * @param results {@link Result}s for storing the routing results, one per request. The routing
+   *                status of each request is available from {@link Result#status()}.
+   * @param count   The number of requests to route, from the start of the arrays.
+   * @see #route(CharSequence, CharSequence, Result)
+   */
+  public void routeBatch(final CharSequence[] methods, final CharSequence[] paths,
+                         final Result<T>[] results, final int count) {
+    if (count < 0 || count > methods.length || count > paths.length || count > results.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    for (int i = 0; i < count; i++) {
+      final Result<T> result = results[i];
+      result.capacity(trie.captures());
+      result.host(null, null, -1);
+      result.scan(paths[i], 0);
+      result.captor.optionalTrailingSlash(optionalTrailingSlash);
+      result.resolved = resolve(paths[i], 0, result);
+      if (result.resolved == null) {
+        trie.begin(paths[i], 0, result.captor);
+      }
+    }
+    boolean descending = true;
+    while (descending) {
+      descending = false;
+      for (int i = 0; i < count; i++) {
+        if (trie.descend(paths[i], results[i].captor)) {
+          descending = true;
+        }
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      final Result<T> result = results[i];
+      final RouteTarget<T> route;
+      if (result.resolved == null) {
+        route = trie.resume(paths[i], result.captor);
+        if (cache != null && route != null) {
+          cache.put(paths[i], 0, route, result.captor);
+        }
+      } else {
+        route = result.resolved;
+        result.resolved = null;
+      }
+      complete(this.methods.id(methods[i]), paths[i], route, result);
+    }
+  }
+
+  private Status route(final int method, final CharSequence path, final int start,
+                       final Result<T> result) {
+    result.capacity(trie.captures());
+    result.host(null, null, -1);
+    result.scan(path, start);
+    final RouteTarget<T> resolved = resolve(path, start, result);
+    if (resolved != null) {
+      return complete(method, path, resolved, result);
+    }
     result.captor.optionalTrailingSlash(optionalTrailingSlash);
-    final RouteTarget<T> route = trie.lookup(path, result.captor);
+    final RouteTarget<T> route = trie.lookup(path, start, result.captor);
+    if (cache != null && route != null) {
+      cache.put(path, start, route, result.captor);
+    }
+    return complete(method, path, route, result);
+  }
+
+  /**
+   * Get the number of requests that were routed from the cache. See {@link Builder#cache(int)}.
+   */
+  public long cacheHits() {
+    long hits = (cache == null) ? 0 : cache.hits();
+    if (hosts != null) {
+      for (final HostTable.Entry<Router<T>> host : hosts.entries()) {
+        hits += host.value().cacheHits();
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * Get the number of requests that were not found in the cache and were routed through the
+   * routing trie. See {@link Builder#cache(int)}.
+   */
+  public long cacheMisses() {
+    long misses = (cache == null) ? 0 : cache.misses();
+    if (hosts != null) {
+      for (final HostTable.Entry<Router<T>> host : hosts.entries()) {
+        misses += host.value().cacheMisses();
+      }
+    }
+    return misses;
+  }
+
+  /**
+   * Resolve a path from the exact route table or the cache, without walking the trie.
+   *
+   * @return The route, or null if the trie must be walked.
+   */
+  private RouteTarget<T> resolve(final CharSequence path, final int start,
+                                 final Result<T> result) {
+    if (exact != null) {
+      final RouteTarget<T> route = exact.lookup(path, start, result.captor);
+      if (route != null) {
+        return route;
+      }
+    }
+    if (cache != null) {
+      final PathCache.Entry<RouteTarget<T>> entry = cache.get(path, start);
+      if (entry != null) {
+        entry.restore(result.captor, path, start);
+        return entry.value();
+      }
+    }
+    return null;
+  }
+
+  private Status complete(final int method, final CharSequence path, final RouteTarget<T> route,
+                          final Result<T> result) {
     if (route == null) {
       return result.notFound().status();
     }
@@ -58,7 +327,6 @@ public final class Router<T> {
       return result.notAllowed(route).status();
     }
     return result.success(path, route, target).status();
-
   }
 
   /**
@@ -68,7 +336,240 @@ public final class Router<T> {
    * created per thread.
    */
   public Result<T> result() {
-    return Result.capturing(trie.captures());
+    return Result.capturing(captures());
+  }
+
+  /**
+   * Get the largest number of captured parameters of any route of this router.
+   */
+  private int captures() {
+    int captures = trie.captures();
+    if (hosts != null) {
+      for (final HostTable.Entry<Router<T>> host : hosts.entries()) {
+        captures = max(captures, host.value().captures());
+      }
+    }
+    return captures;
+  }
+
+  /**
+   * Get a router with a route added, in time in proportion to the number of routes. This router
+   * is not modified. The compiled trie of the new router is laid out again from all of its nodes,
+   * and the exact match table is copied if the route has no captures. No routes are parsed or
+   * inserted again, as the new router shares the trie nodes that are not on the way to the added
+   * route with this router. Prefer a {@link Builder} to add many routes at once.
+   *
+   * <p>The new router is not specialized, see {@link Builder#specialize(boolean)}, as generating
+   * a class for every update would dominate its cost. Routing behaves identically either way.
+   *
+   * <p>The route cache of the new router, if any, starts out empty. The routes of hosts, see
+   * {@link Builder#route(String, String, String, Object)}, are not modified.
+   *
+   * @see Builder#route(String, String, Object)
+   */
+  public Router<T> withRoute(final String method, final String path, final T target) {
+    return withRoute(Route.of(method, path), target);
+  }
+
+  /**
+   * Get a router with a route added.
+   *
+   * @see #withRoute(String, String, Object)
+   */
+  public Router<T> withRoute(final Route route, final T target) {
+    Methods methods = this.methods;
+    int method = methods.id(route.method());
+    if (method == Methods.UNKNOWN) {
+      methods = methods.snapshot();
+      method = methods.intern(route.method());
+    }
+    return with(route, new RouteVisitor<T>(route, method, target), methods);
+  }
+
+  /**
+   * Get a router with a route removed. This router is not modified. Capture names are
+   * disregarded, e.g. removing {@code GET /foo/<bar>} removes {@code GET /foo/<baz>}.
+   *
+   * @return The new router, or this router if it has no such route.
+   * @see #withRoute(String, String, Object)
+   */
+  public Router<T> withoutRoute(final String method, final String path) {
+    return withoutRoute(Route.of(method, path));
+  }
+
+  /**
+   * Get a router with a route removed.
+   *
+   * @see #withoutRoute(String, String)
+   */
+  public Router<T> withoutRoute(final Route route) {
+    final int method = methods.id(route.method());
+    if (method == Methods.UNKNOWN) {
+      return this;
+    }
+    return with(route, new Trie.Visitor<RouteTarget<T>>() {
+      @Override
+      public RouteTarget<T> finish(final RouteTarget<T> currentValue) {
+        return (currentValue == null) ? null : currentValue.without(method);
+      }
+    }, methods);
+  }
+
+  private Router<T> with(final Route route, final Trie.Visitor<RouteTarget<T>> visitor,
+                         final Methods methods) {
+    final RadixTrie<RouteTarget<T>> trie = this.trie.with(route.path(), visitor);
+    if (trie == this.trie) {
+      return this;
+    }
+
+    // Only the exact table entry of the changed path can change, see Builder#build
+    ExactTable<RouteTarget<T>> exact = this.exact;
+    if (route.captureNames().isEmpty()) {
+      final String path = route.pathString();
+      final RadixTrie.Captor captor = trie.captor();
+      captor.optionalTrailingSlash(optionalTrailingSlash);
+      final RouteTarget<T> target = trie.lookup(path, captor);
+      final boolean exactMatch =
+          target != null && captor.values() == 0 && captor.queryStart() == -1;
+      exact = ExactTable.with(exact, path, exactMatch ? target : null);
+    }
+
+    final PathCache<RouteTarget<T>> cache = (this.cache == null)
+                                            ? null
+                                            : new PathCache<RouteTarget<T>>(this.cache.capacity());
+    return new Router<T>(trie, exact, methods, optionalTrailingSlash, cache, hosts);
+  }
+
+  /**
+   * Write a binary snapshot of this router, e.g. to a file. A router can be read back from the
+   * snapshot with {@link #readSnapshot} or {@link #loadSnapshot} without parsing any routes.
+   * The snapshot format is versioned.
+   *
+   * <p>Targets are not serialized. Each target is written as its index in {@code targets}, and
+   * the same targets must be passed when reading the snapshot. Targets are compared by identity,
+   * so targets that are equal but distinct are read back as distinct targets.
+   *
+   * @param out     The stream to write the snapshot to.
+   * @param targets The targets of all routes of this router.
+   * @throws IllegalArgumentException if a route target is not in {@code targets}.
+   */
+  public void writeSnapshot(final OutputStream out, final T[] targets) throws IOException {
+    final IdentityHashMap<T, Integer> targetIndices = new IdentityHashMap<T, Integer>();
+    for (int i = targets.length - 1; i >= 0; i--) {
+      targetIndices.put(targets[i], i);
+    }
+    final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    Snapshot.writeHeader(data);
+    methods.write(data);
+    write(data, targetIndices);
+    data.flush();
+  }
+
+  /**
+   * Write the routes of this router, and of its hosts, to a snapshot. The methods are shared by
+   * all hosts and written once.
+   */
+  private void write(final DataOutput data, final IdentityHashMap<T, Integer> targetIndices)
+      throws IOException {
+    final List<RouteTarget<T>> routes = new ArrayList<RouteTarget<T>>();
+    final IdentityHashMap<RouteTarget<T>, Integer> routeIndices =
+        new IdentityHashMap<RouteTarget<T>, Integer>();
+    for (final Object value : trie.values) {
+      if (value != null) {
+        @SuppressWarnings("unchecked") final RouteTarget<T> route = (RouteTarget<T>) value;
+        routeIndices.put(route, routes.size());
+        routes.add(route);
+      }
+    }
+
+    data.writeBoolean(optionalTrailingSlash);
+    data.writeBoolean(trie.isSpecialized());
+    data.writeInt((cache == null) ? 0 : cache.capacity());
+    data.writeInt(routes.size());
+    for (final RouteTarget<T> route : routes) {
+      route.write(data, targetIndices);
+    }
+    trie.write(data, routeIndices);
+    ExactTable.write(exact, data, routeIndices);
+    if (hosts == null) {
+      data.writeInt(0);
+    } else {
+      data.writeInt(hosts.entries().size());
+      for (final HostTable.Entry<Router<T>> host : hosts.entries()) {
+        Snapshot.writeString(data, host.host());
+        host.value().write(data, targetIndices);
+      }
+    }
+  }
+
+  /**
+   * Read a router from a snapshot written by {@link #writeSnapshot}. The snapshot is read from
+   * the position to the limit of the buffer, and the buffer position is not modified.
+   *
+   * @param snapshot The snapshot.
+   * @param targets  The targets that were passed when writing the snapshot.
+   * @throws IllegalArgumentException if the snapshot is corrupt or of an unsupported version.
+   */
+  public static <T> Router<T> readSnapshot(final ByteBuffer snapshot, final T[] targets) {
+    final ByteBuffer in = snapshot.duplicate().order(ByteOrder.BIG_ENDIAN);
+    try {
+      Snapshot.readHeader(in);
+      return read(in, Methods.read(in), targets);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated snapshot", e);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Corrupt snapshot", e);
+    }
+  }
+
+  /**
+   * Read the routes of a router, and of its hosts, from a snapshot.
+   */
+  private static <T> Router<T> read(final ByteBuffer in, final Methods methods,
+                                    final T[] targets) {
+    final boolean optionalTrailingSlash = in.get() != 0;
+    final boolean specialize = in.get() != 0;
+    final int cacheCapacity = in.getInt();
+    final int count = Snapshot.length(in, 4);
+    final List<RouteTarget<T>> routes = new ArrayList<RouteTarget<T>>(count);
+    for (int i = 0; i < count; i++) {
+      routes.add(RouteTarget.read(in, methods, targets));
+    }
+    final RadixTrie<RouteTarget<T>> trie = RadixTrie.read(in, routes);
+    final ExactTable<RouteTarget<T>> exact = ExactTable.read(in, routes);
+    final PathCache<RouteTarget<T>> cache = (cacheCapacity == 0)
+                                            ? null
+                                            : new PathCache<RouteTarget<T>>(cacheCapacity);
+    HostTable<Router<T>> hosts = null;
+    final int hostCount = Snapshot.length(in, 4);
+    if (hostCount > 0) {
+      final List<String> names = new ArrayList<String>(hostCount);
+      final List<Router<T>> routers = new ArrayList<Router<T>>(hostCount);
+      for (int i = 0; i < hostCount; i++) {
+        names.add(HostTable.normalize(Snapshot.readString(in)));
+        routers.add(Router.<T>read(in, methods, targets));
+      }
+      hosts = new HostTable<Router<T>>(names, routers);
+    }
+    return new Router<T>(specialize ? trie.specialize() : trie, exact, methods,
+                         optionalTrailingSlash, cache, hosts);
+  }
+
+  /**
+   * Load a router from a snapshot file written by {@link #writeSnapshot}. The file is memory
+   * mapped and read without copying it into an intermediate buffer.
+   *
+   * @see #readSnapshot(ByteBuffer, Object[])
+   */
+  public static <T> Router<T> loadSnapshot(final File file, final T[] targets)
+      throws IOException {
+    final RandomAccessFile f = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = f.getChannel();
+      return readSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), targets);
+    } finally {
+      f.close();
+    }
   }
 
   /**
@@ -96,14 +597,43 @@ public final class Router<T> {
    */
   private static class Target<T> {
 
+    private final String method;
     private final T target;
     private final String[] paramNames;
     private final ParameterType[] paramTypes;
 
-    private Target(final T target, final String[] paramNames, ParameterType[] paramTypes) {
+    private final ParamKey.Indices paramIndices;
+
+    private Target(final String method, final T target, final String[] paramNames,
+                   final ParameterType[] paramTypes) {
+      this.method = method;
       this.target = target;
       this.paramNames = paramNames;
       this.paramTypes = paramTypes;
+      this.paramIndices = ParamKey.Indices.of(paramNames);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Target)) {
+        return false;
+      }
+      final Target<?> other = (Target<?>) o;
+      return method.equals(other.method) &&
+             target == other.target &&
+             Arrays.equals(paramNames, other.paramNames) &&
+             Arrays.equals(paramTypes, other.paramTypes);
+    }
+
+    @Override
+    public int hashCode() {
+      int h = method.hashCode();
+      h = 31 * h + System.identityHashCode(target);
+      h = 31 * h + Arrays.hashCode(paramNames);
+      return 31 * h + Arrays.hashCode(paramTypes);
     }
   }
 
@@ -113,18 +643,78 @@ public final class Router<T> {
   public static class Builder<T> {
 
     private boolean optionalTrailingSlash;
+    private boolean specialize;
+    private boolean parallel;
+    private int cacheCapacity;
+    private NodePool nodePool;
+
+    private final RadixTrie.Builder<RouteTarget<T>> trie = RadixTrie.builder();
+    private final Methods methods;
+    private final Set<String> exactPaths = new LinkedHashSet<String>();
+
+    // The routes of each host, sharing the method ids of this builder
+    private final Map<String, Builder<T>> hosts = new LinkedHashMap<String, Builder<T>>();
 
     private Builder() {
+      this(new Methods());
     }
 
-    private final RadixTrie.Builder<RouteTarget<T>> trie = RadixTrie.builder();
+    private Builder(final Methods methods) {
+      this.methods = methods;
+    }
 
     /**
      * Create a new {@link Router} that will route requests to all endpoints registered with {@link
      * #route}.
      */
     public Router<T> build() {
-      return new Router<T>(trie.build(), optionalTrailingSlash);
+      return build(methods.snapshot(), (nodePool == null) ? new NodePool() : nodePool);
+    }
+
+    private Router<T> build(final Methods methods, final NodePool nodes) {
+      final RadixTrie<RouteTarget<T>> trie = parallel
+                                             ? this.trie.buildParallel(nodes)
+                                             : this.trie.build(nodes);
+
+      // Capture free paths that the trie resolves without captures or query can be looked up in an
+      // exact table, with the same result.
+      final List<String> paths = new ArrayList<String>();
+      final List<RouteTarget<T>> routes = new ArrayList<RouteTarget<T>>();
+      final RadixTrie.Captor captor = trie.captor();
+      captor.optionalTrailingSlash(optionalTrailingSlash);
+      for (final String path : exactPaths) {
+        final RouteTarget<T> route = trie.lookup(path, captor);
+        if (route != null && captor.values() == 0 && captor.queryStart() == -1) {
+          paths.add(path);
+          routes.add(route);
+        }
+      }
+      final ExactTable<RouteTarget<T>> exact = paths.isEmpty()
+                                               ? null
+                                               : new ExactTable<RouteTarget<T>>(paths, routes);
+
+      final PathCache<RouteTarget<T>> cache = (cacheCapacity == 0)
+                                              ? null
+                                              : new PathCache<RouteTarget<T>>(cacheCapacity);
+
+      HostTable<Router<T>> hosts = null;
+      if (!this.hosts.isEmpty()) {
+        final List<String> names = new ArrayList<String>();
+        final List<Router<T>> routers = new ArrayList<Router<T>>();
+        for (final Map.Entry<String, Builder<T>> host : this.hosts.entrySet()) {
+          final Builder<T> builder = host.getValue();
+          builder.optionalTrailingSlash = optionalTrailingSlash;
+          builder.specialize = specialize;
+          builder.parallel = parallel;
+          builder.cacheCapacity = cacheCapacity;
+          names.add(host.getKey());
+          routers.add(builder.build(methods, nodes));
+        }
+        hosts = new HostTable<Router<T>>(names, routers);
+      }
+
+      return new Router<T>(specialize ? trie.specialize() : trie, exact, methods,
+                           optionalTrailingSlash, cache, hosts);
     }
 
     /**
@@ -140,142 +730,569 @@ public final class Router<T> {
     }
 
     /**
-     * Register a route.
+     * Register a route. Registering routes in sorted order is fastest, e.g. when loading a large
+     * pre-sorted route table, as each route then extends the end of the table.
      *
      * @param route  The route to register.
      * @param target A routing target that will be returned when requests are successfully routed
      *               to this route.
      */
-    public Builder<T> route(final Route route, final T target) {
-      trie.insert(route.path(), new RouteVisitor(route, target));
-      return this;
+    public Builder<T> route(final Route route, final T target) {
+      final int method = methods.intern(route.method());
+      trie.insert(route.path(), new RouteVisitor<T>(route, method, target));
+      if (route.captureNames().isEmpty()) {
+        exactPaths.add(route.pathString());
+      }
+      return this;
+    }
+
+    /**
+     * Register a routing path and method for a host. Requests are routed by host with {@link
+     * Router#route(CharSequence, CharSequence, CharSequence, Result)}.
+     *
+     * @param host   The host of the route, e.g. {@code www.example.com}. Matched ignoring case. A
+     *               leading {@code *} label, e.g. {@code *.example.com}, matches any subdomain,
+     *               and a {@code *} host matches any host that no other host matches.
+     * @param method A method that should be accepted for the route.
+     * @param path   The path of the route.
+     * @param target A routing target that will be returned when requests are successfully routed to
+     *               this route.
+     * @throws IllegalArgumentException if the host is not a valid host name.
+     */
+    public Builder<T> route(final String host, final String method, final String path,
+                            final T target) {
+      return route(host, Route.of(method, path), target);
+    }
+
+    /**
+     * Register a route for a host.
+     *
+     * @see #route(String, String, String, Object)
+     */
+    public Builder<T> route(final String host, final Route route, final T target) {
+      final String name = HostTable.normalize(host);
+      Builder<T> builder = hosts.get(name);
+      if (builder == null) {
+        builder = new Builder<T>(methods);
+        hosts.put(name, builder);
+      }
+      builder.route(route, target);
+      return this;
+    }
+
+    /**
+     * Set trailing slash matching to be optional or not. When configured to be optional, trailing
+     * slash in both routed uris/paths and routes are disregarded. E.g., {@code /foo} may be routed
+     * to {@code /foo/} and conversely {@code /bar/} may be routed to {@code /bar}.
+     *
+     * @param optional {@code true} if trailing slashes should be disregarded, {@code false} if
+     *                 trailing slashes should be strictly routed.
+     */
+    public Builder<T> optionalTrailingSlash(final boolean optional) {
+      this.optionalTrailingSlash = optional;
+      return this;
+    }
+
+    /**
+     * Generate a router class specialized for the registered routes when building the router.
+     * The specialized router matches paths using straight-line code for the route table instead of
+     * interpreting the trie, but takes longer to build. Routing behaves identically either way.
+     * Disabled by default.
+     *
+     * <p>Specialization requires hidden class support, i.e. Java 15 or later, so that the
+     * generated classes can be unloaded. If a specialized router cannot be generated, e.g. because
+     * the route table is too large or the runtime is older, the router falls back to the default
+     * interpreted trie. Routers derived with {@link Router#withRoute} or {@link
+     * Router#withoutRoute} are not specialized.
+     *
+     * @param specialize {@code true} if a specialized router class should be generated.
+     */
+    public Builder<T> specialize(final boolean specialize) {
+      this.specialize = specialize;
+      return this;
+    }
+
+    /**
+     * Build the router on all available processors. Large independent parts of the route table
+     * are compiled in parallel on a fork/join pool. This speeds up building routers with very
+     * large route tables. Disabled by default.
+     *
+     * @param parallel {@code true} if the router should be built in parallel.
+     */
+    public Builder<T> parallel(final boolean parallel) {
+      this.parallel = parallel;
+      return this;
+    }
+
+    /**
+     * Share the nodes of the routing trie with other routers built with the same pool. Identical
+     * subtrees of the routes of a router are always shared with each other, e.g. {@code
+     * /<id>/history} routes of many resources with the same targets. With a pool, they are also
+     * shared with the routers previously built with the pool, which saves memory when building many
+     * nearly identical routers, e.g. one per tenant. Disabled by default.
+     *
+     * @param pool The pool, or {@code null} to not share nodes with other routers.
+     */
+    public Builder<T> nodePool(final NodePool pool) {
+      this.nodePool = pool;
+      return this;
+    }
+
+    /**
+     * Cache the routing results of up to roughly {@code capacity} distinct request paths. Routing a
+     * cached path skips the routing trie. Paths are only cached by exact match, so routing behaves
+     * identically with or without the cache. Paths that are not found are not cached. Reading the
+     * cache never blocks. When the cache is full, paths that have not been routed recently are
+     * evicted. Disabled by default.
+     *
+     * <p>Hits and misses are counted, see {@link Router#cacheHits()} and {@link
+     * Router#cacheMisses()}.
+     *
+     * @param capacity The number of paths to cache, or {@code 0} to disable the cache.
+     */
+    public Builder<T> cache(final int capacity) {
+      if (capacity < 0) {
+        throw new IllegalArgumentException("capacity must not be negative");
+      }
+      this.cacheCapacity = capacity;
+      return this;
+    }
+  }
+
+  /**
+   * A {@link Trie.Visitor} that adds a {@link RouteTarget} to the terminal {@link Trie.Node}.
+   */
+  private static class RouteVisitor<T> implements Trie.Visitor<RouteTarget<T>> {
+
+    private final Route route;
+    private final int method;
+    private final T target;
+
+    private RouteVisitor(final Route route, final int method, final T target) {
+      this.route = route;
+      this.method = method;
+      this.target = target;
+    }
+
+    @Override
+    public RouteTarget<T> finish(final RouteTarget<T> currentValue) {
+      final List<String> captureNames = route.captureNames();
+      final String[] paramNames = captureNames.toArray(new String[captureNames.size()]);
+      final List<ParameterType> parameterTypes = route.captureParameterTypes();
+      final ParameterType[] paramTypes =
+          parameterTypes.toArray(new ParameterType[parameterTypes.size()]);
+
+      final Target<T> target =
+          new Target<T>(route.method(), this.target, paramNames, paramTypes);
+      if (currentValue == null) {
+        return RouteTarget.of(method, target);
+      }
+      return currentValue.with(method, target);
+    }
+  }
+
+  /**
+   * Routing result holder.
+   *
+   * @param <T> The router endpoint type.
+   */
+  public static class Result<T> {
+
+    /**
+     * Returned instead of a decoded length when a captured value is not validly URL encoded.
+     */
+    public static final int INVALID_ENCODING = -1;
+
+    private RadixTrie.Captor captor;
+    private final AsciiSequence methodBytes = new AsciiSequence();
+    private final AsciiSequence pathBytes = new AsciiSequence();
+
+    private PathScan scan;
+
+    // The routed host, the matched host pattern and the end of its wildcard capture
+    private CharSequence hostName;
+    private String host;
+    private int hostValueEnd = -1;
+
+    private Status status;
+    private RouteTarget<T> resolved;
+    private RouteTarget<T> route;
+    private Target<T> target;
+    private CharSequence path;
+
+    // Reusable views of the captured values and the query, see #paramValueView and #queryView
+    private CharSequenceView[] views = new CharSequenceView[0];
+    private final CharSequenceView queryView = new CharSequenceView();
+    private final CharSequenceView hostView = new CharSequenceView();
+    private final QueryParams queryParams = new QueryParams();
+
+    // Decoded captured values, decoded at most once per routing into a reusable arena. A capture
+    // has been decoded by the current routing if its stamp equals the current one. Unencoded
+    // values are not copied into the arena, and have a decoded start of -1.
+    private char[] arena = new char[0];
+    private int arenaSize;
+    private int[] decodedStart = new int[0];
+    private int[] decodedLength = new int[0];
+    private int[] decodedStamp = new int[0];
+    private int stamp;
+
+    private Result(final int captures) {
+      captor = new RadixTrie.Captor(captures);
+    }
+
+    /**
+     * Create a new {@link Result} with enough capacity to hold {@code captures} captured
+     * parameters.
+     */
+    public static <T> Result<T> capturing(final int captures) {
+      return new Result<T>(captures);
+    }
+
+    /**
+     * Make room for at least {@code captures} captured parameters, e.g. for a {@link Result}
+     * created by a previous router with fewer captures.
+     */
+    private void capacity(final int captures) {
+      if (captor.capacity() < captures) {
+        captor = new RadixTrie.Captor(captures);
+        captor.scan(scan);
+      }
+    }
+
+    /**
+     * Scan each routed path once up front for its segment bounds, query, query parameter
+     * separators and percent encoded chars, so that matching captures, decoding their values and
+     * reading query parameters do not scan the path again.
+     * Disabled by default. Pays off for long paths with many captured or encoded values.
+     */
+    public void prescan(final boolean prescan) {
+      scan = prescan ? new PathScan() : null;
+      captor.scan(scan);
+    }
+
+    /**
+     * Pre-scan a path that is about to be routed, if enabled.
+     */
+    private void scan(final CharSequence path, final int start) {
+      if (scan != null) {
+        scan.scan(path, start);
+      }
+    }
+
+    /**
+     * Get routing status of the {@link Router#route} invocation.
+     */
+    public Status status() {
+      return status;
+    }
+
+    /**
+     * Convenience method for checking if the routing status is {@link Status#SUCCESS}.
+     */
+    public boolean isSuccess() {
+      return status() == SUCCESS;
+    }
+
+    /**
+     * Get routing target, if successful.
+     */
+    public T target() {
+      if (target == null) {
+        throw new IllegalStateException("not matched");
+      }
+      return target.target;
+    }
+
+    /**
+     * Get the number of captured parameter values.
+     */
+    public int params() {
+      return captor.values();
+    }
+
+    /**
+     * Get the name of the captured path parameter at index {code i}.
+     */
+    public String paramName(final int i) {
+      if (target == null) {
+        throw new IllegalStateException("not matched");
+      }
+      return target.paramNames[i];
+    }
+
+    /**
+     * Get the value of the captured path parameter at index {code i}.
+     */
+    public CharSequence paramValue(final int i) {
+      return captor.value(path, i);
+    }
+
+    /**
+     * Get a view of the value of the captured path parameter at index {@code i}, without copying
+     * it. The view is owned by this {@link Result} and reused: it is only valid until the next
+     * {@link Router#route} invocation with this result, and the routed path must not be modified
+     * while it is in use.
+     *
+     * @see #paramValue
+     */
+    public CharSequence paramValueView(final int i) {
+      final int start = captor.valueStart(i);
+      if (i >= views.length) {
+        views = Arrays.copyOf(views, captor.capacity());
+      }
+      if (views[i] == null) {
+        views[i] = new CharSequenceView();
+      }
+      return views[i].wrap(path, start, captor.valueEnd(i));
+    }
+
+    /**
+     * Check if the value of the captured path parameter at index {@code i} is equal to {@code
+     * value}, without copying it.
+     */
+    public boolean paramEquals(final int i, final CharSequence value) {
+      final int start = captor.valueStart(i);
+      final int length = captor.valueEnd(i) - start;
+      return value.length() == length && CharSequences.regionMatches(path, start, value, 0, length);
+    }
+
+    /**
+     * Check if a region of the value of the captured path parameter at index {@code i} is equal to
+     * a region of {@code other}, as in {@link String#regionMatches(int, String, int, int)}.
+     *
+     * @param offset      The start of the region in the parameter value.
+     * @param other       The sequence to compare to.
+     * @param otherOffset The start of the region in {@code other}.
+     * @param length      The number of chars to compare.
+     * @return false if either region is out of bounds.
+     */
+    public boolean paramRegionMatches(final int i, final int offset, final CharSequence other,
+                                      final int otherOffset, final int length) {
+      final int start = captor.valueStart(i);
+      final int end = captor.valueEnd(i);
+      if (offset < 0 || otherOffset < 0 || length < 0 ||
+          offset > end - start - length || otherOffset > other.length() - length) {
+        return false;
+      }
+      return CharSequences.regionMatches(path, start + offset, other, otherOffset, length);
+    }
+
+    /**
+     * Copy the value of the captured path parameter at index {@code i} into {@code dst}, starting
+     * at {@code offset}.
+     *
+     * @return The number of chars copied.
+     * @throws IndexOutOfBoundsException if the value does not fit.
+     */
+    public int paramCopyTo(final int i, final char[] dst, final int offset) {
+      final int start = captor.valueStart(i);
+      final int length = captor.valueEnd(i) - start;
+      if (offset < 0 || offset > dst.length - length) {
+        throw new IndexOutOfBoundsException();
+      }
+      for (int j = 0; j < length; j++) {
+        dst[offset + j] = path.charAt(start + j);
+      }
+      return length;
+    }
+
+    /**
+     * Append the value of the captured path parameter at index {@code i} to {@code dst}.
+     *
+     * @return {@code dst}
+     */
+    public StringBuilder paramCopyTo(final int i, final StringBuilder dst) {
+      return dst.append(path, captor.valueStart(i), captor.valueEnd(i));
+    }
+
+    /**
+     * Get the URL decoded value of the captured path parameter at index {code i}.
+     *
+     * @return The decoded value or null if the encoding is invalid.
+     */
+    public CharSequence paramValueDecoded(final int i) {
+      final int length = decode(i);
+      if (length == INVALID_ENCODING) {
+        return null;
+      }
+      if (decodedStart[i] == -1) {
+        return paramValue(i).toString();
+      }
+      return new String(arena, decodedStart[i], length);
     }
 
     /**
-     * Set trailing slash matching to be optional or not. When configured to be optional, trailing
-     * slash in both routed uris/paths and routes are disregarded. E.g., {@code /foo} may be routed
-     * to {@code /foo/} and conversely {@code /bar/} may be routed to {@code /bar}.
+     * Get the length of the URL decoded value of the captured path parameter at index {@code i}.
      *
-     * @param optional {@code true} if trailing slashes should be disregarded, {@code false} if
-     *                 trailing slashes should be strictly routed.
+     * @return The decoded length or {@link #INVALID_ENCODING} if the encoding is invalid.
      */
-    public Builder<T> optionalTrailingSlash(final boolean optional) {
-      this.optionalTrailingSlash = optional;
-      return this;
+    public int paramValueDecodedLength(final int i) {
+      return decode(i);
     }
 
     /**
-     * A {@link Trie.Visitor} that adds a {@link RouteTarget} to the terminal {@link Trie.Node}.
+     * URL decode the value of the captured path parameter at index {@code i} into {@code dst},
+     * starting at {@code offset}, without allocating. The value is only decoded once per routing,
+     * however many times it is read.
+     *
+     * @return The decoded length or {@link #INVALID_ENCODING} if the encoding is invalid, in
+     * which case {@code dst} is not modified.
+     * @throws IndexOutOfBoundsException if the decoded value does not fit.
      */
-    private class RouteVisitor implements Trie.Visitor<RouteTarget<T>> {
-
-
-      private final Route route;
-      private final T target;
-
-      public RouteVisitor(final Route route, final T target) {
-        this.route = route;
-        this.target = target;
+    public int paramValueDecoded(final int i, final char[] dst, final int offset) {
+      final int length = decode(i);
+      if (length == INVALID_ENCODING) {
+        return INVALID_ENCODING;
       }
-
-      @Override
-      public RouteTarget<T> finish(final RouteTarget<T> currentValue) {
-        final List<String> captureNames = route.captureNames();
-        final String[] paramNames = captureNames.toArray(new String[captureNames.size()]);
-        final List<ParameterType> parameterTypes = route.captureParameterTypes();
-        final ParameterType[] paramTypes =
-            parameterTypes.toArray(new ParameterType[parameterTypes.size()]);
-
-        final Target<T> target = new Target<T>(this.target, paramNames, paramTypes);
-        if (currentValue == null) {
-          return RouteTarget.of(route.method(), target);
+      if (offset < 0 || offset > dst.length - length) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (decodedStart[i] == -1) {
+        final int start = captor.valueStart(i);
+        for (int j = 0; j < length; j++) {
+          dst[offset + j] = path.charAt(start + j);
         }
-        return currentValue.with(route.method(), target);
+      } else {
+        System.arraycopy(arena, decodedStart[i], dst, offset, length);
       }
-    }
-  }
-
-  /**
-   * Routing result holder.
-   *
-   * @param <T> The router endpoint type.
-   */
-  public static class Result<T> {
-
-    private final RadixTrie.Captor captor;
-
-    private Status status;
-    private RouteTarget<T> route;
-    private Target<T> target;
-    private CharSequence path;
-
-    private Result(final int captures) {
-      captor = new RadixTrie.Captor(captures);
+      return length;
     }
 
     /**
-     * Create a new {@link Result} with enough capacity to hold {@code captures} captured
-     * parameters.
+     * URL decode the value of the captured path parameter at index {@code i} and append it to
+     * {@code dst}.
+     *
+     * @return The decoded length or {@link #INVALID_ENCODING} if the encoding is invalid, in
+     * which case {@code dst} is not modified.
+     * @see #paramValueDecoded(int, char[], int)
      */
-    public static <T> Result<T> capturing(final int captures) {
-      return new Result<T>(captures);
+    public int paramValueDecoded(final int i, final StringBuilder dst) {
+      final int length = decode(i);
+      if (length == INVALID_ENCODING) {
+        return INVALID_ENCODING;
+      }
+      if (decodedStart[i] == -1) {
+        dst.append(path, captor.valueStart(i), captor.valueEnd(i));
+      } else {
+        dst.append(arena, decodedStart[i], length);
+      }
+      return length;
     }
 
     /**
-     * Get routing status of the {@link Router#route} invocation.
+     * URL decode the value of the captured path parameter at index {@code i} and put it into
+     * {@code dst}.
+     *
+     * @return The decoded length or {@link #INVALID_ENCODING} if the encoding is invalid, in
+     * which case {@code dst} is not modified.
+     * @throws BufferOverflowException if the decoded value does not fit.
+     * @see #paramValueDecoded(int, char[], int)
      */
-    public Status status() {
-      return status;
+    public int paramValueDecoded(final int i, final CharBuffer dst) {
+      final int length = decode(i);
+      if (length == INVALID_ENCODING) {
+        return INVALID_ENCODING;
+      }
+      if (dst.remaining() < length) {
+        throw new BufferOverflowException();
+      }
+      if (decodedStart[i] == -1) {
+        final int start = captor.valueStart(i);
+        for (int j = 0; j < length; j++) {
+          dst.put(path.charAt(start + j));
+        }
+      } else {
+        dst.put(arena, decodedStart[i], length);
+      }
+      return length;
     }
 
     /**
-     * Convenience method for checking if the routing status is {@link Status#SUCCESS}.
+     * URL decode the captured path parameter at index {@code i} into the arena, unless it has
+     * already been decoded by the current routing.
+     *
+     * @return The decoded length or {@link #INVALID_ENCODING} if the encoding is invalid.
      */
-    public boolean isSuccess() {
-      return status() == SUCCESS;
+    private int decode(final int i) {
+      final int start = captor.valueStart(i);
+      final int end = captor.valueEnd(i);
+      if (i >= decodedStamp.length) {
+        final int capacity = captor.capacity();
+        decodedStart = Arrays.copyOf(decodedStart, capacity);
+        decodedLength = Arrays.copyOf(decodedLength, capacity);
+        decodedStamp = Arrays.copyOf(decodedStamp, capacity);
+      }
+      if (decodedStamp[i] == stamp) {
+        return decodedLength[i];
+      }
+      decodedStamp[i] = stamp;
+      if (!captor.encoded(path, start, end)) {
+        decodedStart[i] = -1;
+        decodedLength[i] = end - start;
+        return end - start;
+      }
+      if (arena.length - arenaSize < end - start) {
+        arena = Arrays.copyOf(arena, max(arena.length * 2, arenaSize + end - start));
+      }
+      final int length = Encoding.decode(path, start, end, arena, arenaSize);
+      decodedStart[i] = arenaSize;
+      decodedLength[i] = (length == -1) ? INVALID_ENCODING : length;
+      arenaSize += max(length, 0);
+      return decodedLength[i];
     }
 
     /**
-     * Get routing target, if successful.
+     * Get the value of the captured path parameter at index {@code i} as an {@code int}. The value
+     * is parsed in place, without creating a {@link CharSequence}. Always succeeds for parameters
+     * of type {@link ParameterType#INT}.
+     *
+     * @throws NumberFormatException if the value is not a decimal {@code int}.
      */
-    public T target() {
-      if (target == null) {
-        throw new IllegalStateException("not matched");
-      }
-      return target.target;
+    public int paramInt(final int i) {
+      return Parameters.parseInt(path, captor.valueStart(i), captor.valueEnd(i));
     }
 
     /**
-     * Get the number of captured parameter values.
+     * Get the value of the captured path parameter at index {@code i} as a {@code long}. The
+     * value is parsed in place, without creating a {@link CharSequence}. Always succeeds for
+     * parameters of type {@link ParameterType#INT} and {@link ParameterType#LONG}.
+     *
+     * @throws NumberFormatException if the value is not a decimal {@code long}.
      */
-    public int params() {
-      return captor.values();
+    public long paramLong(final int i) {
+      return Parameters.parseLong(path, captor.valueStart(i), captor.valueEnd(i));
     }
 
     /**
-     * Get the name of the captured path parameter at index {code i}.
+     * Get the value of the captured path parameter at index {@code i} as a {@link UUID}. Always
+     * succeeds for parameters of type {@link ParameterType#UUID}.
+     *
+     * @throws IllegalArgumentException if the value is not a UUID.
+     * @see #paramUuidMostSignificantBits
+     * @see #paramUuidLeastSignificantBits
      */
-    public String paramName(final int i) {
-      if (target == null) {
-        throw new IllegalStateException("not matched");
-      }
-      return target.paramNames[i];
+    public UUID paramUuid(final int i) {
+      return new UUID(paramUuidMostSignificantBits(i), paramUuidLeastSignificantBits(i));
     }
 
     /**
-     * Get the value of the captured path parameter at index {code i}.
+     * Get the most significant 64 bits of the captured UUID path parameter at index {@code i},
+     * without creating a {@link UUID}.
+     *
+     * @throws IllegalArgumentException if the value is not a UUID.
      */
-    public CharSequence paramValue(final int i) {
-      return captor.value(path, i);
+    public long paramUuidMostSignificantBits(final int i) {
+      return Parameters.uuidMostSignificantBits(path, captor.valueStart(i), captor.valueEnd(i));
     }
 
     /**
-     * Get the URL decoded value of the captured path parameter at index {code i}.
+     * Get the least significant 64 bits of the captured UUID path parameter at index {@code i},
+     * without creating a {@link UUID}.
      *
-     * @return The decoded value or null if the encoding is invalid.
+     * @throws IllegalArgumentException if the value is not a UUID.
      */
-    public CharSequence paramValueDecoded(final int i) {
-      return decode(paramValue(i));
+    public long paramUuidLeastSignificantBits(final int i) {
+      return Parameters.uuidLeastSignificantBits(path, captor.valueStart(i), captor.valueEnd(i));
     }
 
     /**
@@ -310,28 +1327,44 @@ public final class Router<T> {
     }
 
     /**
-     * Returns the index for a given parameter name, if it exists.
-     * @param paramName The name of the param
-     * @return An {@link OptionalInt} representing the index.
+     * Get the index of the captured path parameter with the handle {@code key}.
+     *
+     * @return The index, or -1 if the matched route has no such parameter.
      */
-    private OptionalInt paramIndex(String paramName) {
-      for (int i = 0; i < params(); i++) {
-        if (paramName(i).equals(paramName)) {
-          return OptionalInt.of(i);
-        }
+    public int paramIndex(final ParamKey key) {
+      if (target == null) {
+        throw new IllegalStateException("not matched");
       }
-      return OptionalInt.empty();
+      return target.paramIndices.get(key);
     }
 
     /**
-     * Returns the index for a given parameter name, if it exists.
+     * Returns the index for a given parameter name.
      * @param paramName The name of the param
-     * @return An {@link OptionalInt} representing the index.
      * @throws RuntimeException if there is no parameter for that name.
      */
-    private int paramIndexOrThrow(String paramName) {
-      return paramIndex(paramName)
-              .orElseThrow(() -> new RuntimeException("No parameter: " + paramName));
+    private int paramIndexOrThrow(final String paramName) {
+      if (target != null) {
+        final String[] names = target.paramNames;
+        for (int i = 0; i < names.length; i++) {
+          if (names[i].equals(paramName)) {
+            return i;
+          }
+        }
+      }
+      throw new RuntimeException("No parameter: " + paramName);
+    }
+
+    /**
+     * Returns the index for a given parameter handle.
+     * @throws IllegalArgumentException if there is no parameter for that handle.
+     */
+    private int paramIndexOrThrow(final ParamKey key) {
+      final int i = paramIndex(key);
+      if (i == -1) {
+        throw new IllegalArgumentException("No parameter: " + key);
+      }
+      return i;
     }
 
     /**
@@ -343,6 +1376,27 @@ public final class Router<T> {
       return paramValue(paramIndexOrThrow(paramName));
     }
 
+    /**
+     * Get a view of the value of the captured path parameter, without copying it.
+     *
+     * @param paramName The name of the parameter.
+     * @see #paramValueView(int)
+     */
+    public CharSequence paramValueView(final String paramName) {
+      return paramValueView(paramIndexOrThrow(paramName));
+    }
+
+    /**
+     * Check if the value of the captured path parameter is equal to {@code value}, without
+     * copying it.
+     *
+     * @param paramName The name of the parameter.
+     * @see #paramEquals(int, CharSequence)
+     */
+    public boolean paramEquals(final String paramName, final CharSequence value) {
+      return paramEquals(paramIndexOrThrow(paramName), value);
+    }
+
     /**
      * Get the URL decoded value of the captured path parameter.
      *
@@ -353,6 +1407,36 @@ public final class Router<T> {
       return paramValueDecoded(paramIndexOrThrow(paramName));
     }
 
+    /**
+     * Get the value of the captured path parameter as an {@code int}.
+     *
+     * @param paramName The name of the parameter.
+     * @see #paramInt(int)
+     */
+    public int paramInt(final String paramName) {
+      return paramInt(paramIndexOrThrow(paramName));
+    }
+
+    /**
+     * Get the value of the captured path parameter as a {@code long}.
+     *
+     * @param paramName The name of the parameter.
+     * @see #paramLong(int)
+     */
+    public long paramLong(final String paramName) {
+      return paramLong(paramIndexOrThrow(paramName));
+    }
+
+    /**
+     * Get the value of the captured path parameter as a {@link UUID}.
+     *
+     * @param paramName The name of the parameter.
+     * @see #paramUuid(int)
+     */
+    public UUID paramUuid(final String paramName) {
+      return paramUuid(paramIndexOrThrow(paramName));
+    }
+
     /**
      * Get the parameter type of the captured path parameter .
      *
@@ -384,6 +1468,104 @@ public final class Router<T> {
       return paramValueEnd(paramIndexOrThrow(paramName));
     }
 
+    /**
+     * Get the value of the captured path parameter.
+     *
+     * @param key The handle of the name of the parameter.
+     * @throws IllegalArgumentException if the matched route has no such parameter.
+     */
+    public CharSequence paramValue(final ParamKey key) {
+      return paramValue(paramIndexOrThrow(key));
+    }
+
+    /**
+     * Get a view of the value of the captured path parameter, without copying it.
+     *
+     * @param key The handle of the name of the parameter.
+     * @see #paramValueView(int)
+     */
+    public CharSequence paramValueView(final ParamKey key) {
+      return paramValueView(paramIndexOrThrow(key));
+    }
+
+    /**
+     * Check if the value of the captured path parameter is equal to {@code value}, without
+     * copying it.
+     *
+     * @param key The handle of the name of the parameter.
+     * @see #paramEquals(int, CharSequence)
+     */
+    public boolean paramEquals(final ParamKey key, final CharSequence value) {
+      return paramEquals(paramIndexOrThrow(key), value);
+    }
+
+    /**
+     * Get the URL decoded value of the captured path parameter.
+     *
+     * @param key The handle of the name of the parameter.
+     * @return The decoded value or null if the encoding is invalid.
+     */
+    public CharSequence paramValueDecoded(final ParamKey key) {
+      return paramValueDecoded(paramIndexOrThrow(key));
+    }
+
+    /**
+     * Get the value of the captured path parameter as an {@code int}.
+     *
+     * @param key The handle of the name of the parameter.
+     * @see #paramInt(int)
+     */
+    public int paramInt(final ParamKey key) {
+      return paramInt(paramIndexOrThrow(key));
+    }
+
+    /**
+     * Get the value of the captured path parameter as a {@code long}.
+     *
+     * @param key The handle of the name of the parameter.
+     * @see #paramLong(int)
+     */
+    public long paramLong(final ParamKey key) {
+      return paramLong(paramIndexOrThrow(key));
+    }
+
+    /**
+     * Get the value of the captured path parameter as a {@link UUID}.
+     *
+     * @param key The handle of the name of the parameter.
+     * @see #paramUuid(int)
+     */
+    public UUID paramUuid(final ParamKey key) {
+      return paramUuid(paramIndexOrThrow(key));
+    }
+
+    /**
+     * Get the parameter type of the captured path parameter.
+     *
+     * @param key The handle of the name of the parameter.
+     */
+    public ParameterType paramType(final ParamKey key) {
+      return paramType(paramIndexOrThrow(key));
+    }
+
+    /**
+     * Get start offset into the routed path of the captured parameter.
+     *
+     * @param key The handle of the name of the parameter.
+     */
+    public int paramValueStart(final ParamKey key) {
+      return paramValueStart(paramIndexOrThrow(key));
+    }
+
+    /**
+     * Get end offset into the routed path of the captured parameter.
+     *
+     * @param key The handle of the name of the parameter.
+     */
+    public int paramValueEnd(final ParamKey key) {
+      return paramValueEnd(paramIndexOrThrow(key));
+    }
+
     /**
      * Signal a route found but method not allowed.
      */
@@ -415,9 +1597,58 @@ public final class Router<T> {
       this.route = route;
       this.target = target;
       this.path = path;
+      this.arenaSize = 0;
+      // Stamps start at zero, so skip zero when wrapping around
+      if (++stamp == 0) {
+        stamp = 1;
+        Arrays.fill(decodedStamp, 0);
+      }
       return this;
     }
 
+    /**
+     * Record the host that a request was routed by.
+     */
+    private void host(final CharSequence hostName, final String host, final int hostValueEnd) {
+      this.hostName = hostName;
+      this.host = host;
+      this.hostValueEnd = hostValueEnd;
+    }
+
+    /**
+     * Get the host of the routes that the request was routed by, e.g. {@code *.example.com}, or
+     * null if it was routed by the routes without a host.
+     *
+     * @see Router#route(CharSequence, CharSequence, CharSequence, Result)
+     */
+    public String host() {
+      return host;
+    }
+
+    /**
+     * Get the part of the routed host that was matched by a {@code *} label, e.g. {@code foo} of
+     * {@code foo.example.com} for {@code *.example.com}. null if there is none.
+     */
+    public CharSequence hostValue() {
+      return (hostValueEnd == -1) ? null : hostName.subSequence(0, hostValueEnd);
+    }
+
+    /**
+     * Get a view of the part of the routed host that was matched by a {@code *} label, without
+     * copying it. null if there is none. The view is reused, as for {@link #paramValueView(int)}.
+     */
+    public CharSequence hostValueView() {
+      return (hostValueEnd == -1) ? null : hostView.wrap(hostName, 0, hostValueEnd);
+    }
+
+    /**
+     * Get the end offset into the routed host of the part that was matched by a {@code *} label,
+     * which starts at offset 0. -1 if there is none.
+     */
+    public int hostValueEnd() {
+      return hostValueEnd;
+    }
+
     /**
      * Get query string start index. -1 if there is no query string part.
      */
@@ -439,6 +1670,41 @@ public final class Router<T> {
       return captor.query(path);
     }
 
+    /**
+     * Get a view of the query string, without copying it. null if there is no query string part.
+     * The view is reused, as for {@link #paramValueView(int)}.
+     */
+    public CharSequence queryView() {
+      if (captor.queryStart() == -1) {
+        return null;
+      }
+      return queryView.wrap(path, captor.queryStart(), captor.queryEnd());
+    }
+
+    /**
+     * Get a cursor over the parameters of the query string, positioned before the first
+     * parameter. The cursor is owned by this {@link Result} and reused: getting it again restarts
+     * it, and it is only valid until the next {@link Router#route} invocation with this result.
+     */
+    public QueryParams queryParams() {
+      if (status != SUCCESS) {
+        throw new IllegalStateException("not matched");
+      }
+      return queryParams.reset(path, captor.queryStart(), captor.queryEnd(), scan);
+    }
+
+    /**
+     * Get a view of the undecoded value of the first query string parameter named {@code name},
+     * without copying it. The view is reused, as for {@link #paramValueView(int)}.
+     *
+     * @return The value or null if there is no such parameter.
+     * @see #queryParams()
+     */
+    public CharSequence queryParam(final CharSequence name) {
+      final QueryParams params = queryParams();
+      return params.next(name) ? params.value() : null;
+    }
+
     /**
      * Get all allowed methods for the route if {@link #status()} is {@link Status#SUCCESS} or
      * {@link Status#METHOD_NOT_ALLOWED}. Returns an empty collection if {@link #status()} is {@link
@@ -453,89 +1719,153 @@ public final class Router<T> {
   }
 
   /**
-   * Holder for route methods and target endpoints.
+   * Holder for route methods and target endpoints. Targets are indexed by method id.
    */
   private static class RouteTarget<T> {
 
-    private final String method;
-    private final Target<T> target;
-    private final RouteTarget<T> next;
-    private final Collection<String> methods;
+    private final Target<T>[] targets;
 
-    private RouteTarget(final String method, final Target<T> target, final RouteTarget<T> next) {
-      this.method = method;
-      this.target = target;
-      this.next = next;
-      this.methods = methods0();
+    // Built on first use. Racing threads build equal lists.
+    private volatile Collection<String> methods;
+
+    private RouteTarget(final Target<T>[] targets) {
+      this.targets = targets;
     }
 
     /**
      * Create a new route.
      */
-    private static <T> RouteTarget<T> of(final String method, final Target<T> target) {
-      return new RouteTarget<T>(method, target, null);
+    private static <T> RouteTarget<T> of(final int id, final Target<T> target) {
+      final Target<T>[] targets = targets(id + 1);
+      targets[id] = target;
+      return new RouteTarget<T>(targets);
     }
 
     /**
-     * Add a new method and target to this route.
+     * Add a new method and target to this route, replacing any existing target for the method.
      */
-    private RouteTarget<T> with(final String method, final Target<T> target) {
-      return new RouteTarget<T>(method, target, this);
+    private RouteTarget<T> with(final int id, final Target<T> target) {
+      final Target<T>[] targets = targets(max(id + 1, this.targets.length));
+      System.arraycopy(this.targets, 0, targets, 0, this.targets.length);
+      targets[id] = target;
+      return new RouteTarget<T>(targets);
     }
 
     /**
-     * Look up a method in this route.
+     * Remove a method and its target from this route.
      *
-     * @return The endpoint if the method matched. {@code null} otherwise.
+     * @return The route without the method, or null if the route has no other methods.
      */
-    private Target<T> lookup(final CharSequence method) {
-      RouteTarget<T> route = this;
-      while (route != null) {
-        if (equals(route.method, method)) {
-          return route.target;
+    private RouteTarget<T> without(final int id) {
+      if (lookup(id) == null) {
+        return this;
+      }
+      final Target<T>[] targets = this.targets.clone();
+      targets[id] = null;
+      for (final Target<T> target : targets) {
+        if (target != null) {
+          return new RouteTarget<T>(targets);
         }
-        route = route.next;
       }
       return null;
     }
 
     /**
-     * Compare two {@link CharSequence}s.
+     * Write this route to a snapshot. Targets are written as their indices in {@code targets}.
      */
-    private boolean equals(final CharSequence a, final CharSequence b) {
-      if (a == b) {
-        return true;
-      }
-      final int length = a.length();
-      if (length != b.length()) {
-        return false;
+    private void write(final DataOutput out, final IdentityHashMap<T, Integer> targets)
+        throws IOException {
+      out.writeInt(this.targets.length);
+      for (final Target<T> target : this.targets) {
+        if (target == null) {
+          out.writeInt(-1);
+          continue;
+        }
+        final Integer index = targets.get(target.target);
+        if (index == null) {
+          throw new IllegalArgumentException("Unknown target: " + target.target);
+        }
+        out.writeInt(index);
+        out.writeInt(target.paramNames.length);
+        for (int i = 0; i < target.paramNames.length; i++) {
+          Snapshot.writeString(out, target.paramNames[i]);
+          out.writeByte(target.paramTypes[i].ordinal());
+        }
       }
-      for (int i = 0; i < length; i++) {
-        if (a.charAt(i) != b.charAt(i)) {
-          return false;
+    }
+
+    /**
+     * Read a route written by {@link #write}.
+     */
+    private static <T> RouteTarget<T> read(final ByteBuffer in, final Methods methods,
+                                           final T[] values) {
+      final Target<T>[] targets = targets(Snapshot.length(in, 4));
+      for (int id = 0; id < targets.length; id++) {
+        final int index = in.getInt();
+        if (index == -1) {
+          continue;
         }
+        final int params = Snapshot.length(in, 5);
+        final String[] paramNames = new String[params];
+        final ParameterType[] paramTypes = new ParameterType[params];
+        for (int i = 0; i < params; i++) {
+          paramNames[i] = Snapshot.readString(in);
+          paramTypes[i] = ParameterType.values()[in.get()];
+        }
+        targets[id] = new Target<T>(methods.name(id), values[index], paramNames, paramTypes);
+      }
+      return new RouteTarget<T>(targets);
+    }
+
+    /**
+     * Look up a method in this route.
+     *
+     * @return The endpoint if the method matched. {@code null} otherwise.
+     */
+    private Target<T> lookup(final int id) {
+      if (id < 0 || id >= targets.length) {
+        return null;
       }
-      return true;
+      return targets[id];
     }
 
     /**
      * Get a {@link Collection} of {@link String} with all methods allowed by this endpoint.
      */
     public Collection<String> methods() {
+      Collection<String> methods = this.methods;
+      if (methods == null) {
+        final List<String> names = new ArrayList<String>();
+        for (final Target<T> target : targets) {
+          if (target != null) {
+            names.add(target.method);
+          }
+        }
+        methods = Collections.unmodifiableList(names);
+        this.methods = methods;
+      }
       return methods;
     }
 
     /**
-     * Create a list of all methods allowed by this endpoint.
+     * Routes are equal if they have the same targets for the same methods, so that identical
+     * subtrees of the routing trie can be shared. Targets are compared by identity, as targets that
+     * are equal but distinct must still be routed to as themselves.
      */
-    private Collection<String> methods0() {
-      final List<String> methods = new ArrayList<String>();
-      RouteTarget<T> route = this;
-      while (route != null) {
-        methods.add(route.method);
-        route = route.next;
-      }
-      return Collections.unmodifiableList(methods);
+    @Override
+    public boolean equals(final Object o) {
+      return this == o || (o instanceof RouteTarget &&
+                           Arrays.equals(targets, ((RouteTarget<?>) o).targets));
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(targets);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Target<T>[] targets(final int size) {
+      return (Target<T>[]) new Target[size];
     }
   }
 }
@@ -0,0 +1,81 @@
+package io.norberg.rut;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Primitives of the binary router snapshot format. All numbers are big endian. Arrays are written
+ * as their length followed by their elements, so that they can be bulk read.
+ */
+final class Snapshot {
+
+  static final int MAGIC = 0x52555453;
+  static final int VERSION = 3;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private Snapshot() {
+    throw new AssertionError();
+  }
+
+  static void writeHeader(final DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+  }
+
+  static void readHeader(final ByteBuffer in) {
+    if (in.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a router snapshot");
+    }
+    final int version = in.getInt();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+    }
+  }
+
+  static void writeString(final DataOutput out, final String s) throws IOException {
+    writeBytes(out, s.getBytes(UTF_8));
+  }
+
+  static String readString(final ByteBuffer in) {
+    return new String(readBytes(in), UTF_8);
+  }
+
+  static void writeBytes(final DataOutput out, final byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static byte[] readBytes(final ByteBuffer in) {
+    final byte[] bytes = new byte[length(in, 1)];
+    in.get(bytes);
+    return bytes;
+  }
+
+  static void writeInts(final DataOutput out, final int[] ints) throws IOException {
+    out.writeInt(ints.length);
+    for (final int i : ints) {
+      out.writeInt(i);
+    }
+  }
+
+  static int[] readInts(final ByteBuffer in) {
+    final int[] ints = new int[length(in, 4)];
+    in.asIntBuffer().get(ints);
+    in.position(in.position() + ints.length * 4);
+    return ints;
+  }
+
+  /**
+   * Read an array length, verifying that the array fits in the rest of the snapshot.
+   */
+  static int length(final ByteBuffer in, final int elementSize) {
+    final int length = in.getInt();
+    if (length < 0 || (long) length * elementSize > in.remaining()) {
+      throw new IllegalArgumentException("Corrupt snapshot");
+    }
+    return length;
+  }
+}
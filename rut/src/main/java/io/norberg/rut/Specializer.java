@@ -0,0 +1,570 @@
+package io.norberg.rut;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.norberg.rut.ClassFile.Code;
+import io.norberg.rut.ClassFile.Label;
+
+import static io.norberg.rut.ClassFile.ACC_PUBLIC;
+import static io.norberg.rut.ClassFile.ACC_STATIC;
+import static io.norberg.rut.ClassFile.Code.IFEQ;
+import static io.norberg.rut.ClassFile.Code.IFGE;
+import static io.norberg.rut.ClassFile.Code.IFLT;
+import static io.norberg.rut.ClassFile.Code.IF_ICMPEQ;
+import static io.norberg.rut.ClassFile.Code.IF_ICMPGE;
+import static io.norberg.rut.ClassFile.Code.IF_ICMPLE;
+import static io.norberg.rut.ClassFile.Code.IF_ICMPLT;
+import static io.norberg.rut.ClassFile.Code.IF_ICMPNE;
+
+/**
+ * Generates a class that implements {@link RadixTrie.Specialized} for the structure of a particular
+ * {@link RadixTrie}. Each sibling list of the trie becomes a static method that dispatches on the
+ * next char with a {@code switch} and compares node tails against constants, following the same
+ * matching rules as the interpreted lookup in {@link RadixTrie}.
+ */
+final class Specializer {
+
+  private static final String PACKAGE = "io/norberg/rut/";
+  private static final String CHAR_SEQUENCE = "java/lang/CharSequence";
+  private static final String STRING = "java/lang/String";
+  private static final String PARAMETERS = PACKAGE + "Parameters";
+  private static final String CONSTRAINT = PACKAGE + "Constraint";
+  private static final String CAPTOR = PACKAGE + "RadixTrie$Captor";
+  private static final String SPECIALIZED = PACKAGE + "RadixTrie$Specialized";
+
+  private static final String FANOUT = "(L" + CHAR_SEQUENCE + ";IL" + CAPTOR + ";I)I";
+
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  // Locals of the generated fanout methods
+  private static final int PATH = 0;
+  private static final int INDEX = 1;
+  private static final int CAPTOR_ = 2;
+  private static final int CAPTURE = 3;
+  private static final int LENGTH = 4;
+  private static final int C = 5;
+  private static final int RESULT = 6;
+  private static final int NEXT = 7;
+  private static final int LIMIT = 8;
+  private static final int I = 9;
+  private static final int TERMINAL = 10;
+
+  private static final String[] LOCALS = {
+      CHAR_SEQUENCE, null, CAPTOR, null, null, null, null, null, null, null, null
+  };
+
+  private static final byte SLASH = '/';
+  private static final byte QUERY = '?';
+
+  private final RadixTrie<?> trie;
+  private final ClassFile cf;
+  private final Set<String> generated = new HashSet<String>();
+  private final Deque<int[]> fanouts = new ArrayDeque<int[]>();
+  private final Deque<int[]> terminalFanouts = new ArrayDeque<int[]>();
+
+  private Specializer(final RadixTrie<?> trie) {
+    this.trie = trie;
+    this.cf = new ClassFile(PACKAGE + "SpecializedRadixTrie" + COUNTER.incrementAndGet(),
+                            "java/lang/Object", SPECIALIZED);
+  }
+
+  /**
+   * Generate and load a specialized lookup for a trie.
+   *
+   * @return The specialized lookup, or {@code null} if the trie is too large to specialize or
+   * classes cannot be defined at runtime.
+   */
+  static RadixTrie.Specialized specialize(final RadixTrie<?> trie) {
+    final byte[] bytes;
+    try {
+      bytes = generate(trie);
+    } catch (IllegalStateException e) {
+      return null;
+    }
+    try {
+      return (RadixTrie.Specialized) define(bytes).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  static byte[] generate(final RadixTrie<?> trie) {
+    return new Specializer(trie).generate();
+  }
+
+  private byte[] generate() {
+    final Code init = cf.method(ACC_PUBLIC, "<init>", "()V", cf.name());
+    init.aload(0)
+        .invokespecial("java/lang/Object", "<init>", "()V")
+        .vreturn();
+
+    final String descriptor = "(L" + CHAR_SEQUENCE + ";IL" + CAPTOR + ";)I";
+    final Code lookup = cf.method(ACC_PUBLIC, "lookup", descriptor,
+                                  cf.name(), CHAR_SEQUENCE, null, CAPTOR);
+    if (trie.roots == 0) {
+      lookup.iconst(-1).ireturn();
+    } else {
+      lookup.aload(1).iload(2).aload(3).iconst(0);
+      invokeFanout(lookup, 0, trie.roots);
+      lookup.ireturn();
+    }
+
+    while (!fanouts.isEmpty() || !terminalFanouts.isEmpty()) {
+      if (!fanouts.isEmpty()) {
+        final int[] siblings = fanouts.pop();
+        fanout(siblings[0], siblings[1]);
+      } else {
+        final int[] siblings = terminalFanouts.pop();
+        terminalFanout(siblings[0], siblings[1]);
+      }
+    }
+
+    return cf.toByteArray();
+  }
+
+  /**
+   * Invoke the fanout method of the {@code fanout} sibling nodes starting at node {@code first},
+   * generating it if needed.
+   */
+  private void invokeFanout(final Code code, final int first, final int fanout) {
+    if (generated.add("f" + first)) {
+      fanouts.push(new int[]{first, fanout});
+    }
+    code.invokestatic(cf.name(), "f" + first, FANOUT);
+  }
+
+  /**
+   * Invoke the terminal fanout method of the {@code fanout} sibling nodes starting at node {@code
+   * first}, generating it if needed.
+   */
+  private void invokeTerminalFanout(final Code code, final int first, final int fanout) {
+    if (generated.add("t" + first)) {
+      terminalFanouts.push(new int[]{first, fanout});
+    }
+    code.aload(PATH).iload(INDEX).aload(CAPTOR_).iload(CAPTURE)
+        .invokestatic(cf.name(), "t" + first, FANOUT);
+  }
+
+  private Code method(final String name) {
+    final Code code = cf.method(ACC_STATIC, name, FANOUT, LOCALS);
+    // Declare all locals up front
+    for (int local = LENGTH; local < LOCALS.length; local++) {
+      code.iconst(0).istore(local);
+    }
+    return code;
+  }
+
+  /**
+   * Generate the fanout method of the {@code fanout} sibling nodes starting at node {@code first}.
+   */
+  private void fanout(final int first, final int fanout) {
+    final Code code = method("f" + first);
+    final int end = first + fanout;
+    final Label terminal = code.label();
+    final Label captures = code.label();
+
+    code.aload(PATH).invokeinterface(CHAR_SEQUENCE, "length", "()I", 0).istore(LENGTH);
+    code.iload(INDEX).iload(LENGTH).jump(IF_ICMPEQ, terminal);
+    charAt(code, INDEX);
+    code.istore(C);
+    code.iload(C).iconst(QUERY).jump(IF_ICMPEQ, terminal);
+
+    // Dispatch on the next char to the single potential matching node
+    int matches = 0;
+    while (first + matches < end && trie.heads[first + matches] >= 0) {
+      matches++;
+    }
+    if (matches > 0) {
+      final int[] keys = new int[matches];
+      final Label[] targets = new Label[matches];
+      for (int i = 0; i < matches; i++) {
+        keys[i] = trie.heads[first + i];
+        targets[i] = code.label();
+      }
+      code.iload(C).lookupswitch(keys, targets, captures);
+      for (int i = 0; i < matches; i++) {
+        code.bind(targets[i]);
+        match(code, first + i, captures);
+      }
+    }
+
+    // Captures
+    code.bind(captures);
+    for (int node = first + matches; node < end; node++) {
+      if (trie.heads[node] == RadixTrie.CAPTURE_PATH) {
+        capturePath(code, node);
+      } else {
+        captureSeg(code, node);
+      }
+    }
+    if (trie.heads[end - 1] != RadixTrie.CAPTURE_PATH) {
+      code.iconst(-1).ireturn();
+    }
+
+    code.bind(terminal);
+    invokeTerminalFanout(code, first, fanout);
+    code.ireturn();
+  }
+
+  /**
+   * Generate the terminal fanout method of the {@code fanout} sibling nodes starting at node {@code
+   * first}. The result only depends on the trie structure and on whether trailing slashes are
+   * optional.
+   */
+  private void terminalFanout(final int first, final int fanout) {
+    final Code code = method("t" + first);
+    final int end = first + fanout;
+    final Label fail = code.label();
+    int slash = -1;
+    for (int node = first; node < end && trie.heads[node] >= 0; node++) {
+      if (trie.heads[node] == SLASH && trie.tailLengths[node] == 0) {
+        slash = node;
+        break;
+      }
+    }
+    if (slash != -1 && trie.values[slash] != null) {
+      optionalTrailingSlash(code);
+      code.jump(IFEQ, fail);
+      succeed(code, slash, 0);
+    }
+    code.bind(fail);
+    code.iconst(-1).ireturn();
+  }
+
+  /**
+   * Generate the match of a node with the path at the current index. Jumps to {@code fail} if the
+   * node does not match.
+   */
+  private void match(final Code code, final int node, final Label fail) {
+    final boolean value = trie.values[node] != null;
+    final int tail = trie.tails[node];
+    final int tailLength = trie.tailLengths[node];
+    final boolean slashTail = tailLength > 0 && trie.pool[tail + tailLength - 1] == SLASH;
+    final int edge = trie.fanouts[node] == 0 ? -1 : trie.edges[node];
+    final int fanout = trie.fanouts[node];
+
+    // Match prefix
+    final Label prefix = code.label();
+    code.iload(INDEX).iconst(1 + tailLength).iadd().istore(NEXT);
+    code.iload(NEXT).iload(LENGTH).jump(IF_ICMPLE, prefix);
+    if (value && slashTail) {
+      // Trailing slash in prefix?
+      optionalTrailingSlash(code);
+      code.jump(IFEQ, fail);
+      code.iload(NEXT).iload(LENGTH).iconst(1).iadd().jump(IF_ICMPNE, fail);
+      for (int i = 0; i < tailLength - 1; i++) {
+        code.aload(PATH).iload(INDEX).iconst(1 + i).iadd();
+        code.invokeinterface(CHAR_SEQUENCE, "charAt", "(I)C", 1);
+        code.iconst(trie.pool[tail + i]).jump(IF_ICMPNE, fail);
+      }
+      succeed(code, node, 0);
+    } else {
+      code.jump(fail);
+    }
+    code.bind(prefix);
+    for (int i = 0; i < tailLength; i++) {
+      code.aload(PATH).iload(INDEX).iconst(1 + i).iadd();
+      code.invokeinterface(CHAR_SEQUENCE, "charAt", "(I)C", 1);
+      if (value && i == tailLength - 1 && slashTail) {
+        // Trailing slash in prefix?
+        final Label matched = code.label();
+        code.istore(C);
+        code.iload(C).iconst(SLASH).jump(IF_ICMPEQ, matched);
+        optionalTrailingSlash(code);
+        code.jump(IFEQ, fail);
+        code.iload(C).iconst(QUERY).jump(IF_ICMPNE, fail);
+        query(code, INDEX, 2 + i);
+        succeed(code, node, 0);
+        code.bind(matched);
+      } else {
+        code.iconst(trie.pool[tail + i]).jump(IF_ICMPNE, fail);
+      }
+    }
+
+    // Terminal?
+    final Label notTerminal = code.label();
+    code.iload(NEXT).iload(LENGTH).jump(IF_ICMPNE, notTerminal);
+    if (value) {
+      succeed(code, node, 0);
+    } else {
+      invokeTerminalFanout(code, edge, fanout);
+      returnIfFound(code);
+      code.jump(fail);
+    }
+    code.bind(notTerminal);
+
+    // Query?
+    final Label notQuery = code.label();
+    code.aload(PATH).iload(NEXT).invokeinterface(CHAR_SEQUENCE, "charAt", "(I)C", 1).istore(C);
+    code.iload(C).iconst(QUERY).jump(IF_ICMPNE, notQuery);
+    if (value) {
+      query(code, NEXT, 1);
+      succeed(code, node, 0);
+    } else {
+      invokeTerminalFanout(code, edge, fanout);
+      code.istore(RESULT);
+      code.iload(RESULT).jump(IFLT, fail);
+      query(code, NEXT, 1);
+      code.iload(RESULT).ireturn();
+    }
+    code.bind(notQuery);
+
+    // Edge fanout
+    if (edge != -1) {
+      code.aload(PATH).iload(NEXT).aload(CAPTOR_).iload(CAPTURE);
+      invokeFanout(code, edge, fanout);
+      returnIfFound(code);
+    }
+
+    // Trailing slash in path?
+    if (value) {
+      final Label notEnd = code.label();
+      optionalTrailingSlash(code);
+      code.jump(IFEQ, fail);
+      code.iload(C).iconst(SLASH).jump(IF_ICMPNE, fail);
+      code.iload(NEXT).iconst(1).iadd().iload(LENGTH).jump(IF_ICMPNE, notEnd);
+      succeed(code, node, 0);
+      code.bind(notEnd);
+      code.aload(PATH).iload(NEXT).iconst(1).iadd();
+      code.invokeinterface(CHAR_SEQUENCE, "charAt", "(I)C", 1);
+      code.iconst(QUERY).jump(IF_ICMPNE, fail);
+      query(code, NEXT, 2);
+      succeed(code, node, 0);
+    } else {
+      code.jump(fail);
+    }
+  }
+
+  /**
+   * Generate a segment capture, typed, constrained or not. Falls through if the capture does not
+   * match.
+   */
+  private void captureSeg(final Code code, final int node) {
+    final boolean value = trie.values[node] != null;
+    final int edge = trie.fanouts[node] == 0 ? -1 : trie.edges[node];
+    final int fanout = trie.fanouts[node];
+    final boolean full = trie.tails[node] == RadixTrie.FULL_SEG;
+    final boolean typed = trie.heads[node] != RadixTrie.CAPTURE_SEG;
+    final Label bound = code.label();
+    final Label found = code.label();
+    final Label notSlash = code.label();
+    final Label edges = code.label();
+    final Label backtrack = code.label();
+    final Label done = code.label();
+
+    // Find capture bound
+    code.iconst(1).istore(TERMINAL);
+    indexOf(code, "indexOfBound");
+    code.iload(I).jump(IFGE, found);
+    code.iload(LENGTH).istore(I);
+    code.jump(bound);
+    code.bind(found);
+    charAt(code, I);
+    code.iconst(SLASH).jump(IF_ICMPNE, notSlash);
+    code.iconst(0).istore(TERMINAL);
+    code.jump(bound);
+    code.bind(notSlash);
+    query(code, I, 1);
+    code.bind(bound);
+    code.iload(I).istore(LIMIT);
+
+    // A typed capture only captures a full segment value of its type
+    if (typed) {
+      validate(code, node, LIMIT);
+      code.jump(IFEQ, full ? done : backtrack);
+    }
+
+    // Terminal?
+    if (value) {
+      final Label notTerminal = code.label();
+      final Label notEnd = code.label();
+      code.iload(TERMINAL).jump(IFEQ, notTerminal);
+      succeed(code, node, 1);
+      code.bind(notTerminal);
+
+      // Trailing slash in path?
+      optionalTrailingSlash(code);
+      code.jump(IFEQ, edges);
+      code.iload(LIMIT).iconst(1).iadd().iload(LENGTH).jump(IF_ICMPNE, notEnd);
+      succeed(code, node, 1);
+      code.bind(notEnd);
+      code.aload(PATH).iload(LIMIT).iconst(1).iadd();
+      code.invokeinterface(CHAR_SEQUENCE, "charAt", "(I)C", 1);
+      code.iconst(QUERY).jump(IF_ICMPNE, edges);
+      code.aload(CAPTOR_).iload(LIMIT).iconst(2).iadd().iload(LENGTH);
+      code.invokevirtual(CAPTOR, "query", "(II)V");
+      succeed(code, node, 1);
+    }
+
+    // Fanout
+    code.bind(edges);
+    if (edge != -1) {
+      code.aload(PATH).iload(I).aload(CAPTOR_).iload(CAPTURE).iconst(1).iadd();
+      invokeFanout(code, edge, fanout);
+      code.istore(RESULT);
+      code.iload(RESULT).jump(IFLT, backtrack);
+      captureAndReturn(code);
+      code.bind(backtrack);
+
+      // Capturing a partial segment, back-track.
+      if (!full) {
+        final Label backtrackLoop = code.label();
+        final Label notFound = code.label();
+        code.iload(LIMIT).iconst(-1).iadd().istore(I);
+        code.bind(backtrackLoop);
+        code.iload(I).iload(INDEX).jump(IF_ICMPLT, done);
+        if (typed) {
+          validate(code, node, I);
+          code.jump(IFEQ, notFound);
+        }
+        code.aload(PATH).iload(I).aload(CAPTOR_).iload(CAPTURE).iconst(1).iadd();
+        invokeFanout(code, edge, fanout);
+        code.istore(RESULT);
+        code.iload(RESULT).jump(IFLT, notFound);
+        captureAndReturn(code);
+        code.bind(notFound);
+        code.iinc(I, -1);
+        code.jump(backtrackLoop);
+      }
+    }
+    code.bind(done);
+  }
+
+  /**
+   * Generate a path capture. Always matches.
+   */
+  private void capturePath(final Code code, final int node) {
+    final Label bound = code.label();
+    final Label found = code.label();
+
+    // Find capture bound
+    indexOf(code, "indexOfQuery");
+    code.iload(I).jump(IFGE, found);
+    code.iload(LENGTH).istore(I);
+    code.jump(bound);
+    code.bind(found);
+    query(code, I, 1);
+    code.bind(bound);
+
+    code.aload(CAPTOR_).iload(CAPTURE).iconst(1).iadd().invokevirtual(CAPTOR, "match", "(I)V");
+    code.aload(CAPTOR_).iload(CAPTURE).iload(INDEX).iload(I);
+    code.invokevirtual(CAPTOR, "capture", "(III)V");
+    code.iconst(node).ireturn();
+  }
+
+  /**
+   * Record a match with the given number of additional captures and return the node.
+   */
+  private void succeed(final Code code, final int node, final int captured) {
+    code.aload(CAPTOR_).iload(CAPTURE);
+    if (captured != 0) {
+      code.iconst(captured).iadd();
+    }
+    code.invokevirtual(CAPTOR, "match", "(I)V");
+    if (captured != 0) {
+      code.aload(CAPTOR_).iload(CAPTURE).iload(INDEX).iload(LIMIT);
+      code.invokevirtual(CAPTOR, "capture", "(III)V");
+    }
+    code.iconst(node).ireturn();
+  }
+
+  /**
+   * Record the segment capture ending at the current index and return the result.
+   */
+  private void captureAndReturn(final Code code) {
+    code.aload(CAPTOR_).iload(CAPTURE).iload(INDEX).iload(I);
+    code.invokevirtual(CAPTOR, "capture", "(III)V");
+    code.iload(RESULT).ireturn();
+  }
+
+  private void returnIfFound(final Code code) {
+    final Label notFound = code.label();
+    code.istore(RESULT);
+    code.iload(RESULT).jump(IFLT, notFound);
+    code.iload(RESULT).ireturn();
+    code.bind(notFound);
+  }
+
+  /**
+   * Get the name of the {@link Parameters} method that validates the values captured by a typed
+   * seg capture with head {@code head}, or null if the capture is not typed.
+   */
+  private static String validator(final byte head) {
+    switch (head) {
+      case RadixTrie.CAPTURE_INT:
+        return "isInt";
+      case RadixTrie.CAPTURE_LONG:
+        return "isLong";
+      case RadixTrie.CAPTURE_UUID:
+        return "isUuid";
+      case RadixTrie.CAPTURE_HEX:
+        return "isHex";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Push whether the value from {@code INDEX} to {@code end} is valid for the typed or regex
+   * constrained seg capture {@code node}. A regex constraint runs its DFA table, embedded as a
+   * string constant.
+   */
+  private void validate(final Code code, final int node, final int end) {
+    final Constraint constraint = trie.constraints[node];
+    if (constraint != null) {
+      code.ldc(constraint.table()).aload(PATH).iload(INDEX).iload(end);
+      code.invokestatic(CONSTRAINT, "matches", "(L" + STRING + ";L" + CHAR_SEQUENCE + ";II)Z");
+      return;
+    }
+    code.aload(PATH).iload(INDEX).iload(end);
+    code.invokestatic(PARAMETERS, validator(trie.heads[node]), "(L" + CHAR_SEQUENCE + ";II)Z");
+  }
+
+  private void query(final Code code, final int local, final int offset) {
+    code.aload(CAPTOR_).iload(local).iconst(offset).iadd().iload(LENGTH);
+    code.invokevirtual(CAPTOR, "query", "(II)V");
+  }
+
+  /**
+   * Store the index of the first capture bound from {@code INDEX} to {@code LENGTH}, or -1, in
+   * {@code I}, using the {@link RadixTrie.Captor} method {@code name}.
+   */
+  private void indexOf(final Code code, final String name) {
+    code.aload(CAPTOR_).aload(PATH).iload(INDEX).iload(LENGTH);
+    code.invokevirtual(CAPTOR, name, "(L" + CHAR_SEQUENCE + ";II)I");
+    code.istore(I);
+  }
+
+  private void charAt(final Code code, final int local) {
+    code.aload(PATH).iload(local).invokeinterface(CHAR_SEQUENCE, "charAt", "(I)C", 1);
+  }
+
+  private void optionalTrailingSlash(final Code code) {
+    code.aload(CAPTOR_).getfield(CAPTOR, "optionalTrailingSlash", "Z");
+  }
+
+  /**
+   * Define a class in this package as a hidden class, which is unloaded along with the trie that
+   * uses it. Hidden classes require Java 15 or later. Earlier runtimes could only define the class
+   * permanently in the class loader of this package, leaking a class for every specialized trie,
+   * so they are not supported.
+   *
+   * @throws ClassNotFoundException if hidden classes are not supported.
+   */
+  private static Class<?> define(final byte[] bytes) throws ReflectiveOperationException {
+    final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    final Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+    final Object options = Array.newInstance(option, 0);
+    final Method defineHiddenClass = MethodHandles.Lookup.class.getMethod(
+        "defineHiddenClass", byte[].class, boolean.class, options.getClass());
+    final Object hidden = defineHiddenClass.invoke(lookup, bytes, true, options);
+    return ((MethodHandles.Lookup) hidden).lookupClass();
+  }
+}
@@ -0,0 +1,140 @@
+package io.norberg.rut;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Word at a time (SWAR) operations on byte arrays. Eight bytes are read at once as a little endian
+ * {@code long} through a byte array view var handle, where the runtime has one. Long comparisons
+ * use the vectorized {@code Arrays.mismatch} of the runtime, where it has one. Otherwise the
+ * operations fall back to a byte at a time.
+ */
+final class Swar {
+
+  /**
+   * Comparisons at least this long are handed to {@code Arrays.mismatch}.
+   */
+  static final int VECTOR_LENGTH = 32;
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+
+  private static final MethodHandle LONGS = longs();
+  private static final MethodHandle MISMATCH = mismatch();
+
+  private Swar() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Compare {@code length} bytes of {@code a} starting at {@code aOffset} to {@code b} starting at
+   * {@code bOffset}.
+   *
+   * @return The offset of the first mismatching byte, or -1 if all bytes match.
+   */
+  static int mismatch(final byte[] a, final int aOffset, final byte[] b, final int bOffset,
+                      final int length) {
+    int i = 0;
+    if (LONGS != null) {
+      if (MISMATCH != null && length >= VECTOR_LENGTH) {
+        try {
+          return (int) MISMATCH.invokeExact(a, aOffset, aOffset + length,
+                                            b, bOffset, bOffset + length);
+        } catch (Throwable e) {
+          throw new AssertionError(e);
+        }
+      }
+      for (; i + 8 <= length; i += 8) {
+        final long x = getLong(a, aOffset + i) ^ getLong(b, bOffset + i);
+        if (x != 0) {
+          return i + (Long.numberOfTrailingZeros(x) >>> 3);
+        }
+      }
+    }
+    for (; i < length; i++) {
+      if (a[aOffset + i] != b[bOffset + i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Find the first occurrence of either {@code x} or {@code y} in {@code a} between {@code start}
+   * and {@code end}.
+   *
+   * @return The index of the first occurrence, or -1 if there is none.
+   */
+  static int indexOf(final byte[] a, final byte x, final byte y, final int start, final int end) {
+    int i = start;
+    if (LONGS != null) {
+      final long xs = (x & 0xFF) * ONES;
+      final long ys = (y & 0xFF) * ONES;
+      for (; i + 8 <= end; i += 8) {
+        final long word = getLong(a, i);
+        final long found = zeros(word ^ xs) | zeros(word ^ ys);
+        if (found != 0) {
+          return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+      }
+    }
+    for (; i < end; i++) {
+      final byte b = a[i];
+      if (b == x || b == y) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Get a word with the high bit set in each byte that is zero in {@code word}, and all other bits
+   * clear.
+   */
+  private static long zeros(final long word) {
+    final long t = (word & LOWS) + LOWS;
+    return ~(t | word | LOWS);
+  }
+
+  private static long getLong(final byte[] a, final int index) {
+    try {
+      return (long) LONGS.invokeExact(a, index);
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Get a handle reading a little endian long from a byte array at a byte index. Var handles are
+   * looked up reflectively to keep this class loadable on runtimes without them.
+   */
+  private static MethodHandle longs() {
+    try {
+      final Method view = MethodHandles.class.getMethod(
+          "byteArrayViewVarHandle", Class.class, ByteOrder.class);
+      final Object handle = view.invoke(null, long[].class, ByteOrder.LITTLE_ENDIAN);
+      final Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+      final Class<?> accessMode = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+      final Object get = accessMode.getField("GET").get(null);
+      final Method toMethodHandle = varHandle.getMethod("toMethodHandle", accessMode);
+      final MethodHandle longs = (MethodHandle) toMethodHandle.invoke(handle, get);
+      return longs.asType(MethodType.methodType(long.class, byte[].class, int.class));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  private static MethodHandle mismatch() {
+    try {
+      return MethodHandles.publicLookup().findStatic(
+          Arrays.class, "mismatch", MethodType.methodType(
+              int.class, byte[].class, int.class, int.class, byte[].class, int.class, int.class));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
@@ -1,160 +1,335 @@
 package io.norberg.rut;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-
-import static java.util.Collections.reverse;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 final class Trie<T> {
 
   private static final char CAPTURE_SEG = 0x1000;
   private static final char CAPTURE_PATH = 0x2000;
 
-  private final Map<Character, Node<T>> roots = new TreeMap<Character, Node<T>>();
+  /**
+   * Typed seg captures are ordered before the seg capture, keyed by their {@link RadixTrie} head.
+   */
+  private static final char CAPTURE_TYPED = 0x0800;
+
+  /**
+   * Regex constrained seg captures are ordered after the typed captures, by expression. They are
+   * kept apart from the other edges, as they cannot be keyed by a char.
+   */
+  private static final char CAPTURE_REGEX = 0x0C00;
+
+  /**
+   * Subtrees that at least this many routes pass through are compressed in a task of their own
+   * when compressing in parallel.
+   */
+  private static final int FORK_ROUTES = 1024;
+
+  private final Node<T> root = new Node<T>((char) 0);
 
   T insert(final Path path, final T value) {
     return insert(path, new DefaultVisitor(value));
   }
 
   T insert(final Path path, final Visitor<T> visitor) {
-    return insert(path, null, roots, 0, visitor);
+    Node<T> node = root;
+    for (final Path.Part part : path.parts()) {
+      if (part instanceof Path.Match) {
+        final String string = ((Path.Match) part).string();
+        for (int i = 0; i < string.length(); i++) {
+          node = node.edge(string.charAt(i));
+        }
+      } else if (part instanceof Path.CaptureSegment &&
+                 ((Path.CaptureSegment) part).constraint() != null) {
+        node = node.edge(((Path.CaptureSegment) part).constraint());
+      } else {
+        node = node.edge(capture((Path.Capture) part));
+      }
+    }
+    final T old = node.value;
+    node.value = visitor.finish(node.value);
+    return old;
   }
 
-  private static <T> T insert(final Path path, final Node<T> node,
-                              final Map<Character, Node<T>> edges,
-                              final int partIndex, final Visitor<T> visitor) {
-    if (partIndex == path.parts().size()) {
-      final T old = node.value;
-      node.value = visitor.finish(node.value);
-      return old;
+  private static char capture(final Path.Capture capture) {
+    switch (capture.type()) {
+      case SEGMENT:
+        return CAPTURE_SEG;
+      case PATH:
+        return CAPTURE_PATH;
+      default:
+        return (char) (CAPTURE_TYPED | (RadixTrie.captureHead(capture.type()) & 0xFF));
     }
+  }
 
-    final Path.Part part = path.parts().get(partIndex);
+  private static boolean isCapture(final char c) {
+    return c >= CAPTURE_TYPED;
+  }
 
-    if (part instanceof Path.Match) {
-      return insertMatch(path, node, edges, partIndex, visitor, (Path.Match) part, 0);
-    }
-    if (part instanceof Path.CaptureSegment) {
-      return insertCaptureSegment(path, edges, partIndex, visitor);
-    }
-    // part instanceof Path.CapturePath
-    return insertCapturePath(edges, visitor);
+  RadixTrie<T> compress() {
+    return compress(new NodePool());
   }
 
-  private static <T> T insertCapturePath(final Map<Character, Node<T>> edges,
-                                         final Visitor<T> visitor) {
-    Node<T> capture = edges.get(CAPTURE_PATH);
-    if (capture == null) {
-      capture = new Node<T>(CAPTURE_PATH);
-      edges.put(CAPTURE_PATH, capture);
-    }
-    final T old = capture.value;
-    capture.value = visitor.finish(capture.value);
-    return old;
+  /**
+   * Compress the trie, sharing identical subtrees with each other and with the nodes in {@code
+   * nodes}.
+   */
+  RadixTrie<T> compress(final NodePool nodes) {
+    return RadixTrie.compile(compressEdges(root), nodes);
   }
 
-  private static <T> T insertCaptureSegment(final Path path, final Map<Character, Node<T>> edges,
-                                            final int partIndex, final Visitor<T> visitor) {
-    Node<T> capture = edges.get(CAPTURE_SEG);
-    if (capture == null) {
-      capture = new Node<T>(CAPTURE_SEG);
-      edges.put(CAPTURE_SEG, capture);
-    }
-    return insert(path, capture, capture.edges, partIndex + 1, visitor);
+  /**
+   * Compress the trie, compressing large independent subtrees in parallel on a fork/join pool.
+   */
+  RadixTrie<T> compressParallel() {
+    return compressParallel(new NodePool());
   }
 
-  private static <T> T insertMatch(final Path path, final Node<T> node,
-                                   final Map<Character, Node<T>> edges,
-                                   final int pi, final Visitor<T> visitor,
-                                   final Path.Match part, final int ci) {
-    final String string = part.string();
-    if (ci == string.length()) {
-      return insert(path, node, edges, pi + 1, visitor);
-    }
-    final char c = string.charAt(ci);
-    Node<T> next = edges.get(c);
-    if (next == null) {
-      next = new Node<T>(c);
-      edges.put(c, next);
+  /**
+   * Compress the trie in parallel, sharing identical subtrees with each other and with the nodes
+   * in {@code nodes}.
+   */
+  RadixTrie<T> compressParallel(final NodePool nodes) {
+    final ForkJoinPool pool = new ForkJoinPool();
+    try {
+      return RadixTrie.compile(pool.invoke(new Compression<T>(root)), nodes);
+    } finally {
+      pool.shutdown();
     }
-
-    return insertMatch(path, next, next.edges, pi, visitor, part, ci + 1);
   }
 
-  RadixTrie<T> compress() {
-    return new RadixTrie<T>(compressEdges(roots));
+  private static <T> RadixTrie.Node<T> compressEdges(final Node<T> node) {
+    RadixTrie.Node<T> compressed = null;
+    for (int i = node.children() - 1; i >= 0; i--) {
+      final Node<T> edge = node.child(i);
+      final Node<T> end = edge.end();
+      compressed = edge.compress(end, compressEdges(end), compressed);
+    }
+    return compressed;
   }
 
-  private static <T> RadixTrie.Node<T> compressEdges(final Map<Character, Node<T>> nodes) {
-    RadixTrie.Node<T> node = null;
-    for (final Node<T> e : reversed(nodes.values())) {
-      node = e.compress(node);
+  /**
+   * Compresses the edges of a node, forking a task for each edge subtree that is large enough.
+   */
+  @SuppressWarnings("serial")
+  private static final class Compression<T> extends RecursiveTask<RadixTrie.Node<T>> {
+
+    private final Node<T> node;
+
+    private Compression(final Node<T> node) {
+      this.node = node;
+    }
+
+    @Override
+    protected RadixTrie.Node<T> compute() {
+      final int size = node.children();
+      final Node<T>[] ends = Node.nodes(size);
+      final Compression<T>[] tasks = tasks(size);
+      for (int i = 0; i < size; i++) {
+        ends[i] = node.child(i).end();
+        if (ends[i].routes >= FORK_ROUTES) {
+          tasks[i] = new Compression<T>(ends[i]);
+          tasks[i].fork();
+        }
+      }
+      RadixTrie.Node<T> compressed = null;
+      for (int i = size - 1; i >= 0; i--) {
+        final RadixTrie.Node<T> edge = (tasks[i] == null)
+                                       ? compressEdges(ends[i])
+                                       : tasks[i].join();
+        compressed = node.child(i).compress(ends[i], edge, compressed);
+      }
+      return compressed;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Compression<T>[] tasks(final int size) {
+      return (Compression<T>[]) new Compression[size];
     }
-    return node;
   }
 
   private final static class Node<T> {
 
     private static final char SLASH = '/';
+    private static final char[] NO_KEYS = new char[0];
 
     private final char c;
-    private final Map<Character, Node<T>> edges = new TreeMap<Character, Node<T>>();
+    private final Constraint constraint;
+
+    // Edges ordered by char, and the number of edges
+    private char[] keys = NO_KEYS;
+    private Node<T>[] edges;
+    private int size;
+
+    // Regex capture edges ordered by expression, and the number of regex capture edges
+    private Node<T>[] regexes;
+    private int regexCount;
+
+    // The number of routes inserted through this node
+    private int routes;
+
     private T value;
 
     private Node(final char c) {
       this(c, null);
     }
 
-    private Node(final char c, final T value) {
+    private Node(final char c, final Constraint constraint) {
       this.c = c;
-      this.value = value;
+      this.constraint = constraint;
+    }
+
+    /**
+     * Get the number of edges, including regex capture edges.
+     */
+    private int children() {
+      return size + regexCount;
+    }
+
+    /**
+     * Get the edge at index {@code i} in sibling order: match and typed capture edges, regex
+     * capture edges, and then the seg and path capture edges.
+     */
+    private Node<T> child(final int i) {
+      int captures = size;
+      while (captures > 0 && keys[captures - 1] >= CAPTURE_SEG) {
+        captures--;
+      }
+      if (i < captures) {
+        return edges[i];
+      }
+      if (i < captures + regexCount) {
+        return regexes[i - captures];
+      }
+      return edges[i - regexCount];
+    }
+
+    /**
+     * Get the regex capture edge for {@code constraint}, adding it if it does not exist.
+     */
+    private Node<T> edge(final Constraint constraint) {
+      routes++;
+      int low = 0;
+      int high = regexCount - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final int order = regexes[mid].constraint.regex().compareTo(constraint.regex());
+        if (order < 0) {
+          low = mid + 1;
+        } else if (order > 0) {
+          high = mid - 1;
+        } else {
+          return regexes[mid];
+        }
+      }
+      if (regexes == null || regexCount == regexes.length) {
+        regexes = (regexes == null) ? Node.<T>nodes(2) : Arrays.copyOf(regexes, regexCount * 2);
+      }
+      System.arraycopy(regexes, low, regexes, low + 1, regexCount - low);
+      final Node<T> edge = new Node<T>(CAPTURE_REGEX, constraint);
+      regexes[low] = edge;
+      regexCount++;
+      return edge;
+    }
+
+    /**
+     * Get the edge for {@code c}, adding it if it does not exist. Edges are found and added in
+     * constant time when routes are inserted in order.
+     */
+    private Node<T> edge(final char c) {
+      routes++;
+      int i = size;
+      if (size > 0 && keys[size - 1] >= c) {
+        if (keys[size - 1] == c) {
+          return edges[size - 1];
+        }
+        i = Arrays.binarySearch(keys, 0, size, c);
+        if (i >= 0) {
+          return edges[i];
+        }
+        i = -(i + 1);
+      }
+      if (size == keys.length) {
+        final int capacity = (size == 0) ? 2 : size * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        edges = (edges == null) ? Node.<T>nodes(capacity) : Arrays.copyOf(edges, capacity);
+      }
+      System.arraycopy(keys, i, keys, i + 1, size - i);
+      System.arraycopy(edges, i, edges, i + 1, size - i);
+      final Node<T> edge = new Node<T>(c);
+      keys[i] = c;
+      edges[i] = edge;
+      size++;
+      return edge;
     }
 
-    private RadixTrie.Node<T> compress(final RadixTrie.Node<T> sibling) {
+    /**
+     * Get the last node of the chain of match nodes that is compressed into this node.
+     */
+    private Node<T> end() {
+      if (isCapture(c)) {
+        return this;
+      }
+      Node<T> node = this;
+      while (node.value == null && node.children() == 1) {
+        final Node<T> next = node.child(0);
+        if (isCapture(next.c)) {
+          break;
+        }
+        node = next;
+      }
+      return node;
+    }
+
+    /**
+     * Compress this node and the chain of match nodes down to {@code end} into a single node.
+     *
+     * @param edge    The compressed edges of {@code end}.
+     * @param sibling The compressed next sibling of this node.
+     */
+    private RadixTrie.Node<T> compress(final Node<T> end, final RadixTrie.Node<T> edge,
+                                       final RadixTrie.Node<T> sibling) {
       if (c == CAPTURE_SEG) {
-        if (edges.size() == 0) {
+        if (children() == 0) {
           return RadixTrie.Node.terminalCaptureSeg(sibling, value);
         }
-        if (edges.size() == 1) {
-          final Node<T> edge = edges.values().iterator().next();
-          if (edge.c == SLASH) {
-            return RadixTrie.Node.captureFullSeg(sibling, compressEdges(edges), value);
-          }
+        if (children() == 1 && child(0).c == SLASH) {
+          return RadixTrie.Node.captureFullSeg(sibling, edge, value);
         }
-        return RadixTrie.Node.captureSeg(sibling, compressEdges(edges), value);
+        return RadixTrie.Node.captureSeg(sibling, edge, value);
       } else if (c == CAPTURE_PATH) {
         return RadixTrie.Node.capturePath(sibling, value);
+      } else if (c == CAPTURE_REGEX) {
+        final boolean full = children() == 0 || (children() == 1 && child(0).c == SLASH);
+        return RadixTrie.Node.captureRegex(constraint, full, sibling, edge, value);
+      } else if (isCapture(c)) {
+        final boolean full = children() == 0 || (children() == 1 && child(0).c == SLASH);
+        return RadixTrie.Node.captureTyped((byte) c, full, sibling, edge, value);
       }
 
-      final StringBuilder prefix = new StringBuilder();
-      final Node<T> end = compress(prefix);
-      final RadixTrie.Node<T> edge = compressEdges(end.edges);
-
-      return RadixTrie.Node.match(prefix, sibling, edge, end.value);
-    }
-
-    private Node<T> compress(final StringBuilder prefix) {
+      int length = 0;
+      for (Node<T> node = this; node != end; node = node.edges[0]) {
+        length++;
+      }
+      final byte[] tail = (length == 0) ? null : new byte[length];
       Node<T> node = this;
-      while (true) {
-        prefix.append(node.c);
-        if (node.value != null || node.edges.size() != 1) {
-          return node;
-        }
-        final Node<T> next = node.edges.values().iterator().next();
-        if (next.c == CAPTURE_SEG || next.c == CAPTURE_PATH) {
-          return node;
-        }
-        node = next;
+      for (int i = 0; i < length; i++) {
+        node = node.edges[0];
+        tail[i] = (byte) node.c;
       }
+      return RadixTrie.Node.match((byte) c, tail, sibling, edge, end.value);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Node<T>[] nodes(final int size) {
+      return (Node<T>[]) new Node[size];
     }
 
     @Override
     public String toString() {
       return "Node{'" + name() + "'" +
-             ", edges=" + edges.size() +
+             ", edges=" + children() +
              ", value=" + value +
              '}';
     }
@@ -165,16 +340,19 @@ final class Trie<T> {
           return "<*>";
         case CAPTURE_PATH:
           return "<*:path>";
+        case CAPTURE_REGEX:
+          return "<*:" + constraint + ">";
         default:
-          return String.valueOf(c);
+          return isCapture(c) ? "<*:" + RadixTrie.captureType((byte) c) + ">" : String.valueOf(c);
       }
     }
   }
 
   @Override
   public String toString() {
+    final Node<T>[] roots = (root.size == 0) ? Node.<T>nodes(0) : root.edges;
     return "Trie{" +
-           "roots=" + roots +
+           "roots=" + Arrays.asList(roots).subList(0, root.size) +
            '}';
   }
 
@@ -199,10 +377,4 @@ final class Trie<T> {
       return value;
     }
   }
-
-  private static <T> Collection<T> reversed(final Collection<T> values) {
-    final List<T> list = new ArrayList<T>(values);
-    reverse(list);
-    return list;
-  }
 }
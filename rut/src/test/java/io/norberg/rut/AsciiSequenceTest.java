@@ -0,0 +1,93 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AsciiSequenceTest {
+
+  private static final byte[] BYTES = "GET /foo/bar".getBytes();
+
+  @Test
+  public void testArray() {
+    final AsciiSequence s = new AsciiSequence().wrap(BYTES, 4, 8);
+    assertThat(s.length(), is(8));
+    assertThat(s.charAt(0), is('/'));
+    assertThat(s.subSequence(1, 4).toString(), is("foo"));
+    assertThat(s.toString(), is("/foo/bar"));
+  }
+
+  @Test
+  public void testHeapBuffer() {
+    final ByteBuffer buffer = ByteBuffer.wrap(BYTES);
+    buffer.position(4);
+    final ByteBuffer slice = buffer.slice();
+    final AsciiSequence s = new AsciiSequence().wrap(slice, 1, 3);
+    assertThat(s.toString(), is("foo"));
+  }
+
+  @Test
+  public void testIndexOf() {
+    final byte[] bytes = "GET /users/0123456789abcdef/profile?q".getBytes();
+    final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    for (final AsciiSequence s : new AsciiSequence[]{
+        new AsciiSequence().wrap(bytes, 4, bytes.length - 4),
+        new AsciiSequence().wrap(direct, 4, bytes.length - 4)}) {
+      assertThat(s.indexOf('/', '?', 0, s.length()), is(0));
+      assertThat(s.indexOf('/', '?', 1, s.length()), is(6));
+      assertThat(s.indexOf('/', '?', 7, s.length()), is(23));
+      assertThat(s.indexOf('/', '?', 24, s.length()), is(31));
+      assertThat(s.indexOf('/', '?', 24, 31), is(-1));
+    }
+  }
+
+  @Test
+  public void testMismatch() {
+    final byte[] bytes = "GET /internal/metrics/v2/foo".getBytes();
+    final byte[] tail = "internal/metrics/v2/".getBytes();
+    final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    for (final AsciiSequence s : new AsciiSequence[]{
+        new AsciiSequence().wrap(bytes, 4, bytes.length - 4),
+        new AsciiSequence().wrap(direct, 4, bytes.length - 4)}) {
+      assertThat(s.mismatch(1, tail, 0, tail.length), is(-1));
+      assertThat(s.mismatch(1, tail, 1, tail.length - 1), is(0));
+      assertThat(s.mismatch(2, tail, 1, tail.length - 1), is(-1));
+      assertThat(s.mismatch(1, "internal/metrics/v3/".getBytes(), 0, tail.length), is(18));
+    }
+  }
+
+  @Test
+  public void testDirectBuffer() {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(BYTES.length);
+    buffer.put(BYTES).flip();
+    final AsciiSequence s = new AsciiSequence().wrap(buffer, 0, 3);
+    assertThat(s.toString(), is("GET"));
+    assertThat(buffer.position(), is(0));
+  }
+
+  @Test
+  public void testNonAscii() {
+    final AsciiSequence s = new AsciiSequence().wrap(new byte[]{(byte) 0xE4}, 0, 1);
+    assertThat(s.charAt(0), is((char) 0xE4));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyArrayBoundsChecked() {
+    new AsciiSequence().wrap(BYTES, 4, 9);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyBufferBoundsChecked() {
+    new AsciiSequence().wrap(ByteBuffer.wrap(BYTES), 4, 9);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifySubSequenceBoundsChecked() {
+    new AsciiSequence().wrap(BYTES, 4, 8).subSequence(2, 9);
+  }
+}
@@ -0,0 +1,34 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CharSequenceViewTest {
+
+  @Test
+  public void testWrap() {
+    final CharSequenceView view = new CharSequenceView();
+    assertThat(view.wrap("foo/bar", 4, 7).toString(), is("bar"));
+    assertThat(view.length(), is(3));
+    assertThat(view.charAt(0), is('b'));
+    assertThat(view.subSequence(1, 3).toString(), is("ar"));
+    assertThat(view.wrap("foo/bar", 0, 0).toString(), is(""));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyWrapOutOfBoundsThrows() {
+    new CharSequenceView().wrap("foo", 1, 4);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyCharAtOutOfBoundsThrows() {
+    new CharSequenceView().wrap("foo/bar", 0, 3).charAt(3);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifySubSequenceOutOfBoundsThrows() {
+    new CharSequenceView().wrap("foo/bar", 0, 3).subSequence(2, 4);
+  }
+}
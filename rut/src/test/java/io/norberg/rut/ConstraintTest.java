@@ -0,0 +1,99 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ConstraintTest {
+
+  @Test
+  public void testMatches() {
+    final Constraint constraint = Constraint.compile("v[0-9]+(\\.\\d{1,2})?");
+    assertThat(constraint.matches("/v1/", 1, 3), is(true));
+    assertThat(constraint.matches("v1.23", 0, 5), is(true));
+    assertThat(constraint.matches("v1.234", 0, 6), is(false));
+    assertThat(constraint.matches("v1.", 0, 3), is(false));
+    assertThat(constraint.matches("v", 0, 1), is(false));
+    assertThat(constraint.matches("", 0, 0), is(false));
+    assertThat(constraint.matches("v1ä", 0, 3), is(false));
+  }
+
+  @Test
+  public void testLastMatch() {
+    final String table = Constraint.compile("a*b?").table();
+    assertThat(Constraint.lastMatch(table, "aab.", 0, 4), is(3));
+    assertThat(Constraint.lastMatch(table, "aab.", 0, 2), is(2));
+    assertThat(Constraint.lastMatch(table, "x", 0, 1), is(0));
+    assertThat(Constraint.lastMatch(Constraint.compile("a+").table(), "x", 0, 1), is(-1));
+  }
+
+  @Test
+  public void testSyntax() {
+    verifyLikePattern("[^/]+", "foo", "", "a-b");
+    verifyLikePattern("[a-fA-F0-9-]{2,}", "a-", "0", "-Ff9", "g1");
+    verifyLikePattern("\\w+\\W\\s?\\S", "a_1.b", "a. b", "a.  b", "ab");
+    verifyLikePattern("(ab|c)*d|e{2}", "d", "abcd", "ee", "e", "abce");
+    verifyLikePattern("a.c\\.\\*", "abc.*", "a.c.*", "abcx*");
+    verifyLikePattern("[\\]a]+|[a-]", "]a]", "-", "b");
+    verifyLikePattern("x{0}y{1,}", "y", "yyy", "xy", "");
+  }
+
+  @Test
+  public void testRandomStringsMatchLikePattern() {
+    final String[] regexes = {"(a|ab)(c|bcd)(d*)", "[ab]*a[ab]{2}", "(a?){3}a{3}", "((a|b)*c)+"};
+    final char[] chars = {'a', 'b', 'c', 'd'};
+    final Random random = new Random(4711);
+    for (final String regex : regexes) {
+      final Constraint constraint = Constraint.compile(regex);
+      final Pattern pattern = Pattern.compile(regex);
+      for (int i = 0; i < 1000; i++) {
+        final StringBuilder b = new StringBuilder();
+        final int n = random.nextInt(10);
+        for (int j = 0; j < n; j++) {
+          b.append(chars[random.nextInt(chars.length)]);
+        }
+        final String s = b.toString();
+        assertThat(regex + " " + s, constraint.matches(s, 0, s.length()),
+                   is(pattern.matcher(s).matches()));
+      }
+    }
+  }
+
+  @Test
+  public void testInvalid() {
+    final String[] invalid = {"(a", "a)", "[a", "[z-a]", "*a", "a{2,1}", "a{", "a\\",
+                              "\\q", "^a", "a$", "(?:a)", "[[a]]", "(a{1000}){1000}",
+                              "[ab]*a[ab]{8}"};
+    for (final String regex : invalid) {
+      try {
+        Constraint.compile(regex);
+        fail(regex);
+      } catch (IllegalArgumentException e) {
+        assertThat(regex, e.getMessage().startsWith("Invalid capture constraint: " + regex),
+                   is(true));
+      }
+    }
+  }
+
+  @Test
+  public void testEquals() {
+    assertThat(Constraint.compile("a+").equals(Constraint.compile("a+")), is(true));
+    assertThat(Constraint.compile("a+").equals(Constraint.compile("aa*")), is(false));
+    assertThat(Constraint.compile("a+").hashCode(), is("a+".hashCode()));
+    assertThat(Constraint.compile("a+").toString(), is("a+"));
+  }
+
+  private static void verifyLikePattern(final String regex, final String... strings) {
+    final Constraint constraint = Constraint.compile(regex);
+    final Pattern pattern = Pattern.compile(regex);
+    for (final String s : strings) {
+      assertThat(regex + " " + s, constraint.matches(s, 0, s.length()),
+                 is(pattern.matcher(s).matches()));
+    }
+  }
+}
@@ -2,7 +2,12 @@ package io.norberg.rut;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.util.Random;
 
 import static com.google.common.net.UrlEscapers.urlPathSegmentEscaper;
 import static io.norberg.rut.Encoding.decode;
@@ -11,6 +16,7 @@ import static java.lang.Character.MAX_SURROGATE;
 import static java.lang.Character.MIN_CODE_POINT;
 import static java.lang.Character.MIN_SURROGATE;
 import static java.lang.Character.toChars;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
@@ -225,6 +231,73 @@ public class EncodingTest {
     assertThat(decode(FOUR_BYTES_ENCODED_PERCENT_INVALID), is(nullValue()));
   }
 
+  @Test
+  public void testDecodeRegion() {
+    final String s = "/a%E2%82%ACb" + FOUR_BYTES_ENCODED + "/";
+    final char[] dst = new char[s.length() + 1];
+    final int n = decode(s, 1, s.length() - 1, dst, 1);
+    assertThat(new String(dst, 1, n), is("a" + THREE_BYTES_A + "b" + FOUR_BYTES));
+    assertThat(decode(s, 1, 5, dst, 0), is(-1));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyDecodeRegionTooSmallDestinationThrows() {
+    decode("%24%24", 0, 6, new char[5], 0);
+  }
+
+  @Test
+  public void verifyUnencodedContinuationFails() {
+    assertThat(decode("%C3aa"), is(nullValue()));
+    assertThat(decode("%E2%82ac"), is(nullValue()));
+  }
+
+  @Test
+  public void testRandomMatchesStrictUtf8Decoder() throws Exception {
+    final String[] parts = {"a", "%", "%2", "%2F", "%7f", "%C3", "%A4", "%c3%a4", "%E2", "%82",
+                            "%AC", "%ED", "%BF", "%F0", "%9F", "%98", "%80", "%F4", "%90", "%Fg"};
+    final Random random = new Random(4711);
+    for (int i = 0; i < 100000; i++) {
+      final StringBuilder b = new StringBuilder();
+      final int n = random.nextInt(8);
+      for (int j = 0; j < n; j++) {
+        b.append(parts[random.nextInt(parts.length)]);
+      }
+      final String s = b.toString();
+
+      // Surrogate code points are not rejected, unlike by the strict decoder
+      if (s.toUpperCase().contains("%ED")) {
+        continue;
+      }
+      final CharSequence decoded = decode(s);
+      assertThat(s, decoded == null ? null : decoded.toString(), is(strictDecode(s)));
+    }
+  }
+
+  private static String strictDecode(final String s) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (c != '%') {
+        bytes.write(c);
+        continue;
+      }
+      if (i + 2 >= s.length() || Character.digit(s.charAt(i + 1), 16) == -1 ||
+          Character.digit(s.charAt(i + 2), 16) == -1) {
+        return null;
+      }
+      bytes.write(Integer.parseInt(s.substring(i + 1, i + 3), 16));
+      i += 2;
+    }
+    try {
+      return UTF_8.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPORT)
+          .onUnmappableCharacter(CodingErrorAction.REPORT)
+          .decode(ByteBuffer.wrap(bytes.toByteArray())).toString();
+    } catch (CharacterCodingException e) {
+      return null;
+    }
+  }
+
   @Test
   public void testEntireUnicodeRange() throws UnsupportedEncodingException {
     for (int i = MIN_CODE_POINT; i < MAX_CODE_POINT; i++) {
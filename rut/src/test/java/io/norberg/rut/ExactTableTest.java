@@ -0,0 +1,35 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ExactTableTest {
+
+  @Test
+  public void testLookup() {
+    final ExactTable<String> table = new ExactTable<String>(
+        asList("/", "/health", "/users/me", "/users/me/"), asList("a", "b", "c", "d"));
+    final RadixTrie.Captor captor = RadixTrie.captor(0);
+
+    assertThat(table.lookup("/", 0, captor), is("a"));
+    assertThat(captor.isMatch(), is(true));
+    assertThat(captor.values(), is(0));
+    assertThat(captor.queryStart(), is(-1));
+
+    assertThat(table.lookup("GET /users/me/?q=1", 4, captor), is("d"));
+    assertThat(captor.queryStart(), is(15));
+    assertThat(captor.queryEnd(), is(18));
+
+    assertThat(table.lookup("/health?", 0, captor), is("b"));
+    assertThat(captor.query("/health?").toString(), is(""));
+
+    assertThat(table.lookup("/users/m", 0, captor), is(nullValue()));
+    assertThat(table.lookup("/users/me//", 0, captor), is(nullValue()));
+    assertThat(table.lookup("", 0, captor), is(nullValue()));
+    assertThat(table.lookup("?/", 0, captor), is(nullValue()));
+  }
+}
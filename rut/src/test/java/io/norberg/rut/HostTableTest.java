@@ -0,0 +1,105 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class HostTableTest {
+
+  @Test
+  public void testLookup() {
+    final HostTable<String> table = table("example.com", "*.example.com", "www.example.com",
+                                          "*.eu.example.com", "example.org");
+    verifyLookup(table, "example.com", "example.com", -1);
+    verifyLookup(table, "EXAMPLE.Com", "example.com", -1);
+    verifyLookup(table, "www.example.com", "www.example.com", -1);
+    verifyLookup(table, "foo.example.com", "*.example.com", 3);
+    verifyLookup(table, "a.b.example.com", "*.example.com", 3);
+    verifyLookup(table, "eu.example.com", "*.example.com", 2);
+    verifyLookup(table, "Foo.EU.example.com", "*.eu.example.com", 3);
+    verifyLookup(table, "example.org", "example.org", -1);
+    verifyLookup(table, "www.example.org", null, -1);
+    verifyLookup(table, "com", null, -1);
+    verifyLookup(table, "xexample.com", null, -1);
+    verifyLookup(table, "", null, -1);
+  }
+
+  @Test
+  public void testAnyHost() {
+    final HostTable<String> table = table("*", "example.com");
+    verifyLookup(table, "example.com", "example.com", -1);
+    verifyLookup(table, "foo.example.com", "*", 15);
+    verifyLookup(table, "localhost", "*", 9);
+    verifyLookup(table, "", null, -1);
+  }
+
+  @Test
+  public void testManyHosts() {
+    final List<String> hosts = new ArrayList<String>();
+    for (int i = 0; i < 400; i++) {
+      hosts.add("tenant" + i + ".example.com");
+    }
+    final HostTable<String> table = new HostTable<String>(hosts, hosts);
+    for (final String host : hosts) {
+      verifyLookup(table, host.toUpperCase(), host, -1);
+    }
+    verifyLookup(table, "tenant400.example.com", null, -1);
+  }
+
+  @Test
+  public void testEnd() {
+    assertThat(HostTable.end("example.com"), is(11));
+    assertThat(HostTable.end("example.com:8080"), is(11));
+    assertThat(HostTable.end("example.com."), is(11));
+    assertThat(HostTable.end("example.com.:80"), is(11));
+    assertThat(HostTable.end("[::1]:8080"), is(5));
+    assertThat(HostTable.end("[::1]"), is(5));
+    assertThat(HostTable.end(""), is(0));
+  }
+
+  @Test
+  public void testNormalize() {
+    assertThat(HostTable.normalize("WWW.Example.COM."), is("www.example.com"));
+    assertThat(HostTable.normalize("*.Example.com"), is("*.example.com"));
+    assertThat(HostTable.normalize("*"), is("*"));
+    assertThat(HostTable.normalize("[::1]"), is("[::1]"));
+  }
+
+  @Test
+  public void testInvalid() {
+    final String[] invalid = {"", ".", "a..b", ".a", "a.*.b", "a*.b", "**.b", "a:80", "a/b",
+                              "[::1"};
+    for (final String host : invalid) {
+      try {
+        HostTable.normalize(host);
+        fail(host);
+      } catch (IllegalArgumentException e) {
+        assertThat(e.getMessage(), is("Invalid host: " + host));
+      }
+    }
+  }
+
+  private static HostTable<String> table(final String... hosts) {
+    return new HostTable<String>(Arrays.asList(hosts), Arrays.asList(hosts));
+  }
+
+  private static void verifyLookup(final HostTable<String> table, final String host,
+                                   final String expected, final int wildcardEnd) {
+    final int end = HostTable.end(host);
+    final HostTable.Entry<String> entry = table.lookup(host, end);
+    if (expected == null) {
+      assertThat(host, entry, is(nullValue()));
+      return;
+    }
+    assertThat(host, entry.value(), is(expected));
+    assertThat(host, entry.host(), is(expected));
+    assertThat(host, entry.wildcardEnd(end), is(wildcardEnd));
+  }
+}
@@ -0,0 +1,61 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MethodsTest {
+
+  @Test
+  public void testWellKnownMethods() {
+    final Methods methods = new Methods();
+    for (final HttpMethod method : HttpMethod.values()) {
+      assertThat(methods.id(method.name()), is(method.id()));
+      assertThat(methods.intern(method.name()), is(method.id()));
+      assertThat(methods.name(method.id()), is(method.name()));
+    }
+    assertThat(methods.size(), is(HttpMethod.values().length));
+  }
+
+  @Test
+  public void testIntern() {
+    final Methods methods = new Methods();
+    final String[] webdav = {"PROPFIND", "PROPPATCH", "MKCOL", "COPY", "MOVE", "LOCK", "UNLOCK",
+                             "REPORT", "MKACTIVITY", "CHECKOUT", "MERGE", "SEARCH", "UNCHECKOUT",
+                             "VERSION-CONTROL", "BIND", "UNBIND", "REBIND", "ACL", "LABEL"};
+    for (final String method : webdav) {
+      assertThat(methods.id(method), is(Methods.UNKNOWN));
+      final int id = methods.intern(method);
+      assertThat(methods.id(method), is(id));
+      assertThat(methods.id(new StringBuilder(method)), is(id));
+      assertThat(methods.name(id), is(method));
+    }
+    for (final String method : webdav) {
+      assertThat(methods.name(methods.id(method)), is(method));
+    }
+    assertThat(methods.size(), is(HttpMethod.values().length + webdav.length));
+  }
+
+  @Test
+  public void testSnapshot() {
+    final Methods methods = new Methods();
+    final int id = methods.intern("PROPFIND");
+    final Methods snapshot = methods.snapshot();
+    methods.intern("MKCOL");
+    assertThat(snapshot.id("PROPFIND"), is(id));
+    assertThat(snapshot.id("MKCOL"), is(Methods.UNKNOWN));
+  }
+
+  @Test
+  public void testUnknown() {
+    final Methods methods = new Methods();
+    assertThat(methods.id("get"), is(Methods.UNKNOWN));
+    assertThat(methods.id(""), is(Methods.UNKNOWN));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyNameOfUnknownIdThrows() {
+    new Methods().name(-1);
+  }
+}
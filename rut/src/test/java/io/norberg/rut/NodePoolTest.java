@@ -0,0 +1,31 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class NodePoolTest {
+
+  @Test
+  public void testIntern() {
+    final NodePool pool = new NodePool();
+    final String a = new String("a");
+    final String b = new String("a");
+    assertThat(pool.intern(a), is(sameInstance(a)));
+    assertThat(pool.intern(b), is(sameInstance(a)));
+    assertThat(pool.size(), is(1));
+  }
+
+  @Test
+  public void testLayout() {
+    final NodePool pool = new NodePool();
+    final String root = pool.intern("root");
+    final Object layout = new Object();
+    assertThat(pool.layout(root), is(nullValue()));
+    pool.layout(root, layout);
+    assertThat(pool.layout(root), is(sameInstance(layout)));
+  }
+}
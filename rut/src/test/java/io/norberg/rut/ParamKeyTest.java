@@ -0,0 +1,42 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ParamKeyTest {
+
+  @Test
+  public void testOf() {
+    final ParamKey key = ParamKey.of("param-key-test");
+    assertThat(ParamKey.of("param-key-test"), is(sameInstance(key)));
+    assertThat(key.name(), is("param-key-test"));
+    assertThat(key.toString(), is("param-key-test"));
+  }
+
+  @Test
+  public void testIndices() {
+    final ParamKey.Indices indices = ParamKey.Indices.of(new String[]{"b", "a", "b", "c"});
+    assertThat(indices.get(ParamKey.of("a")), is(1));
+    assertThat(indices.get(ParamKey.of("b")), is(0));
+    assertThat(indices.get(ParamKey.of("c")), is(3));
+    assertThat(indices.get(ParamKey.of("param-key-test-other")), is(-1));
+    assertThat(ParamKey.Indices.of(new String[0]).get(ParamKey.of("a")), is(-1));
+  }
+
+  @Test
+  public void testRelease() throws InterruptedException {
+    final WeakReference<ParamKey> key =
+        new WeakReference<ParamKey>(ParamKey.of("param-key-test-released"));
+    for (int i = 0; i < 100 && key.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(key.get(), is(nullValue()));
+  }
+}
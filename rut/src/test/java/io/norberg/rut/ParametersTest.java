@@ -0,0 +1,89 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static io.norberg.rut.Parameters.isHex;
+import static io.norberg.rut.Parameters.isInt;
+import static io.norberg.rut.Parameters.isLong;
+import static io.norberg.rut.Parameters.isUuid;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ParametersTest {
+
+  @Test
+  public void testInt() {
+    for (final int value : new int[]{0, 1, -1, 17, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+      final String s = "/" + value + "/";
+      assertThat(isInt(s, 1, s.length() - 1), is(true));
+      assertThat(Parameters.parseInt(s, 1, s.length() - 1), is(value));
+    }
+    assertThat(Parameters.parseInt("007", 0, 3), is(7));
+    for (final String s : new String[]{"", "-", "+1", "1a", "a1", "2147483648", "-2147483649",
+                                       "99999999999999999999"}) {
+      assertThat(s, isInt(s, 0, s.length()), is(false));
+    }
+  }
+
+  @Test
+  public void testLong() {
+    for (final long value : new long[]{0, 1, -1, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      final String s = "/" + value + "/";
+      assertThat(isLong(s, 1, s.length() - 1), is(true));
+      assertThat(Parameters.parseLong(s, 1, s.length() - 1), is(value));
+    }
+    for (final String s : new String[]{"", "-", "1-", "9223372036854775808",
+                                       "-9223372036854775809", "18446744073709551616"}) {
+      assertThat(s, isLong(s, 0, s.length()), is(false));
+    }
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void verifyParseIntOverflowThrows() {
+    Parameters.parseInt("2147483648", 0, 10);
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void verifyParseLongNonNumberThrows() {
+    Parameters.parseLong("foo", 0, 3);
+  }
+
+  @Test
+  public void testUuid() {
+    for (int i = 0; i < 100; i++) {
+      final UUID uuid = UUID.randomUUID();
+      for (final String s : new String[]{uuid.toString(), uuid.toString().toUpperCase()}) {
+        assertThat(isUuid(s, 0, s.length()), is(true));
+        assertThat(Parameters.uuidMostSignificantBits(s, 0, s.length()),
+                   is(uuid.getMostSignificantBits()));
+        assertThat(Parameters.uuidLeastSignificantBits(s, 0, s.length()),
+                   is(uuid.getLeastSignificantBits()));
+      }
+    }
+    final String uuid = "123e4567-e89b-12d3-a456-426614174000";
+    assertThat(isUuid(uuid, 0, uuid.length() - 1), is(false));
+    assertThat(isUuid(uuid.replace('-', '0'), 0, uuid.length()), is(false));
+    assertThat(isUuid(uuid.replace('e', 'g'), 0, uuid.length()), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void verifyInvalidUuidThrows() {
+    Parameters.uuidMostSignificantBits("foo", 0, 3);
+  }
+
+  @Test
+  public void testHex() {
+    assertThat(isHex("0123456789abcdefABCDEF", 0, 22), is(true));
+    assertThat(isHex("/c0ffee/", 1, 7), is(true));
+    assertThat(isHex("", 0, 0), is(false));
+    assertThat(isHex("cafg", 0, 4), is(false));
+    assertThat(isHex("-1", 0, 2), is(false));
+  }
+
+  @Test
+  public void verifyUninstantiable() {
+    Access.verifyUninstantiable(Parameters.class);
+  }
+}
@@ -0,0 +1,94 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PathCacheTest {
+
+  @Test
+  public void testGetPut() {
+    final PathCache<String> cache = new PathCache<String>(16);
+    final RadixTrie<String> trie = RadixTrie.builder(String.class)
+        .insert("/users/<user>/blogs/<blog>", "blog")
+        .build();
+    final RadixTrie.Captor captor = trie.captor();
+    final String path = "/users/foo/blogs/bar?q=1";
+
+    assertThat(cache.get(path, 0), is(nullValue()));
+    assertThat(trie.lookup(path, captor), is("blog"));
+    cache.put(path, 0, "blog", captor);
+    assertThat(cache.get(path, 0), is(nullValue()));
+    cache.put(path, 0, "blog", captor);
+
+    final String offset = "GET " + path;
+    final PathCache.Entry<String> entry = cache.get(offset, 4);
+    assertThat(entry.value(), is("blog"));
+    final RadixTrie.Captor restored = trie.captor();
+    entry.restore(restored, offset, 4);
+    assertThat(restored.isMatch(), is(true));
+    assertThat(restored.values(), is(2));
+    assertThat(restored.value(offset, 0).toString(), is("foo"));
+    assertThat(restored.value(offset, 1).toString(), is("bar"));
+    assertThat(restored.query(offset).toString(), is("q=1"));
+
+    // The query is not part of the key
+    final String other = "/users/foo/blogs/bar?q=2&r";
+    cache.get(other, 0).restore(restored, other, 0);
+    assertThat(restored.query(other).toString(), is("q=2&r"));
+    cache.get("/users/foo/blogs/bar", 0).restore(restored, "/users/foo/blogs/bar", 0);
+    assertThat(restored.queryStart(), is(-1));
+    assertThat(restored.value("/users/foo/blogs/bar", 1).toString(), is("bar"));
+
+    assertThat(cache.get("/users/foo/blogs/ba", 0), is(nullValue()));
+    assertThat(cache.get("/users/foo/blogs/bar/", 0), is(nullValue()));
+    assertThat(cache.hits(), is(3L));
+    assertThat(cache.misses(), is(4L));
+  }
+
+  @Test
+  public void testAdmission() {
+    final PathCache<String> cache = new PathCache<String>(16);
+    final RadixTrie.Captor captor = RadixTrie.captor(0);
+    cache.put("/once", 0, "once", captor);
+    assertThat(cache.get("/once", 0), is(nullValue()));
+    cache.put("/twice?a", 0, "twice", captor);
+    cache.put("/twice?b", 0, "twice", captor);
+    assertThat(cache.get("/twice", 0).value(), is("twice"));
+  }
+
+  @Test
+  public void testBounded() {
+    final PathCache<String> cache = new PathCache<String>(8);
+    final RadixTrie.Captor captor = RadixTrie.captor(0);
+    for (int i = 0; i < 1000; i++) {
+      cache.put("/p" + i, 0, "v" + i, captor);
+      cache.put("/p" + i, 0, "v" + i, captor);
+    }
+    int cached = 0;
+    for (int i = 0; i < 1000; i++) {
+      final PathCache.Entry<String> entry = cache.get("/p" + i, 0);
+      if (entry != null) {
+        assertThat(entry.value(), is("v" + i));
+        cached++;
+      }
+    }
+    assertThat(cached <= 8, is(true));
+  }
+
+  @Test
+  public void testSecondChance() {
+    final PathCache<String> cache = new PathCache<String>(4);
+    final RadixTrie.Captor captor = RadixTrie.captor(0);
+    cache.put("/hot", 0, "hot", captor);
+    cache.put("/hot", 0, "hot", captor);
+    for (int i = 0; i < 100; i++) {
+      assertThat(cache.get("/hot", 0).value(), is("hot"));
+      cache.put("/cold" + i, 0, "cold", captor);
+      cache.put("/cold" + i, 0, "cold", captor);
+    }
+    assertThat(cache.get("/hot", 0).value(), is("hot"));
+  }
+}
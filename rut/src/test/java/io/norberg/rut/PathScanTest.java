@@ -0,0 +1,47 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PathScanTest {
+
+  @Test
+  public void testScan() {
+    final String path = "/a/b%20c/d?e=/%3F?&f&";
+    final PathScan scan = new PathScan();
+    scan.scan(path, 0);
+    assertThat(scan.covers(path), is(true));
+    assertThat(scan.covers(new String(path)), is(false));
+    for (int i = 0; i <= path.length(); i++) {
+      assertThat(scan.bound(i, path.length()), is(CharSequences.indexOf(path, '/', '?', i,
+                                                                         path.length())));
+      assertThat(scan.query(i, path.length()), is(CharSequences.indexOf(path, '?', i,
+                                                                         path.length())));
+      assertThat(scan.separator(i, path.length()), is(CharSequences.indexOf(path, '&', i,
+                                                                             path.length())));
+      for (int j = i; j <= path.length(); j++) {
+        assertThat(scan.encoded(i, j), is(CharSequences.indexOf(path, '%', i, j) != -1));
+      }
+    }
+    assertThat(scan.bound(3, 8), is(-1));
+  }
+
+  @Test
+  public void testRescan() {
+    final PathScan scan = new PathScan();
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      b.append("/%?");
+    }
+    final String path = b.toString();
+    scan.scan(path, 0);
+    assertThat(scan.bound(299, 300), is(299));
+    assertThat(scan.encoded(298, 299), is(true));
+    scan.scan("x/y", 1);
+    assertThat(scan.bound(1, 3), is(1));
+    assertThat(scan.query(0, 3), is(-1));
+    assertThat(scan.encoded(0, 3), is(false));
+  }
+}
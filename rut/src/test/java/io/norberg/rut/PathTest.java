@@ -4,6 +4,13 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 
+import static io.norberg.rut.ParameterType.HEX;
+import static io.norberg.rut.ParameterType.INT;
+import static io.norberg.rut.ParameterType.LONG;
+import static io.norberg.rut.ParameterType.PATH;
+import static io.norberg.rut.ParameterType.SEGMENT;
+import static io.norberg.rut.ParameterType.UUID;
+import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -20,4 +27,30 @@ public class PathTest {
     final Path path = Path.of(pathString);
     assertThat(path.toString(), is(pathString));
   }
+
+  @Test
+  public void testTypedCaptures() {
+    final String pathString = "/a/<i:int>/<l:long>/<u:uuid>/<h:hex>/<s>/<p:path>";
+    final Path path = Path.of(pathString);
+    assertThat(path.toString(), is(pathString));
+    assertThat(path.captureParameterTypes(), is(asList(INT, LONG, UUID, HEX, SEGMENT, PATH)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void verifyUnknownCaptureTypeThrows() {
+    Path.of("/<foo:bar>");
+  }
+
+  @Test
+  public void testRegexCaptures() {
+    final String pathString = "/a/<v:v[0-9]+>/<s:(x|y)*>.json";
+    final Path path = Path.of(pathString);
+    assertThat(path.toString(), is(pathString));
+    assertThat(path.captureParameterTypes(), is(asList(SEGMENT, SEGMENT)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void verifyInvalidRegexCaptureThrows() {
+    Path.of("/<foo:[a-z>");
+  }
 }
@@ -0,0 +1,111 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class QueryParamsTest {
+
+  @Test
+  public void testNext() {
+    final String path = "/a?x=1&&y&z=2=3&";
+    final QueryParams params = new QueryParams().reset(path, 3, path.length());
+
+    assertThat(params.next(), is(true));
+    assertThat(params.name().toString(), is("x"));
+    assertThat(params.value().toString(), is("1"));
+    assertThat(params.nameStart(), is(3));
+    assertThat(params.nameEnd(), is(4));
+    assertThat(params.valueStart(), is(5));
+    assertThat(params.valueEnd(), is(6));
+    assertThat(params.valueLong(), is(1L));
+
+    assertThat(params.next(), is(true));
+    assertThat(params.name().toString(), is("y"));
+    assertThat(params.value().toString(), is(""));
+
+    assertThat(params.next(), is(true));
+    assertThat(params.nameEquals("z"), is(true));
+    assertThat(params.nameEquals("zz"), is(false));
+    assertThat(params.value().toString(), is("2=3"));
+
+    assertThat(params.next(), is(false));
+    assertThat(params.next(), is(false));
+  }
+
+  @Test
+  public void testScan() {
+    final String path = "/a&b?x=1&&y&z=2&3";
+    final PathScan scan = new PathScan();
+    scan.scan(path, 0);
+    final QueryParams expected = new QueryParams().reset(path, 5, path.length());
+    final QueryParams actual = new QueryParams().reset(path, 5, path.length(), scan);
+    while (expected.next()) {
+      assertThat(actual.next(), is(true));
+      assertThat(actual.nameStart(), is(expected.nameStart()));
+      assertThat(actual.nameEnd(), is(expected.nameEnd()));
+      assertThat(actual.valueStart(), is(expected.valueStart()));
+      assertThat(actual.valueEnd(), is(expected.valueEnd()));
+    }
+    assertThat(actual.next(), is(false));
+
+    // A scan of another path is not used
+    scan.scan("/&&&&&&&&&&&&&&&&", 0);
+    final QueryParams other = new QueryParams().reset(path, 5, path.length(), scan);
+    assertThat(other.next(), is(true));
+    assertThat(other.value().toString(), is("1"));
+  }
+
+  @Test
+  public void testNoQuery() {
+    final QueryParams params = new QueryParams().reset("/a", -1, -1);
+    assertThat(params.next(), is(false));
+  }
+
+  @Test
+  public void testNextByName() {
+    final String path = "a=1&b=2&a=3";
+    final QueryParams params = new QueryParams().reset(path, 0, path.length());
+    assertThat(params.next("a"), is(true));
+    assertThat(params.value().toString(), is("1"));
+    assertThat(params.next("a"), is(true));
+    assertThat(params.value().toString(), is("3"));
+    assertThat(params.next("a"), is(false));
+  }
+
+  @Test
+  public void testDecoded() {
+    final String path = "q=r%C3%A4k+sm%C3%B6rg%C3%A5s&n%20m=a+b&bad=%C3";
+    final QueryParams params = new QueryParams().reset(path, 0, path.length());
+    final char[] chars = new char[16];
+
+    assertThat(params.next(), is(true));
+    final int length = params.valueDecoded(chars, 1);
+    assertThat(new String(chars, 1, length), is("räk smörgås"));
+
+    assertThat(params.next(), is(true));
+    assertThat(new String(chars, 0, params.nameDecoded(chars, 0)), is("n m"));
+    final StringBuilder b = new StringBuilder();
+    assertThat(params.valueDecoded(b), is(3));
+    assertThat(b.toString(), is("a b"));
+
+    assertThat(params.next(), is(true));
+    assertThat(params.valueDecoded(chars, 0), is(Router.Result.INVALID_ENCODING));
+    assertThat(params.valueDecoded(b), is(Router.Result.INVALID_ENCODING));
+    assertThat(b.toString(), is("a b"));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyDecodingIntoTooSmallArrayThrows() {
+    final String path = "q=abc";
+    final QueryParams params = new QueryParams().reset(path, 0, path.length());
+    params.next();
+    params.valueDecoded(new char[3], 1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void verifyNoCurrentParameterThrows() {
+    new QueryParams().reset("q=1", 0, 3).value();
+  }
+}
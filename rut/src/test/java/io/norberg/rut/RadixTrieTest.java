@@ -5,10 +5,23 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import io.norberg.rut.RadixTrie.Node;
 
+import static io.norberg.rut.RadixTrie.BINARY;
+import static io.norberg.rut.RadixTrie.BINARY_MAX;
+import static io.norberg.rut.RadixTrie.LINEAR;
+import static io.norberg.rut.RadixTrie.LINEAR_MAX;
+import static io.norberg.rut.RadixTrie.SINGLE;
+import static io.norberg.rut.RadixTrie.TABLE;
 import static java.lang.Math.max;
 import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.isEmptyOrNullString;
@@ -258,6 +271,18 @@ public class RadixTrieTest {
     Node.captureSeg(sibling, null, "bar");
   }
 
+  @Test(expected = IllegalArgumentException.class)
+  public void verifySegCaptureBeforeTypedCaptureSiblingThrows() {
+    final Node<String> sibling = Node.captureTyped(RadixTrie.CAPTURE_LONG, true, null, null, "foo");
+    Node.captureSeg(sibling, null, "bar");
+  }
+
+  @Test
+  public void testTypedCaptureBeforeSegCapture() {
+    final Node<String> sibling = Node.captureSeg(null, null, "foo");
+    Node.captureTyped(RadixTrie.CAPTURE_LONG, true, sibling, null, "bar");
+  }
+
   @Test
   public void testSegCaptureBeforePathCapture() {
     final Node<String> sibling = Node.capturePath(null, "foo");
@@ -473,6 +498,416 @@ public class RadixTrieTest {
     }
   }
 
+  @Test
+  public void testLargeTable() {
+    final RadixTrie.Builder<String> builder = RadixTrie.builder(String.class);
+    for (int i = 0; i < 100; i++) {
+      builder.insert("/api/v1/resource-" + i, "list-" + i);
+      builder.insert("/api/v1/resource-" + i + "/<id>", "get-" + i);
+      builder.insert("/api/v1/resource-" + i + "/<id>/history/<version>", "history-" + i);
+    }
+    final RadixTrie<String> rdx = builder.build();
+    final RadixTrie.Captor captor = rdx.captor();
+    assertThat(rdx.captures(), is(2));
+    for (int i = 0; i < 100; i++) {
+      assertThat(rdx.lookup("/api/v1/resource-" + i), is("list-" + i));
+      assertThat(rdx.lookup("/api/v1/resource-" + i + "/"), is(nullValue()));
+
+      final String get = "/api/v1/resource-" + i + "/foo";
+      assertThat(rdx.lookup(get, captor), is("get-" + i));
+      assertThat(captor.value(get, 0).toString(), is("foo"));
+
+      final String history = "/api/v1/resource-" + i + "/foo/history/bar?q";
+      assertThat(rdx.lookup(history, captor), is("history-" + i));
+      assertThat(captor.value(history, 0).toString(), is("foo"));
+      assertThat(captor.value(history, 1).toString(), is("bar"));
+      assertThat(captor.query(history).toString(), is("q"));
+    }
+    assertThat(rdx.lookup("/api/v1/resource-100"), is(nullValue()));
+  }
+
+  @Test
+  public void testFanoutKinds() {
+    final StringBuilder heads = new StringBuilder();
+    for (char c = '!'; c <= '~'; c++) {
+      if ("/<>?".indexOf(c) == -1) {
+        heads.append(c);
+      }
+    }
+    final int[] widths = {1, LINEAR_MAX, BINARY_MAX, heads.length()};
+    final byte[] kinds = {SINGLE, LINEAR, BINARY, TABLE};
+    for (int k = 0; k < widths.length; k++) {
+      final RadixTrie.Builder<String> builder = RadixTrie.builder(String.class);
+      for (int i = 0; i < widths[k]; i++) {
+        final char c = heads.charAt(i);
+        builder.insert(c + "x", "static-" + c);
+      }
+      builder.insert("<seg>y", "seg");
+      final RadixTrie<String> rdx = builder.build();
+      assertThat(rdx.kinds[0], is(kinds[k]));
+      assertThat(rdx.spans[0], is(widths[k]));
+
+      final RadixTrie.Captor captor = rdx.captor();
+      for (int i = 0; i < widths[k]; i++) {
+        final char c = heads.charAt(i);
+        assertThat(rdx.lookup(c + "x"), is("static-" + c));
+        assertThat(rdx.lookup(c + "y", captor), is("seg"));
+        assertThat(captor.value(c + "y", 0).toString(), is(String.valueOf(c)));
+      }
+      assertThat(rdx.lookup(" x"), is(nullValue()));
+      assertThat(rdx.lookup("\u00e9x"), is(nullValue()));
+      assertThat(rdx.lookup("\u00e9y"), is("seg"));
+      assertThat(rdx.lookup("\u4e2dx"), is(nullValue()));
+    }
+  }
+
+  @Test
+  public void testLongPrefixesAndCaptures() {
+    final RadixTrie<String> rdx = RadixTrie.builder(String.class)
+        .insert("/internal/metrics/v2/", "metrics")
+        .insert("/internal/metrics/v2/series/<id>", "series")
+        .insert("/internal/metrics/v2/series/<id>/points", "points")
+        .insert("/internal/metrics/v3/tokens/<token:path>", "token")
+        .build();
+    final String uuid = "123e4567-e89b-12d3-a456-426614174000";
+    final String token = "eyJhbGciOiJIUzI1NiJ9/eyJzdWIiOiIxMjM0NTY3ODkwIn0";
+    final String[][] cases = {
+        {"/internal/metrics/v2/", "metrics", null},
+        {"/internal/metrics/v2", null, null},
+        {"/internal/metrics/v1/", null, null},
+        {"/internal/metrics/v2/series/" + uuid, "series", uuid},
+        {"/internal/metrics/v2/series/" + uuid + "?from=0", "series", uuid},
+        {"/internal/metrics/v2/series/" + uuid + "/points", "points", uuid},
+        {"/internal/metrics/v2/series/" + uuid + "/pointz", null, null},
+        {"/internal/metrics/v3/tokens/" + token, "token", token},
+        {"/internal/metrics/v3/tokens/" + token + "?q", "token", token},
+    };
+    for (final String[] c : cases) {
+      final byte[] bytes = ("GET " + c[0]).getBytes();
+      final CharSequence[] paths = {
+          c[0], new AsciiSequence().wrap(bytes, 0, bytes.length)};
+      final int[] starts = {0, 4};
+      for (int i = 0; i < paths.length; i++) {
+        final RadixTrie.Captor captor = rdx.captor();
+        assertThat(c[0], rdx.lookup(paths[i], starts[i], captor), is(c[1]));
+        if (c[2] != null) {
+          assertThat(captor.value(paths[i], 0).toString(), is(c[2]));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDeepTrie() {
+    final StringBuilder route = new StringBuilder();
+    final StringBuilder path = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      route.append("/s").append(i).append("/<p").append(i).append(">-x");
+      path.append("/s").append(i).append("/v-").append(i).append("-x");
+    }
+    final RadixTrie<String> rdx = RadixTrie.builder(String.class)
+        .insert(route.toString(), "deep")
+        .insert(route + "/<rest:path>", "rest")
+        .build();
+    final RadixTrie.Captor captor = rdx.captor();
+    final String deep = path.toString();
+    assertThat(rdx.lookup(deep, captor), is("deep"));
+    assertThat(captor.values(), is(100));
+    for (int i = 0; i < 100; i++) {
+      assertThat(captor.value(deep, i).toString(), is("v-" + i));
+    }
+    assertThat(rdx.lookup(deep + "/foo/bar", captor), is("rest"));
+    assertThat(captor.value(deep + "/foo/bar", 100).toString(), is("foo/bar"));
+    assertThat(rdx.lookup(deep + "y", captor), is(nullValue()));
+  }
+
+  @Test
+  public void testWith() {
+    final Random random = new Random(17);
+    for (int i = 0; i < 300; i++) {
+      // Routes that only differ by capture names are the same route
+      final Map<String, String> routes = new LinkedHashMap<String, String>();
+      final int n = 1 + random.nextInt(20);
+      for (int j = 0; j < n; j++) {
+        final String route = randomRoute(random);
+        final String key = route.replaceAll("<[^>:]*>", "<>").replaceAll("<[^>]*:path>", "<:>");
+        if (!routes.containsKey(key)) {
+          routes.put(key, route);
+        }
+      }
+
+      RadixTrie<String> trie = RadixTrie.<String>builder().build();
+      final List<String> added = new ArrayList<String>();
+      for (final String route : routes.values()) {
+        trie = trie.with(Path.of(route), value(route));
+        added.add(route);
+        verifyLayout(trie, trie(added));
+      }
+
+      for (final String route : routes.values()) {
+        if (random.nextBoolean()) {
+          final RadixTrie<String> removed = trie.with(Path.of(route), value(null));
+          assertThat(removed != trie, is(true));
+          trie = removed;
+          added.remove(route);
+          verifyLayout(trie, trie(added));
+        }
+      }
+      assertThat(trie.with(Path.of("/never-added"), value(null)) == trie, is(true));
+    }
+  }
+
+  @Test
+  public void testTypedCaptures() {
+    final String uuid = "123e4567-e89b-12d3-a456-426614174000";
+    final RadixTrie<String> rdx = RadixTrie.builder(String.class)
+        .insert("/users/<id:long>", "long")
+        .insert("/users/<id:int>/posts", "int")
+        .insert("/users/<name>", "name")
+        .insert("/keys/<key:uuid>", "uuid")
+        .insert("/blobs/<hash:hex>.json", "hex")
+        .insert("/blobs/<name>.json", "blob")
+        .build();
+    final RadixTrie.Captor captor = rdx.captor();
+
+    assertThat(rdx.lookup("/users/17", captor), is("long"));
+    assertThat(captor.value("/users/17", 0).toString(), is("17"));
+    assertThat(rdx.lookup("/users/-9223372036854775808"), is("long"));
+    assertThat(rdx.lookup("/users/9223372036854775808"), is("name"));
+    assertThat(rdx.lookup("/users/17x", captor), is("name"));
+    assertThat(captor.value("/users/17x", 0).toString(), is("17x"));
+    assertThat(rdx.lookup("/users/-"), is("name"));
+    assertThat(rdx.lookup("/users/17/posts?q"), is("int"));
+    assertThat(rdx.lookup("/users/2147483648/posts"), is(nullValue()));
+    assertThat(rdx.lookup("/keys/" + uuid), is("uuid"));
+    assertThat(rdx.lookup("/keys/" + uuid.toUpperCase()), is("uuid"));
+    assertThat(rdx.lookup("/keys/" + uuid.replace('-', '0')), is(nullValue()));
+    assertThat(rdx.lookup("/blobs/c0ffee.json", captor), is("hex"));
+    assertThat(captor.value("/blobs/c0ffee.json", 0).toString(), is("c0ffee"));
+    assertThat(rdx.lookup("/blobs/c0ffee.x.json", captor), is("blob"));
+    assertThat(captor.value("/blobs/c0ffee.x.json", 0).toString(), is("c0ffee.x"));
+    assertThat(rdx.lookup("/blobs/.json", captor), is("blob"));
+  }
+
+  @Test
+  public void testTypedPartialCaptureBacktracks() {
+    final RadixTrie<String> rdx = RadixTrie.builder(String.class)
+        .insert("/<id:int>1", "one")
+        .build();
+    final RadixTrie.Captor captor = rdx.captor();
+    assertThat(rdx.lookup("/1231", captor), is("one"));
+    assertThat(captor.value("/1231", 0).toString(), is("123"));
+    assertThat(rdx.lookup("/1", captor), is(nullValue()));
+    assertThat(rdx.lookup("/a1", captor), is(nullValue()));
+  }
+
+  @Test
+  public void testRegexCaptures() {
+    final RadixTrie<String> rdx = RadixTrie.builder(String.class)
+        .insert("/api/<version:v[0-9]+>/users", "versioned")
+        .insert("/api/<version:(alpha|beta)-\\d{1,2}>/users", "preview")
+        .insert("/api/<name>/users", "name")
+        .insert("/files/<name:[a-z]+>.<ext:json|xml>", "file")
+        .build();
+    final RadixTrie.Captor captor = rdx.captor();
+
+    assertThat(rdx.lookup("/api/v17/users", captor), is("versioned"));
+    assertThat(captor.value("/api/v17/users", 0).toString(), is("v17"));
+    assertThat(rdx.lookup("/api/beta-2/users?q"), is("preview"));
+    assertThat(rdx.lookup("/api/beta-234/users"), is("name"));
+    assertThat(rdx.lookup("/api/v/users", captor), is("name"));
+    assertThat(captor.value("/api/v/users", 0).toString(), is("v"));
+    assertThat(rdx.lookup("/api/v1x/users"), is("name"));
+    assertThat(rdx.lookup("/files/foo.bar.json"), is(nullValue()));
+    assertThat(rdx.lookup("/files/foo.json", captor), is("file"));
+    assertThat(captor.value("/files/foo.json", 0).toString(), is("foo"));
+    assertThat(captor.value("/files/foo.json", 1).toString(), is("json"));
+    assertThat(rdx.lookup("/files/foo.yaml"), is(nullValue()));
+    assertThat(rdx.lookup("/files/Foo.xml"), is(nullValue()));
+  }
+
+  @Test
+  public void testRegexCaptureSiblingOrder() {
+    final Node<String> seg = Node.captureSeg(null, null, "seg");
+    final Node<String> b = Node.captureRegex(Constraint.compile("b+"), true, seg, null, "b");
+    final Node<String> a = Node.captureRegex(Constraint.compile("a+"), true, b, null, "a");
+    Node.captureTyped(RadixTrie.CAPTURE_INT, true, a, null, "int");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void verifyUnorderedRegexCaptureSiblingsThrow() {
+    final Node<String> sibling = Node.captureRegex(Constraint.compile("a+"), true, null, null, "a");
+    Node.captureRegex(Constraint.compile("b+"), true, sibling, null, "b");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void verifyDuplicateRegexCaptureSiblingsThrow() {
+    final Node<String> sibling = Node.captureRegex(Constraint.compile("a+"), true, null, null, "a");
+    Node.captureRegex(Constraint.compile("a+"), true, sibling, null, "b");
+  }
+
+  @Test
+  public void testWithTypedCaptures() {
+    final Random random = new Random(4711);
+    for (int i = 0; i < 200; i++) {
+      final Set<String> routes = new LinkedHashSet<String>();
+      final int n = 1 + random.nextInt(12);
+      for (int j = 0; j < n; j++) {
+        routes.add(randomRoute(random, TYPED_PARTS));
+      }
+      RadixTrie<String> trie = RadixTrie.<String>builder().build();
+      final List<String> added = new ArrayList<String>();
+      for (final String route : routes) {
+        trie = trie.with(Path.of(route), value(route));
+        added.add(route);
+        verifyLayout(trie, trie(added));
+      }
+      for (final String route : routes) {
+        trie = trie.with(Path.of(route), value(null));
+        added.remove(route);
+        verifyLayout(trie, trie(added));
+      }
+    }
+  }
+
+  @Test
+  public void testWithSharesSubtrees() {
+    final RadixTrie<String> trie = RadixTrie.builder(String.class)
+        .insert("/a/<x>/b", "ab")
+        .insert("/c/d", "cd")
+        .build();
+    final RadixTrie<String> updated = trie.with(Path.of("/a/<x>/e"), value("ae"));
+    assertThat(updated.lookup("/a/1/e"), is("ae"));
+    assertThat(updated.lookup("/a/1/b"), is("ab"));
+    assertThat(updated.lookup("/c/d"), is("cd"));
+    assertThat(trie.lookup("/a/1/e"), is(nullValue()));
+  }
+
+  @Test
+  public void testSharedSubtrees() {
+    final RadixTrie<String> shared = RadixTrie.builder(String.class)
+        .insert("/users/<id>/history", "history")
+        .insert("/users/<id>/permissions", "permissions")
+        .insert("/posts/<id>/history", "history")
+        .insert("/posts/<id>/permissions", "permissions")
+        .build();
+    final RadixTrie<String> unshared = RadixTrie.builder(String.class)
+        .insert("/users/<id>/history", "history")
+        .insert("/users/<id>/permissions", "permissions")
+        .insert("/posts/<id>/history", "post-history")
+        .insert("/posts/<id>/permissions", "post-permissions")
+        .build();
+
+    // The subtrees below /posts/ and /users/ are laid out once
+    assertThat(shared.heads.length, is(7));
+    assertThat(unshared.heads.length, is(11));
+    assertThat(shared.edges[1], is(shared.edges[2]));
+    for (int i = 0; i < shared.heads.length; i++) {
+      assertThat(shared.fanouts[i] == 0 || shared.edges[i] > i, is(true));
+    }
+
+    for (final RadixTrie<String> trie : asList(shared, shared.specialize())) {
+      final RadixTrie.Captor captor = trie.captor();
+      assertThat(trie.lookup("/users/17/history", captor), is("history"));
+      assertThat(captor.value("/users/17/history", 0).toString(), is("17"));
+      assertThat(trie.lookup("/posts/4711/permissions", captor), is("permissions"));
+      assertThat(captor.value("/posts/4711/permissions", 0).toString(), is("4711"));
+      assertThat(trie.lookup("/posts/4711/x", captor), is(nullValue()));
+    }
+
+    final RadixTrie<String> updated = shared.with(Path.of("/posts/<id>/history"), value("h"));
+    assertThat(updated.lookup("/posts/1/history"), is("h"));
+    assertThat(updated.lookup("/users/1/history"), is("history"));
+    assertThat(updated.lookup("/posts/1/permissions"), is("permissions"));
+  }
+
+  @Test
+  public void testNodePool() {
+    final NodePool pool = new NodePool();
+    final List<String> routes = asList("/a/<x>/b", "/a/<x>/c", "/d/<x>/b");
+    final RadixTrie<String> first = trie(routes, pool);
+    final int size = pool.size();
+    final RadixTrie<String> second = trie(routes, pool);
+    assertThat(pool.size(), is(size));
+    // An identical trie shares the compiled arrays of the first
+    assertThat(second.heads == first.heads, is(true));
+    assertThat(second.edges == first.edges, is(true));
+    assertThat(second.values == first.values, is(true));
+    assertThat(second.pool == first.pool, is(true));
+    assertThat(second.jumps == first.jumps, is(true));
+    verifyLayout(second, trie(routes));
+
+    final List<String> more = new ArrayList<String>(routes);
+    more.add("/e/<x>/c");
+    final RadixTrie<String> third = trie(more, pool);
+    assertThat(pool.size() > size, is(true));
+    assertThat(third.heads == first.heads, is(false));
+    verifyLayout(third, trie(more));
+  }
+
+  private static RadixTrie<String> trie(final List<String> routes, final NodePool pool) {
+    final RadixTrie.Builder<String> builder = RadixTrie.builder(String.class);
+    for (final String route : routes) {
+      builder.insert(route, route);
+    }
+    return builder.build(pool);
+  }
+
+  private static Trie.Visitor<String> value(final String value) {
+    return new Trie.Visitor<String>() {
+      @Override
+      public String finish(final String currentValue) {
+        return value;
+      }
+    };
+  }
+
+  private static RadixTrie<String> trie(final List<String> routes) {
+    final RadixTrie.Builder<String> builder = RadixTrie.builder(String.class);
+    for (final String route : routes) {
+      builder.insert(route, route);
+    }
+    return builder.build();
+  }
+
+  static void verifyLayout(final RadixTrie<String> actual, final RadixTrie<String> expected) {
+    assertThat(actual.captures(), is(expected.captures()));
+    assertThat(actual.roots, is(expected.roots));
+    assertThat(Arrays.equals(actual.heads, expected.heads), is(true));
+    assertThat(Arrays.equals(actual.tails, expected.tails), is(true));
+    assertThat(Arrays.equals(actual.tailLengths, expected.tailLengths), is(true));
+    assertThat(Arrays.equals(actual.edges, expected.edges), is(true));
+    assertThat(Arrays.equals(actual.fanouts, expected.fanouts), is(true));
+    assertThat(Arrays.equals(actual.values, expected.values), is(true));
+    assertThat(Arrays.equals(actual.pool, expected.pool), is(true));
+    assertThat(Arrays.equals(actual.constraints, expected.constraints), is(true));
+    assertThat(Arrays.equals(actual.kinds, expected.kinds), is(true));
+  }
+
+  private static final String[] PARTS = {
+      "a", "b", "ab", "/", "/a", "/b/", "<x>", "<y>.", "-<z>", "/abc"};
+
+  // Capture names are unique per type, so that equal routes have equal paths
+  private static final String[] TYPED_PARTS = {
+      "a", "/", "/1", "<x>", "<i:int>", "<l:long>.", "/<h:hex>", "-<u:uuid>", "<r:[a1]+>",
+      "<v:v\\d*>."};
+
+  private static String randomRoute(final Random random) {
+    return randomRoute(random, PARTS);
+  }
+
+  private static String randomRoute(final Random random, final String[] parts) {
+    final StringBuilder b = new StringBuilder();
+    final int n = 1 + random.nextInt(5);
+    for (int i = 0; i < n; i++) {
+      b.append(parts[random.nextInt(parts.length)]);
+    }
+    if (random.nextInt(5) == 0) {
+      b.append("<p:path>");
+    }
+    return b.toString();
+  }
+
   private void verifyPaths(final RadixTrie<String> rdx, final List<String> paths) {
     for (final String path : paths) {
       final RadixTrie.Captor captor = rdx.captor();
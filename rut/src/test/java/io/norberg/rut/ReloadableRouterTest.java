@@ -0,0 +1,145 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.norberg.rut.Router.Status.NOT_FOUND;
+import static io.norberg.rut.Router.Status.SUCCESS;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ReloadableRouterTest {
+
+  @Test
+  public void testReload() {
+    final ReloadableRouter<String> router = new ReloadableRouter<String>(
+        Router.builder(String.class).route("GET", "/foo", "foo").build());
+    final Router.Result<String> result = router.result();
+
+    assertThat(router.route("GET", "/foo", result), is(SUCCESS));
+    assertThat(router.route("GET", "/bar", result), is(NOT_FOUND));
+
+    final Router<String> previous = router.router();
+    final Router<String> next = router.reload(
+        Router.builder(String.class).route("GET", "/bar", "bar"));
+    assertThat(router.router(), is(sameInstance(next)));
+    assertThat(router.reloads(), is(1L));
+    assertThat(router.lastBuildNanos(), is(greaterThan(0L)));
+
+    assertThat(router.route("GET", "/foo", result), is(NOT_FOUND));
+    assertThat(router.route("GET", "/bar", result), is(SUCCESS));
+    assertThat(result.target(), is("bar"));
+
+    assertThat(router.swap(previous), is(sameInstance(next)));
+    assertThat(router.reloads(), is(2L));
+    assertThat(router.route("GET", "/foo", result), is(SUCCESS));
+  }
+
+  @Test
+  public void testRouteByHost() {
+    final ReloadableRouter<String> router = new ReloadableRouter<String>(
+        Router.builder(String.class)
+            .route("GET", "/foo", "foo")
+            .route("example.com", "GET", "/foo", "example")
+            .build());
+    final Router.Result<String> result = router.result();
+
+    assertThat(router.route("example.com", "GET", "/foo", result), is(SUCCESS));
+    assertThat(result.target(), is("example"));
+    assertThat(router.route("example.org", "GET", "/foo", result), is(SUCCESS));
+    assertThat(result.target(), is("foo"));
+  }
+
+  @Test
+  public void testResultGrowsAfterReload() {
+    final ReloadableRouter<String> router = new ReloadableRouter<String>(
+        Router.builder(String.class).route("GET", "/foo", "foo").build());
+    final Router.Result<String> result = router.result();
+
+    router.reload(Router.builder(String.class).route("GET", "/foo/<a>/<b>/<c>", "abc"));
+    assertThat(router.route("GET", "/foo/1/2/3", result), is(SUCCESS));
+    assertThat(result.params(), is(3));
+    assertThat(result.paramValue("c").toString(), is("3"));
+  }
+
+  @Test
+  public void testThreadLocalResult() {
+    final ReloadableRouter<String> router = new ReloadableRouter<String>(
+        Router.builder(String.class).route("GET", "/foo", "foo").build());
+    final Router.Result<String> result = router.route("GET", "/foo");
+    assertThat(result.target(), is("foo"));
+    assertThat(router.route("GET", "/foo"), is(sameInstance(result)));
+
+    router.reload(Router.builder(String.class).route("GET", "/foo/<a>/<b>", "ab"));
+    assertThat(router.route("GET", "/foo/1/2").paramValue("b").toString(), is("2"));
+  }
+
+  @Test
+  public void testReloadOnExecutor() throws Exception {
+    final ReloadableRouter<String> router = new ReloadableRouter<String>(
+        Router.builder(String.class).build());
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<Router<String>> future =
+          router.reload(Router.builder(String.class).route("GET", "/foo", "foo"), executor);
+      final Router<String> next = future.get(10, TimeUnit.SECONDS);
+      assertThat(router.router(), is(sameInstance(next)));
+      assertThat(router.route("GET", "/foo").target(), is("foo"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRoutingDuringReloads() throws Exception {
+    final Router.Builder<String> small = Router.builder(String.class)
+        .route("GET", "/foo/<a>", "a");
+    final Router.Builder<String> large = Router.builder(String.class)
+        .route("GET", "/foo/<a>", "a")
+        .route("GET", "/foo/<a>/<b>/<c>/<d>", "abcd");
+    final ReloadableRouter<String> router = new ReloadableRouter<String>(small.build());
+
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          final Router.Result<String> result = Router.Result.capturing(0);
+          try {
+            while (!done.get()) {
+              assertThat(router.route("GET", "/foo/1", result), is(SUCCESS));
+              assertThat(result.paramValue(0).toString(), is("1"));
+              final Router.Status status = router.route("GET", "/foo/1/2/3/4", result);
+              if (status == SUCCESS) {
+                assertThat(result.paramValue(3).toString(), is("4"));
+              }
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      });
+      readers[i].start();
+    }
+    for (int i = 0; i < 200; i++) {
+      router.reload((i % 2 == 0) ? large : small);
+    }
+    done.set(true);
+    for (final Thread reader : readers) {
+      reader.join();
+    }
+    assertThat(error.get(), is(nullValue()));
+    assertThat(router.reloads(), is(200L));
+  }
+}
@@ -6,10 +6,18 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.List;
+import java.util.Random;
 
+import static io.norberg.rut.ParameterType.HEX;
+import static io.norberg.rut.ParameterType.INT;
+import static io.norberg.rut.ParameterType.LONG;
 import static io.norberg.rut.ParameterType.PATH;
 import static io.norberg.rut.ParameterType.SEGMENT;
+import static io.norberg.rut.ParameterType.UUID;
 import static io.norberg.rut.Router.Status.METHOD_NOT_ALLOWED;
 import static io.norberg.rut.Router.Status.NOT_FOUND;
 import static io.norberg.rut.Router.Status.SUCCESS;
@@ -18,6 +26,7 @@ import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -27,6 +36,17 @@ public class RouterTest {
 
   @Rule public ExpectedException exception = ExpectedException.none();
 
+  @Test
+  public void testUndersizedResult() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/foo/<a>/<b>", "ab")
+        .build();
+    final Router.Result<String> result = Router.Result.capturing(0);
+    assertThat(router.route("GET", "/foo/1/2", result), is(SUCCESS));
+    assertThat(result.params(), is(2));
+    assertThat(result.paramValue("b").toString(), is("2"));
+  }
+
   @Test
   public void testEmptyRouter() {
     final Router<String> router = Router.builder(String.class).build();
@@ -85,6 +105,298 @@ public class RouterTest {
     }
   }
 
+  @Test
+  public void testByteArrayRouting() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/foo/<bar>/baz", "get")
+        .route("POST", "/foo/<bar>/baz", "post")
+        .build();
+    final Router.Result<String> result = router.result();
+
+    final byte[] request = "xxPOST /foo/bar-value/baz?q=a HTTP/1.1".getBytes();
+    assertThat(router.route(request, 2, 4, request, 7, 22, result), is(SUCCESS));
+    assertThat(result.target(), is("post"));
+    assertThat(result.paramValueStart(0), is(12));
+    assertThat(result.paramValueEnd(0), is(21));
+    assertThat(result.paramValue(0).toString(), is("bar-value"));
+    assertThat(result.queryStart(), is(26));
+    assertThat(result.queryEnd(), is(29));
+    assertThat(result.query().toString(), is("q=a"));
+
+    assertThat(router.route(request, 2, 3, request, 7, 22, result), is(METHOD_NOT_ALLOWED));
+    assertThat(router.route(request, 2, 4, request, 7, 17, result), is(NOT_FOUND));
+  }
+
+  @Test
+  public void testByteBufferRouting() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/foo/<bar>/baz", "get")
+        .build();
+    final Router.Result<String> result = router.result();
+
+    final byte[] request = "GET /foo/bar-value/baz HTTP/1.1".getBytes();
+    final ByteBuffer direct = ByteBuffer.allocateDirect(request.length);
+    direct.put(request).flip();
+    final ByteBuffer heap = ByteBuffer.wrap(request);
+
+    for (final ByteBuffer buffer : asList(direct, heap)) {
+      final ByteBuffer method = buffer.duplicate();
+      method.limit(3);
+      final ByteBuffer path = buffer.duplicate();
+      path.position(4).limit(22);
+      assertThat(router.route(method, path, result), is(SUCCESS));
+      assertThat(result.target(), is("get"));
+      assertThat(result.paramValueStart(0), is(9));
+      assertThat(result.paramValueEnd(0), is(18));
+      assertThat(result.paramValue(0).toString(), is("bar-value"));
+      assertThat(path.position(), is(4));
+    }
+
+    final ByteBuffer slice = ByteBuffer.wrap(request, 4, 18).slice();
+    assertThat(router.route(ByteBuffer.wrap(request, 0, 3), slice, result), is(SUCCESS));
+    assertThat(result.paramValueStart(0), is(5));
+    assertThat(result.paramValue(0).toString(), is("bar-value"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testBatchRouting() {
+    final List<String> routes = asList(
+        "/", "/users/", "/users/<user>", "/users/<user>/", "/users/<user>/profile",
+        "/users/<user>-<suffix>/blogs/<blog>", "/users/<user>/blogs/<blog>/posts/<post:path>",
+        "/static/<file:path>", "/api/v1/resource-a", "/api/v1/resource-b/", "/api/v1/<other>");
+    final List<String> paths = asList(
+        "/", "/users", "/users/", "/users/foo", "/users/foo/", "/users/foo/profile?q",
+        "/users/foo-bar/blogs/baz", "/users/foo/blogs/bar/posts/a/b/c?d", "/static/a/b",
+        "/api/v1/resource-a", "/api/v1/resource-a/", "/api/v1/resource-b", "/api/v1/resource-c",
+        "/api/v1/resource-b?q", "/api/v2", "", "?", "/missing");
+    for (final boolean optionalTrailingSlash : asList(false, true)) {
+      for (final boolean specialize : asList(false, true)) {
+        final Router.Builder<String> builder = Router.builder(String.class)
+            .optionalTrailingSlash(optionalTrailingSlash)
+            .specialize(specialize);
+        for (final String route : routes) {
+          builder.route("GET", route, route);
+        }
+        final Router<String> router = builder.build();
+
+        final int count = paths.size();
+        final CharSequence[] methods = new CharSequence[count];
+        final Router.Result<String>[] results = new Router.Result[count];
+        for (int i = 0; i < count; i++) {
+          methods[i] = (i % 3 == 0) ? "POST" : "GET";
+          results[i] = router.result();
+        }
+        router.routeBatch(methods, paths.toArray(new CharSequence[count]), results, count);
+
+        final Router.Result<String> expected = router.result();
+        for (int i = 0; i < count; i++) {
+          final String path = paths.get(i);
+          final Router.Result<String> actual = results[i];
+          assertThat(path, actual.status(), is(router.route(methods[i], path, expected)));
+          assertThat(path, actual.queryStart(), is(expected.queryStart()));
+          if (actual.isSuccess()) {
+            assertThat(path, actual.target(), is(expected.target()));
+            assertThat(path, actual.params(), is(expected.params()));
+            for (int j = 0; j < actual.params(); j++) {
+              assertThat(path, actual.paramValueStart(j), is(expected.paramValueStart(j)));
+              assertThat(path, actual.paramValueEnd(j), is(expected.paramValueEnd(j)));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCache() {
+    final Router.Builder<String> builder = Router.builder(String.class)
+        .route("GET", "/health", "health")
+        .route("GET", "/users/me", "me")
+        .route("GET", "/users/<user>/blogs/<blog>", "blog")
+        .route("POST", "/users/<user>/blogs/<blog>", "post");
+    final Router<String> router = builder.build();
+    final Router<String> cached = builder.cache(16).build();
+    final Router.Result<String> expected = router.result();
+    final Router.Result<String> actual = cached.result();
+    final List<String> paths = asList(
+        "/health", "/users/me", "/users/foo/blogs/bar?q", "/users/foo/blogs/baz", "/missing",
+        "/users/foo/blogs/bar", "/users/foo/blogs/bar?", "/users/foo/blogs/baz?a=1?b");
+    for (int round = 0; round < 3; round++) {
+      for (final String path : paths) {
+        for (final String method : asList("GET", "POST", "PUT")) {
+          assertThat(cached.route(method, path, actual), is(router.route(method, path, expected)));
+          assertThat(actual.queryStart(), is(expected.queryStart()));
+          assertThat(actual.queryEnd(), is(expected.queryEnd()));
+          if (actual.isSuccess()) {
+            assertThat(actual.target(), is(expected.target()));
+            assertThat(actual.params(), is(expected.params()));
+            for (int i = 0; i < actual.params(); i++) {
+              assertThat(actual.paramValue(i).toString(), is(expected.paramValue(i).toString()));
+            }
+          }
+        }
+      }
+    }
+    // Capture free routes are resolved by the exact table before the cache, and paths are cached
+    // on their second miss, regardless of query
+    assertThat(cached.cacheHits(), is(41L));
+    assertThat(cached.cacheMisses(), is(13L));
+    assertThat(router.cacheHits(), is(0L));
+
+    final byte[] bytes = "xxGET /users/foo/blogs/bar?q".getBytes();
+    assertThat(cached.route(bytes, 2, 3, bytes, 6, bytes.length - 6, actual), is(SUCCESS));
+    assertThat(actual.paramValueStart(1), is(23));
+    assertThat(actual.queryStart(), is(27));
+
+    final Router.Result<String>[] results = new Router.Result[]{cached.result(), cached.result()};
+    cached.routeBatch(new CharSequence[]{"GET", "GET"},
+                      new CharSequence[]{"/users/me", "/users/a/blogs/b"}, results, 2);
+    assertThat(results[0].target(), is("me"));
+    assertThat(results[1].target(), is("blog"));
+    assertThat(results[1].paramValue(1).toString(), is("b"));
+  }
+
+  @Test
+  public void testWithRoute() {
+    final Router<String> router = Router.builder(String.class)
+        .cache(16)
+        .route("GET", "/users/<user>", "user")
+        .route("GET", "/health", "health")
+        .build();
+    final Router<String> updated = router
+        .withRoute("GET", "/users/<user>/blogs/<blog>", "blog")
+        .withRoute("PURGE", "/health", "purge")
+        .withRoute("GET", "/users/me", "me");
+    final Router.Result<String> result = updated.result();
+
+    assertThat(updated.route("GET", "/users/foo/blogs/bar", result), is(SUCCESS));
+    assertThat(result.target(), is("blog"));
+    assertThat(result.paramValue("blog").toString(), is("bar"));
+    assertThat(updated.route("PURGE", "/health", result), is(SUCCESS));
+    assertThat(result.target(), is("purge"));
+    assertThat(result.allowedMethods(), containsInAnyOrder("GET", "PURGE"));
+    assertThat(updated.route("GET", "/users/me?q", result), is(SUCCESS));
+    assertThat(result.target(), is("me"));
+    assertThat(result.params(), is(0));
+    assertThat(updated.route("GET", "/users/you", result), is(SUCCESS));
+    assertThat(result.target(), is("user"));
+
+    // The original router is unchanged
+    assertThat(router.route("GET", "/users/foo/blogs/bar", result), is(NOT_FOUND));
+    assertThat(router.route("PURGE", "/health", result), is(METHOD_NOT_ALLOWED));
+    assertThat(router.route("GET", "/users/me", result), is(SUCCESS));
+    assertThat(result.target(), is("user"));
+  }
+
+  @Test
+  public void testWithoutRoute() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/users/<user>", "user")
+        .route("GET", "/users/me", "me")
+        .route("GET", "/health", "health")
+        .route("POST", "/health", "health-post")
+        .build();
+    final Router.Result<String> result = router.result();
+
+    final Router<String> updated = router
+        .withoutRoute("GET", "/users/me")
+        .withoutRoute("POST", "/health");
+    assertThat(updated.route("GET", "/users/me", result), is(SUCCESS));
+    assertThat(result.target(), is("user"));
+    assertThat(result.paramValue("user").toString(), is("me"));
+    assertThat(updated.route("POST", "/health", result), is(METHOD_NOT_ALLOWED));
+    assertThat(result.allowedMethods(), containsInAnyOrder("GET"));
+
+    final Router<String> empty = updated
+        .withoutRoute("GET", "/users/<other>")
+        .withoutRoute("GET", "/health");
+    assertThat(empty.route("GET", "/users/me", result), is(NOT_FOUND));
+    assertThat(empty.route("GET", "/health", result), is(NOT_FOUND));
+
+    assertThat(router.withoutRoute("GET", "/missing") == router, is(true));
+    assertThat(router.withoutRoute("PURGE", "/health") == router, is(true));
+    assertThat(router.route("POST", "/health", result), is(SUCCESS));
+  }
+
+  @Test
+  public void testExactRoutes() {
+    for (final boolean optionalTrailingSlash : asList(false, true)) {
+      final Router.Builder<String> builder = Router.builder(String.class)
+          .optionalTrailingSlash(optionalTrailingSlash)
+          .route("GET", "/", "root")
+          .route("GET", "/health", "health")
+          .route("POST", "/health", "health-post")
+          .route("GET", "/users/me", "me")
+          .route("GET", "/users/me/", "me-slash")
+          .route("GET", "/users/<user>", "user")
+          .route("GET", "/users/<user>/", "user-slash")
+          .route("GET", "/static/", "static")
+          .route("GET", "/static/<file:path>", "file");
+      final Router<String> router = builder.build();
+      final Router.Result<String> result = router.result();
+
+      assertThat(router.route("GET", "/health?verbose", result), is(SUCCESS));
+      assertThat(result.target(), is("health"));
+      assertThat(result.params(), is(0));
+      assertThat(result.query().toString(), is("verbose"));
+      assertThat(router.route("POST", "/health", result), is(SUCCESS));
+      assertThat(result.target(), is("health-post"));
+      assertThat(router.route("PUT", "/health", result), is(METHOD_NOT_ALLOWED));
+      assertThat(router.route("GET", "/users/me/", result), is(SUCCESS));
+      assertThat(result.target(), is("me-slash"));
+      assertThat(router.route("GET", "/users/you", result), is(SUCCESS));
+      assertThat(result.target(), is("user"));
+      assertThat(router.route("GET", "/static/", result), is(SUCCESS));
+      assertThat(result.target(), is("static"));
+      assertThat(router.route("GET", "/static/a", result), is(SUCCESS));
+      assertThat(result.target(), is("file"));
+
+      // Paths that only the trie resolves
+      assertThat(router.route("GET", "/health/", result),
+                 is(optionalTrailingSlash ? SUCCESS : NOT_FOUND));
+      assertThat(router.route("GET", "/static?q", result),
+                 is(optionalTrailingSlash ? SUCCESS : NOT_FOUND));
+      final byte[] bytes = "GET /users/me?q".getBytes();
+      assertThat(router.route(bytes, 0, 3, bytes, 4, bytes.length - 4, result), is(SUCCESS));
+      assertThat(result.target(), is("me"));
+      assertThat(result.queryStart(), is(14));
+    }
+  }
+
+  @Test
+  public void testMethodIdRouting() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/foo/<bar>", "get")
+        .route("PROPFIND", "/foo/<bar>", "propfind")
+        .route("MKCOL", "/foo/<bar>", "mkcol")
+        .route("MKCOL", "/foo/<bar>", "mkcol2")
+        .build();
+    final Router.Result<String> result = router.result();
+
+    assertThat(router.route(HttpMethod.GET, "/foo/baz", result), is(SUCCESS));
+    assertThat(result.target(), is("get"));
+    assertThat(result.paramValue(0).toString(), is("baz"));
+    assertThat(router.route(HttpMethod.GET.id(), "/foo/baz", result), is(SUCCESS));
+    assertThat(result.target(), is("get"));
+    assertThat(router.route(HttpMethod.DELETE, "/foo/baz", result), is(METHOD_NOT_ALLOWED));
+    assertThat(router.route(HttpMethod.DELETE, "/bar", result), is(NOT_FOUND));
+
+    final int propfind = router.methodId("PROPFIND");
+    assertThat(router.route(propfind, "/foo/baz", result), is(SUCCESS));
+    assertThat(result.target(), is("propfind"));
+    assertThat(router.route("MKCOL", "/foo/baz", result), is(SUCCESS));
+    assertThat(result.target(), is("mkcol2"));
+    assertThat(result.allowedMethods(), hasSize(3));
+    assertThat(result.allowedMethods(), containsInAnyOrder("GET", "PROPFIND", "MKCOL"));
+
+    assertThat(router.methodId("LOCK"), is(-1));
+    assertThat(router.route(-1, "/foo/baz", result), is(METHOD_NOT_ALLOWED));
+    assertThat(router.route(Integer.MAX_VALUE, "/foo/baz", result), is(METHOD_NOT_ALLOWED));
+    assertThat(router.route("LOCK", "/foo/baz", result), is(METHOD_NOT_ALLOWED));
+  }
+
   @Test
   public void verifyResultTargetThrowsIfNotSuccessful() {
     final Router<String> router = Router.builder(String.class)
@@ -230,6 +542,55 @@ public class RouterTest {
     assertThat(result.paramValueDecoded(0).toString(), is("foobar"));
   }
 
+  @Test
+  public void testParamValueDecodingIntoBuffers() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/<a>/<b>/<c>", "")
+        .build();
+    final Router.Result<String> result = router.result();
+    assertThat(router.route("GET", "/r%C3%A4k/foo/%C3%fo", result), is(SUCCESS));
+
+    assertThat(result.paramValueDecodedLength(0), is(3));
+    final char[] chars = new char[5];
+    assertThat(result.paramValueDecoded(0, chars, 1), is(3));
+    assertThat(new String(chars, 1, 3), is("räk"));
+    assertThat(result.paramValueDecoded(1, chars, 2), is(3));
+    assertThat(new String(chars, 2, 3), is("foo"));
+
+    final StringBuilder b = new StringBuilder();
+    assertThat(result.paramValueDecoded(0, b), is(3));
+    assertThat(result.paramValueDecoded(1, b), is(3));
+    assertThat(b.toString(), is("räkfoo"));
+
+    final CharBuffer buffer = CharBuffer.allocate(6);
+    assertThat(result.paramValueDecoded(0, buffer), is(3));
+    assertThat(result.paramValueDecoded(1, buffer), is(3));
+    assertThat(buffer.flip().toString(), is("räkfoo"));
+
+    assertThat(result.paramValueDecodedLength(2), is(Router.Result.INVALID_ENCODING));
+    assertThat(result.paramValueDecoded(2, b), is(Router.Result.INVALID_ENCODING));
+    assertThat(result.paramValueDecoded(2, chars, 0), is(Router.Result.INVALID_ENCODING));
+    assertThat(result.paramValueDecoded(2, buffer), is(Router.Result.INVALID_ENCODING));
+    assertThat(b.toString(), is("räkfoo"));
+    assertThat(result.paramValueDecoded(0).toString(), is("räk"));
+
+    // Decoded values are not carried over to the next routing
+    assertThat(router.route("GET", "/%C3%B6l/%25/bar", result), is(SUCCESS));
+    assertThat(result.paramValueDecoded(0).toString(), is("öl"));
+    assertThat(result.paramValueDecoded(1).toString(), is("%"));
+    assertThat(result.paramValueDecodedLength(2), is(3));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyParamValueDecodedIntoTooSmallArrayThrows() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/<a>", "")
+        .build();
+    final Router.Result<String> result = router.result();
+    router.route("GET", "/r%C3%A4k", result);
+    result.paramValueDecoded(0, new char[2], 0);
+  }
+
   @Test
   public void testParamValueDecodingSupplementary() {
     final Router<String> router = Router.builder(String.class)
@@ -432,6 +793,411 @@ public class RouterTest {
     assertThat(result.paramType(1), is(PATH));
   }
 
+  @Test
+  public void testTypedParams() throws Exception {
+    final String uuid = "123e4567-e89b-12d3-a456-426614174000";
+    for (final boolean specialize : asList(false, true)) {
+      final Router<String> router = Router.builder(String.class)
+          .specialize(specialize)
+          .route("GET", "/users/<id:long>", "id")
+          .route("GET", "/users/<name>", "name")
+          .route("GET", "/users/<id:long>/posts/<post:int>", "post")
+          .route("GET", "/keys/<key:uuid>", "key")
+          .route("GET", "/blobs/<hash:hex>", "blob")
+          .build();
+      final Router.Result<String> result = router.result();
+
+      assertThat(router.route("GET", "/users/-17", result), is(SUCCESS));
+      assertThat(result.target(), is("id"));
+      assertThat(result.paramType(0), is(LONG));
+      assertThat(result.paramLong(0), is(-17L));
+      assertThat(result.paramLong("id"), is(-17L));
+      assertThat(result.paramInt(0), is(-17));
+
+      assertThat(router.route("GET", "/users/foo", result), is(SUCCESS));
+      assertThat(result.target(), is("name"));
+      assertThat(result.paramType(0), is(SEGMENT));
+
+      assertThat(router.route("GET", "/users/4711/posts/17?q", result), is(SUCCESS));
+      assertThat(result.target(), is("post"));
+      assertThat(result.paramType(1), is(INT));
+      assertThat(result.paramLong(0), is(4711L));
+      assertThat(result.paramInt("post"), is(17));
+      assertThat(router.route("GET", "/users/4711/posts/foo", result), is(NOT_FOUND));
+
+      assertThat(router.route("GET", "/keys/" + uuid, result), is(SUCCESS));
+      assertThat(result.paramType(0), is(UUID));
+      assertThat(result.paramUuid(0), is(java.util.UUID.fromString(uuid)));
+      assertThat(result.paramUuid("key"), is(java.util.UUID.fromString(uuid)));
+      assertThat(router.route("GET", "/keys/foo", result), is(NOT_FOUND));
+
+      assertThat(router.route("GET", "/blobs/c0ffee", result), is(SUCCESS));
+      assertThat(result.paramType(0), is(HEX));
+      assertThat(router.route("GET", "/blobs/coffee", result), is(NOT_FOUND));
+    }
+  }
+
+  @Test
+  public void testPrescan() {
+    final String[] parts = {"a", "/", "/a", "<x>", "<i:int>", "-<y>", "<p:path>"};
+    final char[] chars = {'a', '1', '-', '/', '?', '%', '2', 'F', '&', '='};
+    final Random random = new Random(17);
+    for (final boolean specialize : asList(false, true)) {
+      for (int i = 0; i < 100; i++) {
+        final Router.Builder<String> builder = Router.builder(String.class).specialize(specialize);
+        final int routes = 1 + random.nextInt(8);
+        for (int j = 0; j < routes; j++) {
+          final StringBuilder route = new StringBuilder();
+          final int n = 1 + random.nextInt(4);
+          for (int k = 0; k < n; k++) {
+            route.append(parts[random.nextInt(parts.length - 1)]);
+          }
+          if (random.nextBoolean()) {
+            route.append(parts[parts.length - 1]);
+          }
+          builder.route("GET", route.toString(), route.toString());
+        }
+        final Router<String> router = builder.build();
+        final Router.Result<String> expected = router.result();
+        final Router.Result<String> actual = router.result();
+        actual.prescan(true);
+        for (int j = 0; j < 100; j++) {
+          final StringBuilder path = new StringBuilder();
+          final int n = random.nextInt(10);
+          for (int k = 0; k < n; k++) {
+            path.append(chars[random.nextInt(chars.length)]);
+          }
+          final String p = path.toString();
+          assertThat(p, router.route("GET", p, actual), is(router.route("GET", p, expected)));
+          if (!expected.isSuccess()) {
+            continue;
+          }
+          assertThat(actual.target(), is(expected.target()));
+          assertThat(actual.queryStart(), is(expected.queryStart()));
+          assertThat(actual.params(), is(expected.params()));
+          for (int k = 0; k < expected.params(); k++) {
+            assertThat(actual.paramValueStart(k), is(expected.paramValueStart(k)));
+            assertThat(actual.paramValueEnd(k), is(expected.paramValueEnd(k)));
+            assertThat(toString(actual.paramValueDecoded(k)),
+                       is(toString(expected.paramValueDecoded(k))));
+          }
+          final QueryParams expectedParams = expected.queryParams();
+          final QueryParams actualParams = actual.queryParams();
+          while (expectedParams.next()) {
+            assertThat(actualParams.next(), is(true));
+            assertThat(actualParams.nameStart(), is(expectedParams.nameStart()));
+            assertThat(actualParams.valueEnd(), is(expectedParams.valueEnd()));
+          }
+          assertThat(actualParams.next(), is(false));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testQueryParams() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/search", "search")
+        .route("GET", "/<x>", "x")
+        .cache(16)
+        .build();
+    final Router.Result<String> result = router.result();
+
+    for (int i = 0; i < 2; i++) {
+      assertThat(router.route("GET", "/search?limit=50&cursor=a%2Bb&q=x+y", result), is(SUCCESS));
+      assertThat(result.queryParam("cursor").toString(), is("a%2Bb"));
+      assertThat(result.queryParam("q").toString(), is("x+y"));
+      assertThat(result.queryParam("missing"), is(nullValue()));
+      final QueryParams params = result.queryParams();
+      assertThat(params.next("limit"), is(true));
+      assertThat(params.valueLong(), is(50L));
+      assertThat(params.next(), is(true));
+      final StringBuilder b = new StringBuilder();
+      params.valueDecoded(b);
+      assertThat(b.toString(), is("a+b"));
+
+      assertThat(router.route("GET", "/foo?a=1", result), is(SUCCESS));
+      assertThat(result.queryParam("a").toString(), is("1"));
+      assertThat(router.route("GET", "/foo", result), is(SUCCESS));
+      assertThat(result.queryParams().next(), is(false));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void verifyQueryParamsThrowsIfNotSuccessful() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/search", "search")
+        .build();
+    final Router.Result<String> result = router.result();
+    router.route("GET", "/missing?q=1", result);
+    result.queryParams();
+  }
+
+  @Test
+  public void testHostRouting() {
+    for (final boolean specialize : new boolean[]{false, true}) {
+      final Router<String> router = Router.builder(String.class)
+          .route("GET", "/health", "health")
+          .route("GET", "/users/<user>", "default-user")
+          .route("api.example.com", "GET", "/users/<user>", "api-user")
+          .route("API.example.com", "POST", "/users", "api-create")
+          .route("*.example.com", "GET", "/blogs/<blog>/posts/<post>", "tenant-post")
+          .route("*.example.com", "GET", "/users/<user>", "tenant-user")
+          .specialize(specialize)
+          .cache(16)
+          .build();
+      final Router.Result<String> result = router.result();
+
+      for (int i = 0; i < 2; i++) {
+        assertThat(router.route("Api.Example.com:8443", "GET", "/users/foo", result),
+                   is(SUCCESS));
+        assertThat(result.target(), is("api-user"));
+        assertThat(result.host(), is("api.example.com"));
+        assertThat(result.hostValue(), is(nullValue()));
+        assertThat(result.hostValueEnd(), is(-1));
+        assertThat(result.paramValue("user").toString(), is("foo"));
+        assertThat(router.route("api.example.com", HttpMethod.POST, "/users", result),
+                   is(SUCCESS));
+        assertThat(result.target(), is("api-create"));
+        assertThat(router.route("api.example.com", "GET", "/health", result), is(NOT_FOUND));
+        assertThat(result.host(), is("api.example.com"));
+
+        assertThat(router.route("acme.example.com", "GET", "/blogs/b/posts/17", result),
+                   is(SUCCESS));
+        assertThat(result.target(), is("tenant-post"));
+        assertThat(result.host(), is("*.example.com"));
+        assertThat(result.hostValue().toString(), is("acme"));
+        assertThat(result.hostValueView().toString(), is("acme"));
+        assertThat(result.hostValueEnd(), is(4));
+        assertThat(result.params(), is(2));
+        assertThat(result.paramValue("post").toString(), is("17"));
+        assertThat(router.route("acme.example.com", "POST", "/users/foo", result),
+                   is(METHOD_NOT_ALLOWED));
+
+        assertThat(router.route("example.org", "GET", "/users/foo", result), is(SUCCESS));
+        assertThat(result.target(), is("default-user"));
+        assertThat(result.host(), is(nullValue()));
+        assertThat(result.hostValue(), is(nullValue()));
+        assertThat(router.route("example.org", "GET", "/health", result), is(SUCCESS));
+
+        assertThat(router.route("acme.example.com", "GET", "/users/foo", result), is(SUCCESS));
+        assertThat(router.route("GET", "/users/foo", result), is(SUCCESS));
+        assertThat(result.target(), is("default-user"));
+        assertThat(result.host(), is(nullValue()));
+      }
+
+      final Router<String> next = router.withRoute("GET", "/users", "default-users");
+      assertThat(next.route("api.example.com", "GET", "/users/foo", result), is(SUCCESS));
+      assertThat(result.target(), is("api-user"));
+      assertThat(next.route("example.org", "GET", "/users", result), is(SUCCESS));
+      assertThat(result.target(), is("default-users"));
+    }
+  }
+
+  @Test
+  public void testHostRoutingWithoutHosts() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/foo", "foo")
+        .build();
+    final Router.Result<String> result = router.result();
+    assertThat(router.route("example.com", "GET", "/foo", result), is(SUCCESS));
+    assertThat(result.host(), is(nullValue()));
+  }
+
+  @Test
+  public void testHostResultCapacity() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/foo", "foo")
+        .route("example.com", "GET", "/<a>/<b>/<c>", "abc")
+        .build();
+    final Router.Result<String> result = router.result();
+    assertThat(router.route("example.com", "GET", "/1/2/3", result), is(SUCCESS));
+    assertThat(result.paramValue(2).toString(), is("3"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void verifyInvalidHostThrows() {
+    Router.builder(String.class).route("example.com:80", "GET", "/foo", "foo");
+  }
+
+  @Test
+  public void testNodePool() {
+    final NodePool pool = new NodePool();
+    final Router<String> first = tenant(pool, "a").build();
+    final int size = pool.size();
+    final Router<String> second = tenant(pool, "b").build();
+    assertThat(pool.size(), is(size));
+    final Router<String> third = tenant(pool, "c")
+        .route("GET", "/extra", "extra")
+        .build();
+    assertThat(pool.size() > size, is(true));
+
+    for (final Router<String> router : asList(first, second, third)) {
+      final Router.Result<String> result = router.result();
+      assertThat(router.route("GET", "/posts/17/history", result), is(SUCCESS));
+      assertThat(result.target(), is("history"));
+      assertThat(result.paramValue("id").toString(), is("17"));
+      assertThat(router.route("DELETE", "/users/17", result), is(METHOD_NOT_ALLOWED));
+    }
+    final Router.Result<String> result = third.result();
+    assertThat(third.route("GET", "/extra", result), is(SUCCESS));
+    assertThat(first.route("GET", "/extra", result), is(NOT_FOUND));
+  }
+
+  @Test
+  public void testEqualTargetsAreNotShared() {
+    final NodePool pool = new NodePool();
+    final String users = new String("history");
+    final String posts = new String("history");
+    final Router<String> router = Router.builder(String.class)
+        .nodePool(pool)
+        .route("GET", "/users/<id>/history", users)
+        .route("GET", "/posts/<id>/history", posts)
+        .build();
+    final String other = new String("history");
+    final Router<String> tenant = Router.builder(String.class)
+        .nodePool(pool)
+        .route("GET", "/users/<id>/history", other)
+        .build();
+    final Router.Result<String> result = router.result();
+    assertThat(router.route("GET", "/users/17/history", result), is(SUCCESS));
+    assertThat(result.target(), is(sameInstance(users)));
+    assertThat(router.route("GET", "/posts/17/history", result), is(SUCCESS));
+    assertThat(result.target(), is(sameInstance(posts)));
+    assertThat(tenant.route("GET", "/users/17/history", result), is(SUCCESS));
+    assertThat(result.target(), is(sameInstance(other)));
+  }
+
+  private static Router.Builder<String> tenant(final NodePool pool, final String tenant) {
+    final Router.Builder<String> builder = Router.builder(String.class).nodePool(pool);
+    for (final String resource : asList("users", "posts", "blogs")) {
+      builder.route("GET", "/" + resource + "/<id>", "get")
+          .route("GET", "/" + resource + "/<id>/history", "history")
+          .route("GET", "/" + resource + "/<id>/permissions", "permissions");
+    }
+    return builder;
+  }
+
+  @Test
+  public void testParamKeys() {
+    final ParamKey user = ParamKey.of("user");
+    final ParamKey id = ParamKey.of("id");
+    final ParamKey missing = ParamKey.of("missing");
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/users/<user>/posts/<id:long>", "post")
+        .route("GET", "/posts/<id:int>", "id")
+        .build();
+    final Router.Result<String> result = router.result();
+
+    assertThat(router.route("GET", "/users/foo/posts/17", result), is(SUCCESS));
+    assertThat(result.paramIndex(user), is(0));
+    assertThat(result.paramIndex(id), is(1));
+    assertThat(result.paramIndex(missing), is(-1));
+    assertThat(result.paramValue(user).toString(), is("foo"));
+    assertThat(result.paramEquals(user, "foo"), is(true));
+    assertThat(result.paramLong(id), is(17L));
+    assertThat(result.paramType(id), is(LONG));
+    assertThat(result.paramValueStart(id), is(17));
+    assertThat(result.paramValueEnd(id), is(19));
+
+    assertThat(router.route("GET", "/posts/4711", result), is(SUCCESS));
+    assertThat(result.paramIndex(id), is(0));
+    assertThat(result.paramIndex(user), is(-1));
+    assertThat(result.paramInt(id), is(4711));
+    assertThat(result.paramValueView(id).toString(), is("4711"));
+    assertThat(result.paramValue("id").toString(), is("4711"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void verifyParamKeyThrowsIfMissing() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/posts/<id>", "id")
+        .build();
+    final Router.Result<String> result = router.result();
+    router.route("GET", "/posts/17", result);
+    result.paramValue(ParamKey.of("user"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void verifyParamKeyThrowsIfNotSuccessful() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/posts/<id>", "id")
+        .build();
+    final Router.Result<String> result = router.result();
+    router.route("GET", "/users/17", result);
+    result.paramIndex(ParamKey.of("id"));
+  }
+
+  @Test
+  public void testParamValueViews() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/users/<user>/blogs/<blog>", "blog")
+        .build();
+    final Router.Result<String> result = router.result();
+
+    final byte[] request = "GET /users/foo/blogs/bar-baz?q=a".getBytes();
+    assertThat(router.route(request, 0, 3, request, 4, 28, result), is(SUCCESS));
+    final CharSequence user = result.paramValueView(0);
+    final CharSequence blog = result.paramValueView("blog");
+    assertThat(user.toString(), is("foo"));
+    assertThat(blog.length(), is(7));
+    assertThat(blog.charAt(3), is('-'));
+    assertThat(blog.subSequence(4, 7).toString(), is("baz"));
+    assertThat(result.paramValueView(0) == user, is(true));
+    assertThat(result.queryView().toString(), is("q=a"));
+
+    assertThat(result.paramEquals(0, "foo"), is(true));
+    assertThat(result.paramEquals(0, "fo"), is(false));
+    assertThat(result.paramEquals(0, "fox"), is(false));
+    assertThat(result.paramEquals("blog", "bar-baz"), is(true));
+    assertThat(result.paramRegionMatches(1, 4, "xbaz", 1, 3), is(true));
+    assertThat(result.paramRegionMatches(1, 4, "xbaz", 0, 3), is(false));
+    assertThat(result.paramRegionMatches(1, 5, "baz", 0, 3), is(false));
+    assertThat(result.paramRegionMatches(1, -1, "baz", 0, 3), is(false));
+
+    final char[] chars = new char[8];
+    assertThat(result.paramCopyTo(1, chars, 1), is(7));
+    assertThat(new String(chars, 1, 7), is("bar-baz"));
+    final StringBuilder b = new StringBuilder("x");
+    assertThat(result.paramCopyTo(0, b).toString(), is("xfoo"));
+
+    // Views are reused by later routing
+    assertThat(router.route("GET", "/users/quux/blogs/b", result), is(SUCCESS));
+    assertThat(result.paramValueView(0) == user, is(true));
+    assertThat(user.toString(), is("quux"));
+    assertThat(result.queryView(), is(nullValue()));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void verifyParamCopyToTooSmallArrayThrows() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/users/<user>", "user")
+        .build();
+    final Router.Result<String> result = router.result();
+    router.route("GET", "/users/foo", result);
+    result.paramCopyTo(0, new char[3], 1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void verifyParamValueViewThrowsIfNotSuccessful() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/users/<user>", "user")
+        .build();
+    final Router.Result<String> result = router.result();
+    router.route("GET", "/groups/foo", result);
+    result.paramValueView(0);
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void verifyParamLongOfNonNumberThrows() {
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/users/<name>", "name")
+        .build();
+    final Router.Result<String> result = router.result();
+    router.route("GET", "/users/foo", result);
+    result.paramLong(0);
+  }
+
   private List<String> p(final String... params) {
     return asList(params);
   }
@@ -0,0 +1,231 @@
+package io.norberg.rut;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.norberg.rut.Router.Status.SUCCESS;
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class SnapshotTest {
+
+  private static final String[] TARGETS = {
+      "root", "users", "user", "blog", "file", "purge", "me", "post", "version"};
+
+  private static final List<String> PATHS = asList(
+      "/", "/users", "/users/", "/users/foo", "/users/me", "/users/me?q=1",
+      "/users/foo/blogs/bar", "/users/foo/blogs/bar/", "/users/foo/blogs/bar/17",
+      "/users/foo/blogs/bar/x", "/static/a/b/c", "/static", "/missing", "/api/v1/users",
+      "/api/vx/users");
+
+  @Rule public ExpectedException exception = ExpectedException.none();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReadSnapshot() throws IOException {
+    for (final boolean optionalTrailingSlash : asList(false, true)) {
+      for (final boolean specialize : asList(false, true)) {
+        final Router<String> router = router(optionalTrailingSlash, specialize);
+        final Router<String> read = Router.readSnapshot(
+            ByteBuffer.wrap(snapshot(router, TARGETS)), TARGETS);
+        verifyEquivalent(router, read);
+      }
+    }
+  }
+
+  @Test
+  public void testSharedSubtrees() throws IOException {
+    final String[] targets = {"history", "permissions"};
+    final Router.Builder<String> builder = Router.builder(String.class);
+    for (final String resource : asList("users", "posts", "blogs")) {
+      builder.route("GET", "/" + resource + "/<id>/history", "history");
+      builder.route("GET", "/" + resource + "/<id>/permissions", "permissions");
+    }
+    final Router<String> read = Router.readSnapshot(
+        ByteBuffer.wrap(snapshot(builder.build(), targets)), targets);
+    final Router.Result<String> result = read.result();
+    for (final String resource : asList("users", "posts", "blogs")) {
+      assertThat(read.route("GET", "/" + resource + "/17/history", result), is(SUCCESS));
+      assertThat(result.target(), is("history"));
+      assertThat(result.paramValue("id").toString(), is("17"));
+      assertThat(read.route("GET", "/" + resource + "/17/permissions", result), is(SUCCESS));
+      assertThat(result.target(), is("permissions"));
+    }
+  }
+
+  @Test
+  public void testHosts() throws IOException {
+    final String[] targets = {"user", "api-user", "tenant-user", "tenant-post"};
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/users/<user>", "user")
+        .route("api.example.com", "GET", "/users/<user>", "api-user")
+        .route("api.example.com", "PURGE", "/users/<user>", "api-user")
+        .route("*.example.com", "GET", "/users/<user>", "tenant-user")
+        .route("*.example.com", "GET", "/blogs/<blog>/posts/<post:long>", "tenant-post")
+        .build();
+    final Router<String> read = Router.readSnapshot(
+        ByteBuffer.wrap(snapshot(router, targets)), targets);
+    verifyEquivalent(router, read);
+    final Router.Result<String> result = read.result();
+    assertThat(read.route("API.example.com:80", "GET", "/users/foo", result), is(SUCCESS));
+    assertThat(result.target(), is("api-user"));
+    assertThat(result.host(), is("api.example.com"));
+    assertThat(read.route("api.example.com", "PURGE", "/users/foo", result), is(SUCCESS));
+    assertThat(read.route("acme.example.com", "GET", "/blogs/b/posts/17", result),
+               is(SUCCESS));
+    assertThat(result.target(), is("tenant-post"));
+    assertThat(result.hostValue().toString(), is("acme"));
+    assertThat(result.paramLong(1), is(17L));
+    assertThat(read.route("example.org", "GET", "/users/foo", result), is(SUCCESS));
+    assertThat(result.target(), is("user"));
+  }
+
+  @Test
+  public void testEqualTargets() throws IOException {
+    final String[] targets = {new String("history"), new String("history")};
+    final Router<String> router = Router.builder(String.class)
+        .route("GET", "/users/<id>/history", targets[0])
+        .route("GET", "/posts/<id>/history", targets[1])
+        .route("GET", "/users", targets[0])
+        .route("GET", "/posts", targets[1])
+        .build();
+    final Router<String> read = Router.readSnapshot(
+        ByteBuffer.wrap(snapshot(router, targets)), targets);
+    final Router.Result<String> result = read.result();
+    assertThat(read.route("GET", "/users/17/history", result), is(SUCCESS));
+    assertThat(result.target(), is(sameInstance(targets[0])));
+    assertThat(read.route("GET", "/posts/17/history", result), is(SUCCESS));
+    assertThat(result.target(), is(sameInstance(targets[1])));
+    assertThat(read.route("GET", "/users", result), is(SUCCESS));
+    assertThat(result.target(), is(sameInstance(targets[0])));
+    assertThat(read.route("GET", "/posts", result), is(SUCCESS));
+    assertThat(result.target(), is(sameInstance(targets[1])));
+  }
+
+  @Test
+  public void testLoadSnapshot() throws IOException {
+    final Router<String> router = router(false, false);
+    final File file = folder.newFile("routes.snapshot");
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      router.writeSnapshot(out, TARGETS);
+    } finally {
+      out.close();
+    }
+    verifyEquivalent(router, Router.loadSnapshot(file, TARGETS));
+  }
+
+  @Test
+  public void testEmptyRouter() throws IOException {
+    final Router<String> router = Router.builder(String.class).build();
+    final Router<String> read = Router.readSnapshot(
+        ByteBuffer.wrap(snapshot(router, new String[0])), new String[0]);
+    assertThat(read.route("GET", "/", read.result()), is(Router.Status.NOT_FOUND));
+  }
+
+  @Test
+  public void testReadSnapshotDoesNotModifyBuffer() throws IOException {
+    final byte[] snapshot = snapshot(router(false, false), TARGETS);
+    final ByteBuffer buffer = ByteBuffer.allocate(snapshot.length + 3);
+    buffer.position(3);
+    buffer.put(snapshot);
+    buffer.position(3);
+    verifyEquivalent(router(false, false), Router.readSnapshot(buffer, TARGETS));
+    assertThat(buffer.position(), is(3));
+  }
+
+  @Test
+  public void verifyUnknownTargetThrows() throws IOException {
+    exception.expect(IllegalArgumentException.class);
+    snapshot(router(false, false), Arrays.copyOf(TARGETS, 2));
+  }
+
+  @Test
+  public void verifyUnsupportedVersionThrows() throws IOException {
+    final byte[] snapshot = snapshot(router(false, false), TARGETS);
+    snapshot[7] = 17;
+    exception.expect(IllegalArgumentException.class);
+    exception.expectMessage("version");
+    Router.readSnapshot(ByteBuffer.wrap(snapshot), TARGETS);
+  }
+
+  @Test
+  public void verifyTruncatedSnapshotThrows() throws IOException {
+    final byte[] snapshot = snapshot(router(false, false), TARGETS);
+    for (int length = 0; length < snapshot.length; length++) {
+      try {
+        Router.readSnapshot(ByteBuffer.wrap(snapshot, 0, length), TARGETS);
+        throw new AssertionError("read truncated snapshot of length " + length);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  private static Router<String> router(final boolean optionalTrailingSlash,
+                                       final boolean specialize) {
+    return Router.builder(String.class)
+        .optionalTrailingSlash(optionalTrailingSlash)
+        .specialize(specialize)
+        .cache(16)
+        .route("GET", "/", "root")
+        .route("GET", "/users", "users")
+        .route("POST", "/users", "users")
+        .route("GET", "/users/<user>", "user")
+        .route("GET", "/users/me", "me")
+        .route("GET", "/users/<user>/blogs/<blog>", "blog")
+        .route("PURGE", "/users/<user>/blogs/<blog>", "purge")
+        .route("GET", "/users/<user>/blogs/<blog>/<post:long>", "post")
+        .route("GET", "/static/<file:path>", "file")
+        .route("GET", "/api/<version:v\\d+>/users", "version")
+        .build();
+  }
+
+  private static byte[] snapshot(final Router<String> router, final String[] targets)
+      throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    router.writeSnapshot(out, targets);
+    return out.toByteArray();
+  }
+
+  private static void verifyEquivalent(final Router<String> expected,
+                                       final Router<String> actual) {
+    final Router.Result<String> expectedResult = expected.result();
+    final Router.Result<String> actualResult = actual.result();
+    for (final String method : asList("GET", "POST", "PURGE", "DELETE")) {
+      assertThat(actual.methodId(method), is(expected.methodId(method)));
+      for (final String path : PATHS) {
+        final Router.Status status = expected.route(method, path, expectedResult);
+        assertThat(method + " " + path, actual.route(method, path, actualResult), is(status));
+        if (status == SUCCESS) {
+          assertThat(actualResult.target(), is(expectedResult.target()));
+          assertThat(actualResult.params(), is(expectedResult.params()));
+          for (int i = 0; i < expectedResult.params(); i++) {
+            assertThat(actualResult.paramName(i), is(expectedResult.paramName(i)));
+            assertThat(actualResult.paramType(i), is(expectedResult.paramType(i)));
+            assertThat(actualResult.paramValue(i).toString(),
+                       is(expectedResult.paramValue(i).toString()));
+          }
+          assertThat(actualResult.queryStart(), is(expectedResult.queryStart()));
+        }
+        if (status != Router.Status.NOT_FOUND) {
+          assertThat(actualResult.allowedMethods(),
+                     containsInAnyOrder(expectedResult.allowedMethods().toArray()));
+        }
+      }
+    }
+  }
+}
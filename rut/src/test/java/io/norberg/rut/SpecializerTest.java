@@ -0,0 +1,212 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SpecializerTest {
+
+  private static final List<String> PATHS = asList(
+      "/",
+      "//",
+      "//<param:path>",
+      "/1-without-trailing-slash",
+      "/2-without-trailing-slash/<param>",
+      "/3-with-trailing-slash/",
+      "/4-with-trailing-slash/<param>/",
+      "/5-without-trailing-slash-path/<param:path>",
+      "/6-with-trailing-slash-nested/entity/",
+      "/7-with-trailing-slash-nested/entity/<param>",
+      "/1x-ambiguous",
+      "/1x-ambiguous/",
+      "/2x-fork",
+      "/2x-fork/",
+      "/2x-fork/a",
+      "/2x-fork/<param>",
+      "/users/<user>/blogs/<blog>/posts/<post>",
+      "/users/<user>.json",
+      "/users/<user>-<suffix>/",
+      "1-shortfork1/1",
+      "1-shortfork1-",
+      "5-foo/",
+      "5-foo_");
+
+  @Test
+  public void testSpecialized() {
+    for (final boolean optionalTrailingSlash : asList(false, true)) {
+      final RadixTrie<String> trie = trie(PATHS);
+      final RadixTrie<String> specialized = trie.specialize();
+      assertThat(specialized.isSpecialized(), is(true));
+      assertThat(specialized.specialize(), is(specialized));
+
+      final List<String> paths = new ArrayList<String>();
+      for (final String path : PATHS) {
+        final String uri = path.replaceAll("<[^>]*>", "foo");
+        paths.add(uri);
+        paths.add(uri + "/");
+        paths.add(uri + "?q");
+        paths.add(uri + "/?q");
+        paths.add(uri.substring(0, uri.length() - 1));
+        paths.add(uri.substring(0, uri.length() - 1) + "?");
+      }
+      verifyEquivalent(trie, specialized, paths, optionalTrailingSlash);
+    }
+  }
+
+  @Test
+  public void testRandomTables() {
+    final Random random = new Random(4711);
+    for (int i = 0; i < 200; i++) {
+      final List<String> routes = new ArrayList<String>();
+      final int n = 1 + random.nextInt(12);
+      for (int j = 0; j < n; j++) {
+        routes.add(randomRoute(random));
+      }
+      final RadixTrie<String> trie = trie(routes);
+      final RadixTrie<String> specialized = trie.specialize();
+      assertThat(specialized.isSpecialized(), is(true));
+      final List<String> paths = new ArrayList<String>();
+      for (int j = 0; j < 100; j++) {
+        paths.add(randomPath(random));
+      }
+      verifyEquivalent(trie, specialized, paths, false);
+      verifyEquivalent(trie, specialized, paths, true);
+    }
+  }
+
+  @Test
+  public void testRandomTypedTables() {
+    final Random random = new Random(17);
+    final String[] parts = {"1", "/", "/a", "<x>", "<i:int>", "<l:long>-", "/<h:hex>", "a<j:int>",
+                            "<r:[a1]+>", "<v:(1|a-)*>-"};
+    for (int i = 0; i < 200; i++) {
+      final List<String> routes = new ArrayList<String>();
+      final int n = 1 + random.nextInt(12);
+      for (int j = 0; j < n; j++) {
+        final StringBuilder b = new StringBuilder();
+        final int m = 1 + random.nextInt(5);
+        for (int k = 0; k < m; k++) {
+          b.append(parts[random.nextInt(parts.length)]);
+        }
+        routes.add(b.toString());
+      }
+      final RadixTrie<String> trie = trie(routes);
+      final RadixTrie<String> specialized = trie.specialize();
+      assertThat(specialized.isSpecialized(), is(true));
+      final List<String> paths = new ArrayList<String>();
+      final char[] chars = {'1', '2', 'a', 'f', '-', '/', '?', 'x'};
+      for (int j = 0; j < 100; j++) {
+        final StringBuilder b = new StringBuilder();
+        final int m = random.nextInt(10);
+        for (int k = 0; k < m; k++) {
+          b.append(chars[random.nextInt(chars.length)]);
+        }
+        paths.add(b.toString());
+      }
+      verifyEquivalent(trie, specialized, paths, false);
+      verifyEquivalent(trie, specialized, paths, true);
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    final RadixTrie<String> specialized = RadixTrie.<String>builder().build().specialize();
+    assertThat(specialized.isSpecialized(), is(true));
+    assertThat(specialized.lookup("/foo"), is((String) null));
+  }
+
+  @Test
+  public void testRouter() {
+    final Router<String> router = Router.builder(String.class)
+        .specialize(true)
+        .route("GET", "/users/<user>", "user")
+        .route("GET", "/static/<file:path>", "static")
+        .build();
+    final Router.Result<String> result = router.result();
+    assertThat(router.route("GET", "/users/foo?q", result), is(Router.Status.SUCCESS));
+    assertThat(result.target(), is("user"));
+    assertThat(result.paramValue(0).toString(), is("foo"));
+    assertThat(result.query().toString(), is("q"));
+    assertThat(router.route("GET", "/static/a/b", result), is(Router.Status.SUCCESS));
+    assertThat(result.paramValue(0).toString(), is("a/b"));
+    assertThat(router.route("GET", "/other", result), is(Router.Status.NOT_FOUND));
+
+    // Updated routers are interpreted
+    final Router<String> updated = router.withRoute("GET", "/other/<id>", "other");
+    assertThat(updated.route("GET", "/other/1", result), is(Router.Status.SUCCESS));
+    assertThat(result.target(), is("other"));
+    assertThat(updated.route("GET", "/users/foo", result), is(Router.Status.SUCCESS));
+    assertThat(result.target(), is("user"));
+  }
+
+  private static RadixTrie<String> trie(final List<String> paths) {
+    final RadixTrie.Builder<String> builder = RadixTrie.builder(String.class);
+    for (final String path : paths) {
+      builder.insert(path, path);
+    }
+    return builder.build();
+  }
+
+  private static void verifyEquivalent(final RadixTrie<String> expected,
+                                       final RadixTrie<String> actual, final List<String> paths,
+                                       final boolean optionalTrailingSlash) {
+    verifyEquivalent(expected, actual, paths, optionalTrailingSlash, false);
+    verifyEquivalent(expected, actual, paths, optionalTrailingSlash, true);
+  }
+
+  private static void verifyEquivalent(final RadixTrie<String> expected,
+                                       final RadixTrie<String> actual, final List<String> paths,
+                                       final boolean optionalTrailingSlash, final boolean bytes) {
+    final RadixTrie.Captor e = expected.captor();
+    final RadixTrie.Captor a = actual.captor();
+    e.optionalTrailingSlash(optionalTrailingSlash);
+    a.optionalTrailingSlash(optionalTrailingSlash);
+    for (final String string : paths) {
+      final CharSequence path = bytes
+                                ? new AsciiSequence().wrap(string.getBytes(), 0, string.length())
+                                : string;
+      final String reason = string + " (optionalTrailingSlash=" + optionalTrailingSlash + ")";
+      final String value = expected.lookup(path, e);
+      assertThat(reason, actual.lookup(path, a), is(value));
+      assertThat(reason, a.isMatch(), is(e.isMatch()));
+      assertThat(reason, a.queryStart(), is(e.queryStart()));
+      assertThat(reason, a.queryEnd(), is(e.queryEnd()));
+      if (e.isMatch()) {
+        assertThat(reason, a.values(), is(e.values()));
+        for (int i = 0; i < e.values(); i++) {
+          assertThat(reason, a.valueStart(i), is(e.valueStart(i)));
+          assertThat(reason, a.valueEnd(i), is(e.valueEnd(i)));
+        }
+      }
+    }
+  }
+
+  private static String randomRoute(final Random random) {
+    final String[] parts = {"a", "b", "ab", "/", "/a", "/b/", "<x>", "<y>.", "-<z>"};
+    final StringBuilder b = new StringBuilder();
+    final int n = 1 + random.nextInt(5);
+    for (int i = 0; i < n; i++) {
+      b.append(parts[random.nextInt(parts.length)]);
+    }
+    if (random.nextInt(5) == 0) {
+      b.append("<p:path>");
+    }
+    return b.toString();
+  }
+
+  private static String randomPath(final Random random) {
+    final char[] chars = {'a', 'b', '/', '?', '.', '-', 'c'};
+    final StringBuilder b = new StringBuilder();
+    final int n = random.nextInt(10);
+    for (int i = 0; i < n; i++) {
+      b.append(chars[random.nextInt(chars.length)]);
+    }
+    return b.toString();
+  }
+}
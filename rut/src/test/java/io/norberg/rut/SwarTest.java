@@ -0,0 +1,58 @@
+package io.norberg.rut;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SwarTest {
+
+  @Test
+  public void testMismatch() {
+    final Random random = new Random(17);
+    for (int length = 0; length < 80; length++) {
+      final byte[] a = new byte[length + 5];
+      random.nextBytes(a);
+      final byte[] b = new byte[length + 3];
+      System.arraycopy(a, 5, b, 3, length);
+      assertThat(Swar.mismatch(a, 5, b, 3, length), is(-1));
+      for (int i = 0; i < length; i++) {
+        b[3 + i] ^= (byte) (1 << random.nextInt(8));
+        assertThat(Swar.mismatch(a, 5, b, 3, length), is(i));
+        b[3 + i] = a[5 + i];
+      }
+    }
+  }
+
+  @Test
+  public void testIndexOf() {
+    final Random random = new Random(17);
+    final byte[] a = new byte[100];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = (byte) ('a' + random.nextInt(26));
+    }
+    assertThat(Swar.indexOf(a, (byte) '/', (byte) '?', 0, a.length), is(-1));
+    for (int i = 0; i < a.length; i++) {
+      final byte b = a[i];
+      a[i] = (byte) ((i % 2 == 0) ? '/' : '?');
+      assertThat(Swar.indexOf(a, (byte) '/', (byte) '?', 0, a.length), is(i));
+      assertThat(Swar.indexOf(a, (byte) '/', (byte) '?', i, a.length), is(i));
+      assertThat(Swar.indexOf(a, (byte) '/', (byte) '?', i + 1, a.length), is(-1));
+      assertThat(Swar.indexOf(a, (byte) '/', (byte) '?', 0, i), is(-1));
+      a[i] = b;
+    }
+  }
+
+  @Test
+  public void testIndexOfHighBytes() {
+    final byte[] a = new byte[32];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = (byte) (0x80 | '/');
+    }
+    assertThat(Swar.indexOf(a, (byte) '/', (byte) '?', 0, a.length), is(-1));
+    a[20] = '?';
+    assertThat(Swar.indexOf(a, (byte) '/', (byte) '?', 0, a.length), is(20));
+  }
+}
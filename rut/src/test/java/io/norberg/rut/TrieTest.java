@@ -3,6 +3,11 @@ package io.norberg.rut;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
 
@@ -23,4 +28,31 @@ public class TrieTest {
     trie.insert(Path.of("/<foo>/<bar:path>"), "/<foo>/<bar:path>");
     assertThat(trie.toString(), not(Matchers.isEmptyOrNullString()));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testInsertionOrderAndParallelCompression() {
+    final List<String> routes = new ArrayList<String>();
+    for (int i = 0; i < 5000; i++) {
+      final String service = "/t" + (i % 7) + "/s" + i;
+      routes.add(service);
+      routes.add(service + "/<id>");
+      routes.add(service + "/<id>/x");
+      routes.add(service + "-<v>/<rest:path>");
+    }
+    Collections.sort(routes);
+    final RadixTrie<String> sorted = trie(routes).compress();
+
+    final List<String> shuffled = new ArrayList<String>(routes);
+    Collections.shuffle(shuffled, new Random(17));
+    RadixTrieTest.verifyLayout(trie(shuffled).compress(), sorted);
+    RadixTrieTest.verifyLayout(trie(shuffled).compressParallel(), sorted);
+  }
+
+  private static Trie<String> trie(final List<String> routes) {
+    final Trie<String> trie = new Trie<String>();
+    for (final String route : routes) {
+      trie.insert(Path.of(route), route);
+    }
+    return trie;
+  }
+}